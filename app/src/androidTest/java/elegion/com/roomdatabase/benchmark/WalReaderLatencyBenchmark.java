@@ -0,0 +1,129 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.room.Room;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.MusicDatabaseConfig;
+import elegion.com.roomdatabase.database.Song;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Задержка чтения по id, пока другой поток пакетами пишет песни: обычный журнал против WAL.
+ * Запускается на устройстве, потому что под Robolectric все обращения к SQLite идут через
+ * один поток и параллельного чтения нет:
+ * ./gradlew connectedDebugAndroidTest -Pbenchmark
+ * JSON ложится в files/benchmark-results приложения.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WalReaderLatencyBenchmark {
+
+    private static final String DATABASE_NAME = "wal_benchmark";
+    private static final int SEED_ROWS = 20_000;
+    private static final int WRITE_BATCH = 1000;
+    private static final int READS = 5000;
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(WalReaderLatencyBenchmark.class);
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        System.setProperty("benchmark.outputDir",
+                new File(mContext.getFilesDir(), "benchmark-results").getPath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readerLatencyDuringBulkWrite() throws Exception {
+        measure("rollbackJournal", MusicDatabaseConfig.DEFAULT.buildUpon()
+                .setWriteAheadLogging(false)
+                .setSynchronous(MusicDatabaseConfig.Synchronous.FULL)
+                .build());
+        measure("wal", MusicDatabaseConfig.DEFAULT);
+    }
+
+    private void measure(String mode, MusicDatabaseConfig config) throws Exception {
+        mContext.deleteDatabase(DATABASE_NAME);
+        final MusicDatabase database = MusicDatabase.configure(
+                Room.databaseBuilder(mContext, MusicDatabase.class, DATABASE_NAME), config)
+                .build();
+        final MusicDao musicDao = database.getMusicDao();
+        try {
+            insertBatch(database, musicDao, 0, SEED_ROWS);
+
+            final AtomicBoolean stop = new AtomicBoolean();
+            final AtomicLong written = new AtomicLong();
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int nextId = SEED_ROWS;
+                    while (!stop.get()) {
+                        insertBatch(database, musicDao, nextId, WRITE_BATCH);
+                        nextId += WRITE_BATCH;
+                        written.addAndGet(WRITE_BATCH);
+                    }
+                }
+            }, "bulk-writer");
+
+            Random random = new Random(42);
+            long[] samples = new long[READS];
+            long start = System.nanoTime();
+            writer.start();
+            try {
+                for (int i = 0; i < READS; i++) {
+                    int id = random.nextInt(SEED_ROWS);
+                    long readStart = System.nanoTime();
+                    assertTrue(musicDao.getSongById(id) != null);
+                    samples[i] = System.nanoTime() - readStart;
+                }
+            } finally {
+                stop.set(true);
+                writer.join();
+            }
+            long nanos = System.nanoTime() - start;
+
+            mReporter.report(mode + ".readerLatency", samples, 1);
+            mReporter.metric(mode + ".writerRowsPerSecond", "rows/sec", written.get() * 1_000_000_000L / nanos);
+        } finally {
+            database.close();
+        }
+    }
+
+    private static void insertBatch(MusicDatabase database, MusicDao musicDao, int firstId, int count) {
+        List<Song> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            songs.add(new Song(firstId + i, "song " + (firstId + i), i * 1000L));
+        }
+
+        database.beginTransaction();
+        try {
+            musicDao.insertSongs(songs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+}
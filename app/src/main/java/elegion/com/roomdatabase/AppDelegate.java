@@ -1,9 +1,11 @@
 package elegion.com.roomdatabase;
 
 import android.app.Application;
-import android.arch.persistence.room.Room;
+
+import java.io.File;
 
 import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.MusicRepository;
 
 /**
  * @author Azret Magometov
@@ -11,17 +13,23 @@ import elegion.com.roomdatabase.database.MusicDatabase;
 
 public class AppDelegate extends Application {
 
-    private MusicDatabase mMusicDatabase;
+    //снимок индекса каталога - кэш, система может удалить его, тогда индекс соберётся из базы
+    private static final String CATALOG_SNAPSHOT_FILE = "catalog_index.bin";
+
+    private MusicRepository mMusicRepository;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        mMusicDatabase = Room.databaseBuilder(getApplicationContext(), MusicDatabase.class, "music_database")
-                .allowMainThreadQueries()
-                .build();
+        mMusicRepository = new MusicRepository(getMusicDatabase(),
+                new File(getCacheDir(), CATALOG_SNAPSHOT_FILE));
     }
 
     public MusicDatabase getMusicDatabase() {
-        return mMusicDatabase;
+        return MusicDatabase.getInstance(this);
+    }
+
+    public MusicRepository getMusicRepository() {
+        return mMusicRepository;
     }
 }
@@ -7,11 +7,14 @@ import android.widget.Button;
 import android.widget.Toast;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import elegion.com.roomdatabase.database.Album;
 import elegion.com.roomdatabase.database.AlbumSong;
-import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.CatalogIndex;
+import elegion.com.roomdatabase.database.MusicRepository;
+import elegion.com.roomdatabase.database.MusicTypeConverters;
 import elegion.com.roomdatabase.database.Song;
 
 public class MainActivity extends AppCompatActivity {
@@ -27,15 +30,15 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        final MusicDao musicDao = ((AppDelegate) getApplicationContext()).getMusicDatabase().getMusicDao();
+        final MusicRepository musicRepository = ((AppDelegate) getApplicationContext()).getMusicRepository();
+        //индекс собирается в фоне, списки каталога дальше читаются из памяти без SQLite
+        musicRepository.getCatalogIndex().start();
 
         mAddBtn = (findViewById(R.id.add));
         mAddBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                musicDao.insertAlbums(createAlbums());
-                musicDao.insertSongs(createSongs());
-                musicDao.setLinksAlbumSongs(createAlbumSongs());
+                musicRepository.insertCatalog(createAlbums(), createSongs(), createAlbumSongs(), null);
             }
         });
 
@@ -43,7 +46,7 @@ public class MainActivity extends AppCompatActivity {
         mGetBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                showToast(musicDao);
+                showToast(musicRepository);
             }
         });
 
@@ -54,7 +57,7 @@ public class MainActivity extends AppCompatActivity {
         List<Album> albums = new ArrayList<>(count);
 
         for (int i = 0; i < count; i++) {
-            albums.add(new Album(i, "album " + i, "release " + System.currentTimeMillis()));
+            albums.add(new Album(i, "album " + i, new Date()));
         }
 
         return albums;
@@ -65,7 +68,7 @@ public class MainActivity extends AppCompatActivity {
         List<Song> songs = new ArrayList<>(count);
 
         for (int i = 0; i < count; i++) {
-            songs.add(new Song(i, "song " + i, "duration " + System.currentTimeMillis()));
+            songs.add(new Song(i, "song " + i, (i + 1) * 60_000L));
         }
 
         return songs;
@@ -82,10 +85,36 @@ public class MainActivity extends AppCompatActivity {
         return albumSongs;
     }
 
-    private void showToast(MusicDao musicDao) {
-        List<Album> albums = musicDao.getAlbums();
-        List<Song> songs = musicDao.getSongs();
-        List<AlbumSong> albumSongs = musicDao.getAlbumSongs();
+    private void showToast(final MusicRepository musicRepository) {
+        //списки из индекса в памяти; до конца первой сборки - из базы
+        CatalogIndex.Snapshot snapshot = musicRepository.getCatalogIndex().getSnapshot();
+        if (snapshot != null) {
+            showToast(snapshot);
+            return;
+        }
+
+        musicRepository.getAlbums(new MusicRepository.Callback<List<Album>>() {
+            @Override
+            public void onResult(final List<Album> albums) {
+                musicRepository.getSongs(new MusicRepository.Callback<List<Song>>() {
+                    @Override
+                    public void onResult(final List<Song> songs) {
+                        musicRepository.getAlbumSongs(new MusicRepository.Callback<List<AlbumSong>>() {
+                            @Override
+                            public void onResult(List<AlbumSong> albumSongs) {
+                                showToast(albums, songs, albumSongs);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    private void showToast(List<Album> albums, List<Song> songs, List<AlbumSong> albumSongs) {
+        if (isFinishing()) {
+            return;
+        }
 
         StringBuilder builder = new StringBuilder();
 
@@ -104,4 +133,28 @@ public class MainActivity extends AppCompatActivity {
         Toast.makeText(this, builder.toString(), Toast.LENGTH_LONG).show();
 
     }
+
+    private void showToast(CatalogIndex.Snapshot snapshot) {
+        StringBuilder builder = new StringBuilder();
+
+        for (int i = 0, count = snapshot.getAlbumCount(); i < count; i++) {
+            int release = snapshot.getAlbumRelease(i);
+            Date releaseDate = release == CatalogIndex.Snapshot.NO_RELEASE ? null : MusicTypeConverters.fromEpochDay((long) release);
+            builder.append(new Album(snapshot.getAlbumId(i), snapshot.getAlbumName(i), releaseDate).toString()).append("\n");
+        }
+
+        for (int i = 0, count = snapshot.getSongCount(); i < count; i++) {
+            builder.append(new Song(snapshot.getSongId(i), snapshot.getSongName(i), snapshot.getSongDuration(i)).toString())
+                    .append("\n");
+        }
+
+        for (int i = 0, count = snapshot.getAlbumCount(); i < count; i++) {
+            for (int position = 0, songs = snapshot.getAlbumSongCount(i); position < songs; position++) {
+                builder.append("album ").append(snapshot.getAlbumId(i))
+                        .append(" -> song ").append(snapshot.getSongId(snapshot.getAlbumSong(i, position))).append("\n");
+            }
+        }
+
+        Toast.makeText(this, builder.toString(), Toast.LENGTH_LONG).show();
+    }
 }
@@ -1,18 +1,40 @@
 package elegion.com.roomdatabase;
 
-import android.arch.persistence.room.Room;
+import android.arch.persistence.db.SupportSQLiteQuery;
+import android.arch.persistence.db.SupportSQLiteStatement;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 import elegion.com.roomdatabase.database.Album;
 import elegion.com.roomdatabase.database.AlbumSong;
 import elegion.com.roomdatabase.database.MusicDao;
 import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.MusicSearch;
+import elegion.com.roomdatabase.database.MusicSync;
+import elegion.com.roomdatabase.database.MusicTypeConverters;
+import elegion.com.roomdatabase.database.PlayCounter;
+import elegion.com.roomdatabase.database.QueryStats;
+import elegion.com.roomdatabase.database.RowCache;
 import elegion.com.roomdatabase.database.Song;
 
 public class MusicProvider extends ContentProvider {
@@ -23,6 +45,36 @@ public class MusicProvider extends ContentProvider {
     private static final String TABLE_ALBUM = "album";
     private static final String TABLE_SONG = "song";
     private static final String TABLE_ALBUMSONG = "albumsong";
+    private static final String PATH_SEARCH = "search";
+    private static final String PATH_CHANGES = "changes";
+    private static final String PATH_STATS = "stats";
+    private static final String PATH_RECENT = "recent";
+
+    //параметры uri поиска: content://.../search/song?q=текст&limit=20
+    public static final String QUERY_PARAMETER_SEARCH = "q";
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+
+    //дельта одной таблицы: content://.../changes/song?since=токен&limit=500, строки по возрастанию version,
+    //удалённые - с deleted = 1; следующий токен - version последней строки
+    public static final String QUERY_PARAMETER_SINCE = "since";
+    private static final int DEFAULT_CHANGES_LIMIT = 500;
+
+    //страница таблицы: content://.../song?limit=100&after=id, строки по возрастанию id;
+    //в extras курсора - общее число строк (только на первой странице) и after следующей страницы
+    public static final String QUERY_PARAMETER_AFTER = "after";
+    public static final String EXTRA_TOTAL_COUNT = "elegion.com.roomdatabase.extra.TOTAL_COUNT";
+    public static final String EXTRA_NEXT_AFTER = "elegion.com.roomdatabase.extra.NEXT_AFTER";
+    private static final int DEFAULT_PAGE_LIMIT = 100;
+
+    //статистика прослушиваний: content://.../stats?limit=20 - самые прослушиваемые песни,
+    //content://.../stats/recent - последние прослушанные; колонки песни плюс plays и last_played_at
+    private static final int DEFAULT_STATS_LIMIT = 20;
+
+    private static final Uri ALBUM_URI = Uri.parse("content://" + AUTHORITY + "/" + TABLE_ALBUM);
+    private static final Uri SONG_URI = Uri.parse("content://" + AUTHORITY + "/" + TABLE_SONG);
+    private static final Uri ALBUMSONG_URI = Uri.parse("content://" + AUTHORITY + "/" + TABLE_ALBUMSONG);
+    private static final Uri STATS_URI = Uri.parse("content://" + AUTHORITY + "/" + PATH_STATS);
 
     private static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -32,6 +84,40 @@ public class MusicProvider extends ContentProvider {
     private static final int SONG_ROW_CODE = 103;
     private static final int ALBUMSONG_TABLE_CODE = 104;
     private static final int ALBUMSONG_ROW_CODE = 105;
+    private static final int SEARCH_SONG_CODE = 106;
+    private static final int SEARCH_ALBUM_CODE = 107;
+    private static final int CHANGES_ALBUM_CODE = 108;
+    private static final int CHANGES_SONG_CODE = 109;
+    private static final int CHANGES_ALBUMSONG_CODE = 110;
+    private static final int STATS_MOST_PLAYED_CODE = 111;
+    private static final int STATS_RECENTLY_PLAYED_CODE = 112;
+
+    public static final int DEFAULT_BATCH_CHUNK_SIZE = 500;
+
+    //отложенная запись: очередь до 1000 записей, группа до 200 записей или 50 мс с первой
+    public static final int DEFAULT_WRITE_BEHIND_CAPACITY = 1000;
+    public static final int DEFAULT_WRITE_BEHIND_BATCH = 200;
+    public static final long DEFAULT_WRITE_BEHIND_DELAY_MILLIS = 50;
+    private static final String WRITE_BEHIND_COMMIT_TIMER = "provider.writeBehind commit";
+
+    //имена таймеров QueryStats по коду uri (индекс - code - ALBUM_TABLE_CODE), собираются заранее,
+    //чтобы на каждом вызове не склеивать строки
+    private static final String[] URI_PATHS = {TABLE_ALBUM, TABLE_ALBUM + "/#", TABLE_SONG, TABLE_SONG + "/#",
+            TABLE_ALBUMSONG, TABLE_ALBUMSONG + "/#", PATH_SEARCH + "/" + TABLE_SONG, PATH_SEARCH + "/" + TABLE_ALBUM,
+            PATH_CHANGES + "/" + TABLE_ALBUM, PATH_CHANGES + "/" + TABLE_SONG, PATH_CHANGES + "/" + TABLE_ALBUMSONG,
+            PATH_STATS, PATH_STATS + "/" + PATH_RECENT};
+    private static final String[] QUERY_TIMERS = timerNames("provider.query ");
+    private static final String[] INSERT_TIMERS = timerNames("provider.insert ");
+    private static final String[] BULK_INSERT_TIMERS = timerNames("provider.bulkInsert ");
+    private static final String[] UPDATE_TIMERS = timerNames("provider.update ");
+    private static final String[] DELETE_TIMERS = timerNames("provider.delete ");
+
+    private static final ProviderQueryCompiler ALBUM_QUERY = new ProviderQueryCompiler(TABLE_ALBUM,
+            "id", "name", "release", "updated_at", "version");
+    private static final ProviderQueryCompiler SONG_QUERY = new ProviderQueryCompiler(TABLE_SONG,
+            "id", "name", "duration", "updated_at", "version");
+    private static final ProviderQueryCompiler ALBUMSONG_QUERY = new ProviderQueryCompiler(TABLE_ALBUMSONG,
+            "id", "album_id", "song_id", "updated_at", "version");
 
     static {
         URI_MATCHER.addURI(AUTHORITY, TABLE_ALBUM, ALBUM_TABLE_CODE);
@@ -40,9 +126,32 @@ public class MusicProvider extends ContentProvider {
         URI_MATCHER.addURI(AUTHORITY, TABLE_SONG + "/*", SONG_ROW_CODE);
         URI_MATCHER.addURI(AUTHORITY, TABLE_ALBUMSONG, ALBUMSONG_TABLE_CODE);
         URI_MATCHER.addURI(AUTHORITY, TABLE_ALBUMSONG + "/*", ALBUMSONG_ROW_CODE);
+        URI_MATCHER.addURI(AUTHORITY, PATH_SEARCH + "/" + TABLE_SONG, SEARCH_SONG_CODE);
+        URI_MATCHER.addURI(AUTHORITY, PATH_SEARCH + "/" + TABLE_ALBUM, SEARCH_ALBUM_CODE);
+        URI_MATCHER.addURI(AUTHORITY, PATH_CHANGES + "/" + TABLE_ALBUM, CHANGES_ALBUM_CODE);
+        URI_MATCHER.addURI(AUTHORITY, PATH_CHANGES + "/" + TABLE_SONG, CHANGES_SONG_CODE);
+        URI_MATCHER.addURI(AUTHORITY, PATH_CHANGES + "/" + TABLE_ALBUMSONG, CHANGES_ALBUMSONG_CODE);
+        URI_MATCHER.addURI(AUTHORITY, PATH_STATS, STATS_MOST_PLAYED_CODE);
+        URI_MATCHER.addURI(AUTHORITY, PATH_STATS + "/" + PATH_RECENT, STATS_RECENTLY_PLAYED_CODE);
     }
 
+    private MusicDatabase mMusicDatabase;
     private MusicDao mMusicDao;
+    private RowCache mRowCache;
+    private MusicSearch mMusicSearch;
+    private MusicSync mMusicSync;
+    private ProviderInsertStatement mAlbumInsert;
+    private ProviderInsertStatement mSongInsert;
+    private ProviderInsertStatement mAlbumSongInsert;
+    private QueryStats mQueryStats;
+    private int mBatchChunkSize = DEFAULT_BATCH_CHUNK_SIZE;
+    private volatile ProviderWriteQueue mWriteQueue;
+
+    //внутри bulkInsert/applyBatch уведомления копятся и уходят один раз на таблицу после commit
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+    //id, сброшенные из RowCache внутри транзакции, сбрасываются ещё раз после её конца: строку,
+    //которую другой поток или чтение внутри транзакции успели загрузить до commit / rollback, кэш не оставит
+    private final ThreadLocal<RowInvalidations> mPendingInvalidations = new ThreadLocal<>();
 
     public MusicProvider() {
     }
@@ -50,9 +159,26 @@ public class MusicProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         if (getContext() != null) {
-            mMusicDao = Room.databaseBuilder(getContext().getApplicationContext(), MusicDatabase.class, "music_database")
-                    .build()
-                    .getMusicDao();
+            mMusicDatabase = MusicDatabase.getInstance(getContext());
+            mMusicDao = mMusicDatabase.getMusicDao();
+            mRowCache = mMusicDatabase.getRowCache();
+            mMusicSearch = new MusicSearch(mMusicDatabase);
+            mMusicSync = new MusicSync(mMusicDatabase);
+            mAlbumInsert = new ProviderInsertStatement(mMusicDatabase, TABLE_ALBUM, new String[]{"id", "name", "release"},
+                    new int[]{ProviderInsertStatement.LONG, ProviderInsertStatement.TEXT, ProviderInsertStatement.NULLABLE_LONG});
+            mSongInsert = new ProviderInsertStatement(mMusicDatabase, TABLE_SONG, new String[]{"id", "name", "duration"},
+                    new int[]{ProviderInsertStatement.LONG, ProviderInsertStatement.TEXT, ProviderInsertStatement.LONG});
+            mAlbumSongInsert = new ProviderInsertStatement(mMusicDatabase, TABLE_ALBUMSONG,
+                    new String[]{"id", "album_id", "song_id"},
+                    new int[]{ProviderInsertStatement.LONG, ProviderInsertStatement.LONG, ProviderInsertStatement.LONG});
+            mQueryStats = mMusicDatabase.getQueryStats();
+            //периодический сброс идёт мимо провайдера, поэтому о новых прослушиваниях сообщает счётчик
+            mMusicDatabase.getPlayCounter().setFlushListener(new PlayCounter.FlushListener() {
+                @Override
+                public void onFlushed(int updatedRows) {
+                    notifyChange(STATS_URI);
+                }
+            });
             return true;
         }
 
@@ -74,6 +200,19 @@ public class MusicProvider extends ContentProvider {
                 return "vnd.android.cursor.dir/" + AUTHORITY + "." + TABLE_ALBUMSONG;
             case ALBUMSONG_ROW_CODE:
                 return "vnd.android.cursor.item/" + AUTHORITY + "." + TABLE_ALBUMSONG;
+            case SEARCH_SONG_CODE:
+                return "vnd.android.cursor.dir/" + AUTHORITY + "." + TABLE_SONG;
+            case SEARCH_ALBUM_CODE:
+                return "vnd.android.cursor.dir/" + AUTHORITY + "." + TABLE_ALBUM;
+            case CHANGES_ALBUM_CODE:
+                return "vnd.android.cursor.dir/" + AUTHORITY + "." + PATH_CHANGES + "." + TABLE_ALBUM;
+            case CHANGES_SONG_CODE:
+                return "vnd.android.cursor.dir/" + AUTHORITY + "." + PATH_CHANGES + "." + TABLE_SONG;
+            case CHANGES_ALBUMSONG_CODE:
+                return "vnd.android.cursor.dir/" + AUTHORITY + "." + PATH_CHANGES + "." + TABLE_ALBUMSONG;
+            case STATS_MOST_PLAYED_CODE:
+            case STATS_RECENTLY_PLAYED_CODE:
+                return "vnd.android.cursor.dir/" + AUTHORITY + "." + PATH_STATS;
             default:
                 throw new UnsupportedOperationException("not yet implemented");
         }
@@ -83,71 +222,530 @@ public class MusicProvider extends ContentProvider {
     public Cursor query(Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
 
+        long start = System.nanoTime();
         int code = URI_MATCHER.match(uri);
 
-        int id = (int) ContentUris.parseId(uri);
+        Cursor cursor = query(code, uri, projection, selection, selectionArgs, sortOrder);
+        Context context = getContext();
+        if (cursor != null && context != null) {
+            cursor.setNotificationUri(context.getContentResolver(), getTableUri(code));
+        }
+
+        record(QUERY_TIMERS, code, start, QueryStats.knownRowCount(cursor));
+        return cursor;
+    }
+
+    protected Cursor query(int code, Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+
+        //запрос видит свои отложенные записи: если в таблице что-то ждёт, сначала пишем очередь
+        ProviderWriteQueue writeQueue = getWriteQueueForCall();
+        if (writeQueue != null && code != UriMatcher.NO_MATCH && writeQueue.hasPending(getTableUri(code))) {
+            writeQueue.flush();
+        }
+
+        if (code == SEARCH_SONG_CODE || code == SEARCH_ALBUM_CODE) {
+            return search(code, uri, selectionArgs);
+        }
+        if (code == CHANGES_ALBUM_CODE || code == CHANGES_SONG_CODE || code == CHANGES_ALBUMSONG_CODE) {
+            return changes(code, uri);
+        }
+        if (code == STATS_MOST_PLAYED_CODE || code == STATS_RECENTLY_PLAYED_CODE) {
+            return stats(code, uri);
+        }
+        if ((code == ALBUM_TABLE_CODE || code == SONG_TABLE_CODE || code == ALBUMSONG_TABLE_CODE)
+                && (uri.getQueryParameter(QUERY_PARAMETER_LIMIT) != null
+                || uri.getQueryParameter(QUERY_PARAMETER_AFTER) != null)) {
+            return page(code, uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        //без аргументов отдаём готовые запросы DAO, иначе собираем select с фильтрами для SQLite
+        if (projection == null && selection == null && sortOrder == null) {
+            switch (code) {
+                case ALBUM_TABLE_CODE:
+                    return mMusicDao.getAlbumsCursor();
+                case ALBUM_ROW_CODE:
+                    return toCursor(mRowCache.getAlbum(parseRowId(uri)));
+                case SONG_TABLE_CODE:
+                    return mMusicDao.getSongsCursor();
+                case SONG_ROW_CODE:
+                    return toCursor(mRowCache.getSong(parseRowId(uri)));
+                case ALBUMSONG_TABLE_CODE:
+                    return mMusicDao.getAlbumSongsCursor();
+                case ALBUMSONG_ROW_CODE:
+                    return toCursor(mRowCache.getAlbumSong(parseRowId(uri)));
+            }
+
+            return null;
+        }
 
         switch (code) {
             case ALBUM_TABLE_CODE:
-                return mMusicDao.getAlbumsCursor();
+                return mMusicDatabase.query(ALBUM_QUERY.compile(projection, selection, selectionArgs, sortOrder, null));
             case ALBUM_ROW_CODE:
-                return mMusicDao.getAlbumWithIdCursor(id);
+                return mMusicDatabase.query(ALBUM_QUERY.compile(projection, selection, selectionArgs, sortOrder, parseRowId(uri)));
             case SONG_TABLE_CODE:
-                return mMusicDao.getSongsCursor();
+                return mMusicDatabase.query(SONG_QUERY.compile(projection, selection, selectionArgs, sortOrder, null));
             case SONG_ROW_CODE:
-                return mMusicDao.getSongWithIdCursor(id);
+                return mMusicDatabase.query(SONG_QUERY.compile(projection, selection, selectionArgs, sortOrder, parseRowId(uri)));
             case ALBUMSONG_TABLE_CODE:
-                return mMusicDao.getAlbumSongsCursor();
+                return mMusicDatabase.query(ALBUMSONG_QUERY.compile(projection, selection, selectionArgs, sortOrder, null));
             case ALBUMSONG_ROW_CODE:
-                return mMusicDao.getAlbumSongWithIdCursor(id);
+                return mMusicDatabase.query(ALBUMSONG_QUERY.compile(projection, selection, selectionArgs, sortOrder, parseRowId(uri)));
         }
 
         return null;
     }
 
+    //текст поиска берётся из параметра q, а если его нет - из первого selectionArgs
+    protected Cursor search(int code, @NonNull Uri uri, String[] selectionArgs) {
+        String text = uri.getQueryParameter(QUERY_PARAMETER_SEARCH);
+        if (text == null && selectionArgs != null && selectionArgs.length > 0) {
+            text = selectionArgs[0];
+        }
+        if (text == null) {
+            throw new IllegalArgumentException("search text is missing");
+        }
+
+        int limit = parseLimit(uri, DEFAULT_SEARCH_LIMIT);
+
+        return code == SEARCH_SONG_CODE
+                ? mMusicSearch.searchSongsCursor(text, limit)
+                : mMusicSearch.searchAlbumsCursor(text, limit);
+    }
+
+    protected Cursor changes(int code, @NonNull Uri uri) {
+        String sinceParameter = uri.getQueryParameter(QUERY_PARAMETER_SINCE);
+        long since = sinceParameter == null ? 0 : Long.parseLong(sinceParameter);
+
+        int limit = parseLimit(uri, DEFAULT_CHANGES_LIMIT);
+
+        String table = code == CHANGES_ALBUM_CODE ? TABLE_ALBUM : code == CHANGES_SONG_CODE ? TABLE_SONG : TABLE_ALBUMSONG;
+        return mMusicSync.queryChanges(table, since, limit);
+    }
+
+    protected Cursor stats(int code, @NonNull Uri uri) {
+        int limit = parseLimit(uri, DEFAULT_STATS_LIMIT);
+
+        //прослушивания, ещё лежащие в счётчиках, сначала дописываются, чтобы top-N их учитывал
+        mMusicDatabase.getPlayCounter().flush();
+        return code == STATS_MOST_PLAYED_CODE
+                ? mMusicDao.getMostPlayedSongsCursor(limit)
+                : mMusicDao.getRecentlyPlayedSongsCursor(limit);
+    }
+
+    //LIMIT с отрицательным числом в SQLite снимает ограничение, поэтому такой limit - ошибка вызывающего
+    private static int parseLimit(@NonNull Uri uri, int defaultLimit) {
+        String limitParameter = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        if (limitParameter == null) {
+            return defaultLimit;
+        }
+
+        int limit;
+        try {
+            limit = Integer.parseInt(limitParameter);
+        } catch (NumberFormatException e) {
+            limit = 0;
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be a positive integer, got: " + limitParameter);
+        }
+        return limit;
+    }
+
+    //keyset по id вместо OFFSET: дальние страницы не перечитывают пропущенные строки
+    protected Cursor page(int code, @NonNull Uri uri, String[] projection, String selection,
+                          String[] selectionArgs, String sortOrder) {
+        if (sortOrder != null && !sortOrder.trim().equalsIgnoreCase("id")
+                && !sortOrder.trim().equalsIgnoreCase("id asc")) {
+            throw new IllegalArgumentException("paged query is ordered by id, got: " + sortOrder);
+        }
+
+        int limit = parseLimit(uri, DEFAULT_PAGE_LIMIT);
+        String afterParameter = uri.getQueryParameter(QUERY_PARAMETER_AFTER);
+        Long after = afterParameter == null ? null : Long.parseLong(afterParameter);
+
+        ProviderQueryCompiler compiler = code == ALBUM_TABLE_CODE ? ALBUM_QUERY
+                : code == SONG_TABLE_CODE ? SONG_QUERY : ALBUMSONG_QUERY;
+        Cursor cursor = mMusicDatabase.query(compiler.compilePage(projection, selection, selectionArgs, after, limit));
+
+        Bundle extras = new Bundle();
+        //count(*) проходит всю выборку, поэтому считаем его один раз - на первой странице
+        if (after == null) {
+            Cursor count = mMusicDatabase.query(compiler.compileCount(selection, selectionArgs));
+            try {
+                extras.putLong(EXTRA_TOTAL_COUNT, count.moveToFirst() ? count.getLong(0) : 0);
+            } finally {
+                count.close();
+            }
+        }
+        if (cursor.getCount() == limit && cursor.moveToLast()) {
+            extras.putLong(EXTRA_NEXT_AFTER, cursor.getLong(cursor.getColumnIndexOrThrow("id")));
+        }
+        cursor.moveToPosition(-1);
+        return new PageCursor(cursor, extras);
+    }
+
+    protected int parseRowId(@NonNull Uri uri) {
+        return (int) ContentUris.parseId(uri);
+    }
+
+    protected Cursor toCursor(Album album) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"id", "name", "release", "updated_at", "version"}, 1);
+        if (album != null) {
+            cursor.addRow(new Object[]{album.getId(), album.getName(),
+                    MusicTypeConverters.toEpochDay(album.getReleaseDate()), album.getUpdatedAt(), album.getVersion()});
+        }
+        return cursor;
+    }
+
+    protected Cursor toCursor(Song song) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"id", "name", "duration", "updated_at", "version"}, 1);
+        if (song != null) {
+            cursor.addRow(new Object[]{song.getId(), song.getName(), song.getDuration(),
+                    song.getUpdatedAt(), song.getVersion()});
+        }
+        return cursor;
+    }
+
+    protected Cursor toCursor(AlbumSong albumSong) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"id", "album_id", "song_id", "updated_at", "version"}, 1);
+        if (albumSong != null) {
+            cursor.addRow(new Object[]{albumSong.getId(), albumSong.getAlbumId(), albumSong.getSongId(),
+                    albumSong.getUpdatedAt(), albumSong.getVersion()});
+        }
+        return cursor;
+    }
+
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        switch (URI_MATCHER.match(uri)) {
+        long start = System.nanoTime();
+        int code = URI_MATCHER.match(uri);
+        ProviderWriteQueue writeQueue = getWriteQueueForCall();
+        if (writeQueue != null && isBatchInsertCode(code)) {
+            Uri result = enqueueInsert(writeQueue, uri, code, values);
+            record(INSERT_TIMERS, code, start, 1);
+            return result;
+        }
+
+        Uri result;
+        switch (code) {
             case ALBUM_TABLE_CODE:
-                return insertAlbum(uri, values);
+                result = insertAlbum(uri, values);
+                break;
             case SONG_TABLE_CODE:
-                return insertSong(uri, values);
+                result = insertSong(uri, values);
+                break;
             case ALBUMSONG_TABLE_CODE:
-                return insertAlbumSong(uri, values);
+                result = insertAlbumSong(uri, values);
+                break;
             default:
                 throwIllegalArgumentException();
+                return null;
         }
 
-        return null;
+        notifyChange(code);
+        record(INSERT_TIMERS, code, start, 1);
+        return result;
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        long start = System.nanoTime();
+        int code = URI_MATCHER.match(uri);
+        if (!isBatchInsertCode(code)) {
+            throwIllegalArgumentException();
+            return 0;
+        }
+        flushWrites();
+
+        BatchInserter inserter = new BatchInserter();
+        boolean outer = mPendingInvalidations.get() == null;
+        if (outer) {
+            mPendingInvalidations.set(new RowInvalidations());
+        }
+        mMusicDatabase.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                inserter.add(uri, code, value);
+            }
+            inserter.flush();
+            mMusicDatabase.setTransactionSuccessful();
+        } finally {
+            mMusicDatabase.endTransaction();
+            if (outer) {
+                mPendingInvalidations.get().applyTo(mRowCache);
+                mPendingInvalidations.remove();
+            }
+        }
+
+        if (values.length > 0) {
+            notifyChange(code);
+        }
+        record(BULK_INSERT_TIMERS, code, start, values.length);
+        return values.length;
+    }
+
+    //весь батч выполняется в одной транзакции, подряд идущие вставки в одну таблицу
+    //уходят в insertAlbums / insertSongs / setLinksAlbumSongs кусками по mBatchChunkSize
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        flushWrites();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        BatchInserter inserter = new BatchInserter();
+        Set<Uri> notifications = new LinkedHashSet<>();
+        boolean successful = false;
+
+        RowInvalidations invalidations = new RowInvalidations();
+
+        mPendingNotifications.set(notifications);
+        mPendingInvalidations.set(invalidations);
+        mMusicDatabase.beginTransaction();
+        try {
+            for (int i = 0, size = operations.size(); i < size; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                int code = URI_MATCHER.match(operation.getUri());
+
+                if (operation.isInsert() && isBatchInsertCode(code)) {
+                    ContentValues values = operation.resolveValueBackReferences(results, i);
+                    results[i] = new ContentProviderResult(inserter.add(operation.getUri(), code, values));
+                    notifyChange(code);
+                } else {
+                    inserter.flush();
+                    results[i] = operation.apply(this, results, i);
+                }
+            }
+            inserter.flush();
+            mMusicDatabase.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            mMusicDatabase.endTransaction();
+            mPendingNotifications.remove();
+            mPendingInvalidations.remove();
+            invalidations.applyTo(mRowCache);
+        }
+
+        if (successful) {
+            for (Uri notification : notifications) {
+                notifyChange(notification);
+            }
+        }
+        return results;
+    }
+
+    public int getBatchChunkSize() {
+        return mBatchChunkSize;
+    }
+
+    public void setBatchChunkSize(int batchChunkSize) {
+        if (batchChunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        mBatchChunkSize = batchChunkSize;
+    }
+
+    protected boolean isBatchInsertCode(int code) {
+        return code == ALBUM_TABLE_CODE || code == SONG_TABLE_CODE || code == ALBUMSONG_TABLE_CODE;
+    }
+
+    protected boolean isRowUpdateCode(int code) {
+        return code == ALBUM_ROW_CODE || code == SONG_ROW_CODE || code == ALBUMSONG_ROW_CODE;
+    }
+
+    /**
+     * Включает отложенную запись: одиночные insert и update по row uri возвращаются сразу,
+     * а в базу попадают группами на отдельном потоке. Запросы к таблице с ждущими записями,
+     * delete, bulkInsert и applyBatch сначала дожидаются записи очереди. Выключение записывает
+     * всё, что осталось.
+     * <p>
+     * Insert возвращает uri по id из values, update - 1, если значения прошли проверку:
+     * настоящий результат известен только после записи.
+     */
+    public void setWriteBehindEnabled(boolean enabled) {
+        setWriteBehind(enabled, DEFAULT_WRITE_BEHIND_CAPACITY, DEFAULT_WRITE_BEHIND_BATCH,
+                DEFAULT_WRITE_BEHIND_DELAY_MILLIS);
+    }
+
+    public synchronized void setWriteBehind(boolean enabled, int capacity, int maxBatch, long maxDelayMillis) {
+        ProviderWriteQueue current = mWriteQueue;
+        if (current != null) {
+            mWriteQueue = null;
+            current.shutdown();
+        }
+        if (enabled) {
+            mWriteQueue = new ProviderWriteQueue(mMusicDatabase, new ProviderWriteQueue.Applier() {
+                @Override
+                public void apply(int code, @NonNull Uri uri, @NonNull ContentValues values) {
+                    //поток писателя: id копятся до commit группы; после упавшей группы остаются
+                    //до следующей и сбрасываются вместе с ней
+                    if (mPendingInvalidations.get() == null) {
+                        mPendingInvalidations.set(new RowInvalidations());
+                    }
+                    applyWrite(code, uri, values);
+                }
+
+                @Override
+                public void onCommitted(@NonNull Set<Uri> tableUris) {
+                    RowInvalidations invalidations = mPendingInvalidations.get();
+                    if (invalidations != null) {
+                        mPendingInvalidations.remove();
+                        invalidations.applyTo(mRowCache);
+                    }
+                    for (Uri tableUri : tableUris) {
+                        notifyChange(tableUri);
+                    }
+                }
+            }, mQueryStats.timer(WRITE_BEHIND_COMMIT_TIMER), capacity, maxBatch, maxDelayMillis);
+        }
+    }
+
+    public boolean isWriteBehindEnabled() {
+        return mWriteQueue != null;
+    }
+
+    //число записей, ещё не взятых писателем
+    public int getWriteBehindDepth() {
+        ProviderWriteQueue writeQueue = mWriteQueue;
+        return writeQueue == null ? 0 : writeQueue.getDepth();
+    }
+
+    /**
+     * Ждёт, пока отложенные записи попадут в базу. Без отложенной записи и внутри транзакции
+     * этого потока ничего не делает.
+     */
+    public void flushWrites() {
+        ProviderWriteQueue writeQueue = getWriteQueueForCall();
+        if (writeQueue != null) {
+            writeQueue.flush();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        //процесс могут убить без shutdown, поэтому очередь пишется при первом сигнале нехватки памяти
+        flushWrites();
+    }
+
+    @Override
+    public void shutdown() {
+        setWriteBehindEnabled(false);
+    }
+
+    //внутри applyBatch или другой транзакции этого потока очередь не используется: записи идут
+    //в транзакцию сразу, а flush не ждёт писателя - тот стоит в beginTransaction за этой же
+    //транзакцией, и ожидание было бы взаимной блокировкой
+    private ProviderWriteQueue getWriteQueueForCall() {
+        ProviderWriteQueue writeQueue = mWriteQueue;
+        if (writeQueue == null || mPendingNotifications.get() != null || mMusicDatabase.inTransaction()) {
+            return null;
+        }
+        return writeQueue;
+    }
+
+    //значения проверяются и копируются сразу, чтобы ошибка дошла до вызывающего,
+    //а его ContentValues можно было менять после вызова
+    private Uri enqueueInsert(ProviderWriteQueue writeQueue, Uri uri, int code, ContentValues values) {
+        boolean valid = code == ALBUM_TABLE_CODE ? isAlbumValuesValid(values)
+                : code == SONG_TABLE_CODE ? isSongValuesValid(values)
+                : isAlbumSongValuesValid(values);
+        if (!valid) {
+            throwIllegalArgumentException();
+            return null;
+        }
+
+        long id = ProviderInsertStatement.toLong("id", values.get("id"));
+        writeQueue.enqueue(code, uri, new ContentValues(values), getTableUri(code));
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    private int enqueueUpdate(ProviderWriteQueue writeQueue, Uri uri, int code, ContentValues values) {
+        boolean valid = code == ALBUM_ROW_CODE ? isAlbumValuesValid(values)
+                : code == SONG_ROW_CODE ? isSongValuesValid(values)
+                : isAlbumSongValuesValid(values);
+        if (!valid) {
+            throwIllegalArgumentException();
+            return 0;
+        }
+
+        writeQueue.enqueue(code, uri, new ContentValues(values), getTableUri(code));
+        return 1;
+    }
+
+    //на потоке писателя очереди, внутри транзакции группы
+    private void applyWrite(int code, Uri uri, ContentValues values) {
+        switch (code) {
+            case ALBUM_TABLE_CODE:
+                insertAlbum(uri, values);
+                break;
+            case SONG_TABLE_CODE:
+                insertSong(uri, values);
+                break;
+            case ALBUMSONG_TABLE_CODE:
+                insertAlbumSong(uri, values);
+                break;
+            case ALBUM_ROW_CODE:
+                updateAlbum(uri, values);
+                break;
+            case SONG_ROW_CODE:
+                updateSong(uri, values);
+                break;
+            case ALBUMSONG_ROW_CODE:
+                updateAlbumSong(uri, values);
+                break;
+            default:
+                throwIllegalArgumentException();
+        }
     }
 
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        switch (URI_MATCHER.match(uri)) {
+        long start = System.nanoTime();
+        int code = URI_MATCHER.match(uri);
+        ProviderWriteQueue writeQueue = getWriteQueueForCall();
+        if (writeQueue != null && isRowUpdateCode(code)) {
+            int updatedRows = enqueueUpdate(writeQueue, uri, code, values);
+            record(UPDATE_TIMERS, code, start, updatedRows);
+            return updatedRows;
+        }
+
+        int updatedRows;
+        switch (code) {
             case ALBUM_ROW_CODE:
-                return updateAlbum(uri, values);
+                updatedRows = updateAlbum(uri, values);
+                break;
             case SONG_ROW_CODE:
-                return updateSong(uri, values);
+                updatedRows = updateSong(uri, values);
+                break;
             case ALBUMSONG_ROW_CODE:
-                return updateAlbumSong(uri, values);
+                updatedRows = updateAlbumSong(uri, values);
+                break;
             default:
                 throwIllegalArgumentException();
+                return 0;
         }
 
-        return 0;
+        if (updatedRows > 0) {
+            notifyChange(code);
+        }
+        record(UPDATE_TIMERS, code, start, updatedRows);
+        return updatedRows;
     }
 
+    //одиночные вставки идут через скомпилированные statement без промежуточной сущности,
+    //пачки - через BatchInserter и DAO
     protected Uri insertAlbum(@NonNull Uri uri, ContentValues values) {
         if (!isAlbumValuesValid(values)) {
             throwIllegalArgumentException();
             return null;
         }
 
-        Album album = prepareAlbum(values);
-
-        mMusicDao.insertAlbum(album);
+        int id = (int) mAlbumInsert.insert(values);
+        invalidateAlbum(id);
 
-        return ContentUris.withAppendedId(uri, values.getAsInteger("id"));
+        return ContentUris.withAppendedId(uri, id);
     }
 
     protected Uri insertSong(@NonNull Uri uri, ContentValues values) {
@@ -156,10 +754,10 @@ public class MusicProvider extends ContentProvider {
             return null;
         }
 
-        Song song = prepareSong(values);
-        mMusicDao.insertSong(song);
+        int id = (int) mSongInsert.insert(values);
+        invalidateSong(id);
 
-        return ContentUris.withAppendedId(uri, values.getAsInteger("id"));
+        return ContentUris.withAppendedId(uri, id);
     }
 
     protected Uri insertAlbumSong(@NonNull Uri uri, ContentValues values) {
@@ -168,10 +766,10 @@ public class MusicProvider extends ContentProvider {
             return null;
         }
 
-        AlbumSong albumSong = prepareAlbumSong(values);
-        mMusicDao.setLinkAlbumSong(albumSong);
+        int id = (int) mAlbumSongInsert.insert(values);
+        invalidateAlbumSong(id);
 
-        return ContentUris.withAppendedId(uri, values.getAsInteger("id"));
+        return ContentUris.withAppendedId(uri, id);
     }
 
     protected boolean isAlbumValuesValid(ContentValues values) {
@@ -179,7 +777,10 @@ public class MusicProvider extends ContentProvider {
     }
 
     protected boolean isSongValuesValid(ContentValues values) {
-        return values.containsKey("id") && values.containsKey("name") && values.containsKey("duration");
+        //getAsLong упаковывает число заново, поэтому вызывается только для строкового значения
+        Object duration = values.get("duration");
+        return values.containsKey("id") && values.containsKey("name")
+                && (duration instanceof Number || values.getAsLong("duration") != null);
     }
 
     protected boolean isAlbumSongValuesValid(ContentValues values) {
@@ -194,6 +795,7 @@ public class MusicProvider extends ContentProvider {
 
         Album album = prepareAlbum(values);
         int updatedRows = mMusicDao.updateAlbumInfo(album);
+        invalidateAlbum(album.getId());
         return updatedRows;
     }
 
@@ -205,6 +807,7 @@ public class MusicProvider extends ContentProvider {
 
         Song song = prepareSong(values);
         int updatedRows = mMusicDao.updateSongInfo(song);
+        invalidateSong(song.getId());
         return updatedRows;
     }
 
@@ -216,25 +819,215 @@ public class MusicProvider extends ContentProvider {
 
         AlbumSong albumSong = prepareAlbumSong(values);
         int updatedRows = mMusicDao.updateAlbumSongInfo(albumSong);
+        invalidateAlbumSong(albumSong.getId());
         return updatedRows;
     }
 
+    //row uri без selection удаляется по id через DAO, table uri и selection - одним DELETE
+    //по проверенному selection; связи удалённых альбомов и песен удаляет триггер в том же statement
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        int id = (int) ContentUris.parseId(uri);
+        //удаление не должно обогнать отложенную вставку той же строки
+        flushWrites();
+        long start = System.nanoTime();
+        int code = URI_MATCHER.match(uri);
+        boolean hasSelection = selection != null && !selection.trim().isEmpty();
+        int deletedRows;
+        switch (code) {
+            case ALBUM_TABLE_CODE:
+                deletedRows = executeDelete(ALBUM_QUERY.compileDelete(selection, selectionArgs, null));
+                invalidateAllAlbums();
+                invalidateAllAlbumSongs();
+                break;
+            case ALBUM_ROW_CODE:
+                deletedRows = hasSelection
+                        ? executeDelete(ALBUM_QUERY.compileDelete(selection, selectionArgs, parseRowId(uri)))
+                        : mMusicDao.deleteAlbumById(parseRowId(uri));
+                invalidateAlbum(parseRowId(uri));
+                invalidateAllAlbumSongs();
+                break;
+            case SONG_TABLE_CODE:
+                deletedRows = executeDelete(SONG_QUERY.compileDelete(selection, selectionArgs, null));
+                invalidateAllSongs();
+                invalidateAllAlbumSongs();
+                break;
+            case SONG_ROW_CODE:
+                deletedRows = hasSelection
+                        ? executeDelete(SONG_QUERY.compileDelete(selection, selectionArgs, parseRowId(uri)))
+                        : mMusicDao.deleteSongById(parseRowId(uri));
+                invalidateSong(parseRowId(uri));
+                invalidateAllAlbumSongs();
+                break;
+            case ALBUMSONG_TABLE_CODE:
+                deletedRows = executeDelete(ALBUMSONG_QUERY.compileDelete(selection, selectionArgs, null));
+                invalidateAllAlbumSongs();
+                break;
+            case ALBUMSONG_ROW_CODE:
+                deletedRows = hasSelection
+                        ? executeDelete(ALBUMSONG_QUERY.compileDelete(selection, selectionArgs, parseRowId(uri)))
+                        : mMusicDao.deleteAlbumSongById(parseRowId(uri));
+                invalidateAlbumSong(parseRowId(uri));
+                break;
+            default:
+                throwIllegalArgumentException();
+                return 0;
+        }
 
-        switch (URI_MATCHER.match(uri)) {
+        if (deletedRows > 0) {
+            notifyChange(code);
+            if (code != ALBUMSONG_TABLE_CODE && code != ALBUMSONG_ROW_CODE) {
+                notifyChange(ALBUMSONG_URI);
+            }
+        }
+        record(DELETE_TIMERS, code, start, deletedRows);
+        return deletedRows;
+    }
+
+    //через транзакцию Room, чтобы InvalidationTracker увидел удаление так же, как после DAO
+    private int executeDelete(SupportSQLiteQuery query) {
+        SupportSQLiteStatement statement = mMusicDatabase.compileStatement(query.getSql());
+        query.bindTo(statement);
+        mMusicDatabase.beginTransaction();
+        try {
+            int deletedRows = statement.executeUpdateDelete();
+            mMusicDatabase.setTransactionSuccessful();
+            return deletedRows;
+        } finally {
+            mMusicDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * adb shell dumpsys activity provider elegion.com.roomdatabase/.MusicProvider [reset]
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (mQueryStats == null) {
+            return;
+        }
+        if (args != null && args.length > 0 && "reset".equals(args[0])) {
+            mQueryStats.reset();
+            writer.println("query stats reset");
+            return;
+        }
+        mQueryStats.dump(writer);
+        ProviderWriteQueue writeQueue = mWriteQueue;
+        if (writeQueue != null) {
+            writeQueue.dump(writer);
+        }
+    }
+
+    private void record(String[] timers, int code, long startNanos, long rows) {
+        int index = code - ALBUM_TABLE_CODE;
+        if (index >= 0 && index < timers.length) {
+            mQueryStats.timer(timers[index]).record(startNanos, rows);
+        }
+    }
+
+    private static String[] timerNames(String prefix) {
+        String[] names = new String[URI_PATHS.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = prefix + URI_PATHS[i];
+        }
+        return names;
+    }
+
+    protected Uri getTableUri(int code) {
+        switch (code) {
+            case ALBUM_TABLE_CODE:
             case ALBUM_ROW_CODE:
-                return mMusicDao.deleteAlbumById(id);
+            case SEARCH_ALBUM_CODE:
+            case CHANGES_ALBUM_CODE:
+                return ALBUM_URI;
+            case SONG_TABLE_CODE:
             case SONG_ROW_CODE:
-                return mMusicDao.deleteSongById(id);
+            case SEARCH_SONG_CODE:
+            case CHANGES_SONG_CODE:
+                return SONG_URI;
+            case ALBUMSONG_TABLE_CODE:
             case ALBUMSONG_ROW_CODE:
-                return mMusicDao.deleteAlbumSongById(id);
+            case CHANGES_ALBUMSONG_CODE:
+                return ALBUMSONG_URI;
+            case STATS_MOST_PLAYED_CODE:
+            case STATS_RECENTLY_PLAYED_CODE:
+                return STATS_URI;
             default:
                 throwIllegalArgumentException();
+                return null;
+        }
+    }
+
+    //сразу - чтобы следующие чтения той же транзакции видели запись, и ещё раз после её конца
+    private void invalidateAlbum(int id) {
+        mRowCache.invalidateAlbum(id);
+        RowInvalidations pending = mPendingInvalidations.get();
+        if (pending != null) {
+            pending.mAlbums.add(id);
+        }
+    }
+
+    private void invalidateSong(int id) {
+        mRowCache.invalidateSong(id);
+        RowInvalidations pending = mPendingInvalidations.get();
+        if (pending != null) {
+            pending.mSongs.add(id);
+        }
+    }
+
+    private void invalidateAlbumSong(int id) {
+        mRowCache.invalidateAlbumSong(id);
+        RowInvalidations pending = mPendingInvalidations.get();
+        if (pending != null) {
+            pending.mAlbumSongs.add(id);
+        }
+    }
+
+    private void invalidateAllAlbums() {
+        mRowCache.invalidateAllAlbums();
+        RowInvalidations pending = mPendingInvalidations.get();
+        if (pending != null) {
+            pending.mAllAlbums = true;
+        }
+    }
+
+    private void invalidateAllSongs() {
+        mRowCache.invalidateAllSongs();
+        RowInvalidations pending = mPendingInvalidations.get();
+        if (pending != null) {
+            pending.mAllSongs = true;
+        }
+    }
+
+    private void invalidateAllAlbumSongs() {
+        mRowCache.invalidateAllAlbumSongs();
+        RowInvalidations pending = mPendingInvalidations.get();
+        if (pending != null) {
+            pending.mAllAlbumSongs = true;
+        }
+    }
+
+    protected void notifyChange(int code) {
+        notifyChange(getTableUri(code));
+    }
+
+    private void notifyChange(Uri tableUri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(tableUri);
+            //в статистике колонки песни, а удаление песни убирает её счётчики
+            if (SONG_URI.equals(tableUri)) {
+                pending.add(STATS_URI);
+            }
+            return;
         }
 
-        return 0;
+        Context context = getContext();
+        if (context != null) {
+            context.getContentResolver().notifyChange(tableUri, null);
+            if (SONG_URI.equals(tableUri)) {
+                context.getContentResolver().notifyChange(STATS_URI, null);
+            }
+        }
     }
 
     protected Album prepareAlbum(ContentValues values) {
@@ -242,7 +1035,8 @@ public class MusicProvider extends ContentProvider {
         Integer id = values.getAsInteger("id");
         album.setId(id);
         album.setName(values.getAsString("name"));
-        album.setReleaseDate(values.getAsString("release"));
+        //release - номер дня от 1970-01-01
+        album.setReleaseDate(MusicTypeConverters.fromEpochDay(values.getAsLong("release")));
 
         return album;
     }
@@ -252,7 +1046,7 @@ public class MusicProvider extends ContentProvider {
         Integer id = values.getAsInteger("id");
         song.setId(id);
         song.setName(values.getAsString("name"));
-        song.setDuration(values.getAsString("duration"));
+        song.setDuration(values.getAsLong("duration"));
 
         return song;
     }
@@ -270,4 +1064,134 @@ public class MusicProvider extends ContentProvider {
     protected void throwIllegalArgumentException() {
         throw new IllegalArgumentException("cant add multiple items");
     }
+
+    /**
+     * Копит строки одной таблицы и отдаёт их в DAO списком. Вызывать только внутри транзакции.
+     */
+    private final class BatchInserter {
+
+        private final int mChunkSize = mBatchChunkSize;
+        private final List<Album> mAlbums = new ArrayList<>();
+        private final List<Song> mSongs = new ArrayList<>();
+        private final List<AlbumSong> mAlbumSongs = new ArrayList<>();
+
+        private int mCode = UriMatcher.NO_MATCH;
+
+        Uri add(@NonNull Uri uri, int code, ContentValues values) {
+            //связи ссылаются на альбомы и песни, поэтому порядок вставки между таблицами сохраняем
+            if (code != mCode) {
+                flush();
+                mCode = code;
+            }
+
+            int pending;
+            switch (code) {
+                case ALBUM_TABLE_CODE:
+                    if (!isAlbumValuesValid(values)) {
+                        throwIllegalArgumentException();
+                    }
+                    mAlbums.add(prepareAlbum(values));
+                    pending = mAlbums.size();
+                    break;
+                case SONG_TABLE_CODE:
+                    if (!isSongValuesValid(values)) {
+                        throwIllegalArgumentException();
+                    }
+                    mSongs.add(prepareSong(values));
+                    pending = mSongs.size();
+                    break;
+                case ALBUMSONG_TABLE_CODE:
+                    if (!isAlbumSongValuesValid(values)) {
+                        throwIllegalArgumentException();
+                    }
+                    mAlbumSongs.add(prepareAlbumSong(values));
+                    pending = mAlbumSongs.size();
+                    break;
+                default:
+                    throwIllegalArgumentException();
+                    return null;
+            }
+
+            if (pending >= mChunkSize) {
+                flush();
+            }
+
+            return ContentUris.withAppendedId(uri, values.getAsInteger("id"));
+        }
+
+        void flush() {
+            if (!mAlbums.isEmpty()) {
+                mMusicDao.insertAlbums(mAlbums);
+                for (int i = 0, size = mAlbums.size(); i < size; i++) {
+                    invalidateAlbum(mAlbums.get(i).getId());
+                }
+                mAlbums.clear();
+            }
+            if (!mSongs.isEmpty()) {
+                mMusicDao.insertSongs(mSongs);
+                for (int i = 0, size = mSongs.size(); i < size; i++) {
+                    invalidateSong(mSongs.get(i).getId());
+                }
+                mSongs.clear();
+            }
+            if (!mAlbumSongs.isEmpty()) {
+                mMusicDao.setLinksAlbumSongs(mAlbumSongs);
+                for (int i = 0, size = mAlbumSongs.size(); i < size; i++) {
+                    invalidateAlbumSong(mAlbumSongs.get(i).getId());
+                }
+                mAlbumSongs.clear();
+            }
+        }
+    }
+
+    //id строк RowCache, затронутых транзакцией
+    private static final class RowInvalidations {
+
+        private final Set<Integer> mAlbums = new HashSet<>();
+        private final Set<Integer> mSongs = new HashSet<>();
+        private final Set<Integer> mAlbumSongs = new HashSet<>();
+        private boolean mAllAlbums;
+        private boolean mAllSongs;
+        private boolean mAllAlbumSongs;
+
+        void applyTo(RowCache rowCache) {
+            if (mAllAlbums) {
+                rowCache.invalidateAllAlbums();
+            } else {
+                for (int id : mAlbums) {
+                    rowCache.invalidateAlbum(id);
+                }
+            }
+            if (mAllSongs) {
+                rowCache.invalidateAllSongs();
+            } else {
+                for (int id : mSongs) {
+                    rowCache.invalidateSong(id);
+                }
+            }
+            if (mAllAlbumSongs) {
+                rowCache.invalidateAllAlbumSongs();
+            } else {
+                for (int id : mAlbumSongs) {
+                    rowCache.invalidateAlbumSong(id);
+                }
+            }
+        }
+    }
+
+    //CursorWrapper отдаёт extras обёрнутого курсора, а у курсора SQLite они пустые
+    private static class PageCursor extends CursorWrapper {
+
+        private final Bundle mExtras;
+
+        PageCursor(Cursor cursor, Bundle extras) {
+            super(cursor);
+            mExtras = extras;
+        }
+
+        @Override
+        public Bundle getExtras() {
+            return mExtras;
+        }
+    }
 }
@@ -0,0 +1,108 @@
+package elegion.com.roomdatabase;
+
+import android.arch.persistence.db.SupportSQLiteStatement;
+import android.content.ContentValues;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import elegion.com.roomdatabase.database.MusicDatabase;
+
+/**
+ * INSERT OR REPLACE одной строки прямо из {@link ContentValues}: значения привязываются к
+ * скомпилированному statement как примитивы, без сущности и без {@code getAsInteger} / {@code getAsLong},
+ * которые упаковывают числа заново. Statement компилируется один раз; если он занят другим
+ * потоком, на этот вызов компилируется временный, как в Room.
+ * <p>
+ * updated_at и version пишутся нулями, их проставляет триггер синхронизации.
+ */
+final class ProviderInsertStatement {
+
+    static final int LONG = 0;
+    static final int NULLABLE_LONG = 1;
+    static final int TEXT = 2;
+
+    private final MusicDatabase mDatabase;
+    private final String mSql;
+    private final String[] mColumns;
+    private final int[] mTypes;
+    private final AtomicReference<SupportSQLiteStatement> mCached = new AtomicReference<>();
+
+    /**
+     * @param columns ключи ContentValues, они же имена колонок, в порядке привязки
+     * @param types   {@link #LONG}, {@link #NULLABLE_LONG} или {@link #TEXT} для каждой колонки
+     */
+    ProviderInsertStatement(@NonNull MusicDatabase database, @NonNull String table,
+                            @NonNull String[] columns, @NonNull int[] types) {
+        mDatabase = database;
+        mColumns = columns;
+        mTypes = types;
+
+        StringBuilder sql = new StringBuilder("INSERT OR REPLACE INTO `").append(table).append("` (");
+        for (String column : columns) {
+            sql.append('`').append(column).append("`, ");
+        }
+        sql.append("`updated_at`, `version`) VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append("?, ");
+        }
+        mSql = sql.append("0, 0)").toString();
+    }
+
+    /**
+     * @return rowid вставленной строки
+     * @throws IllegalArgumentException если обязательная колонка пустая или не число
+     */
+    @WorkerThread
+    long insert(@NonNull ContentValues values) {
+        SupportSQLiteStatement statement = mCached.getAndSet(null);
+        if (statement == null) {
+            statement = mDatabase.compileStatement(mSql);
+        }
+
+        try {
+            for (int i = 0; i < mColumns.length; i++) {
+                bind(statement, i + 1, mColumns[i], mTypes[i], values.get(mColumns[i]));
+            }
+
+            //через транзакцию Room, чтобы InvalidationTracker увидел запись так же, как после DAO
+            mDatabase.beginTransaction();
+            try {
+                long rowId = statement.executeInsert();
+                mDatabase.setTransactionSuccessful();
+                return rowId;
+            } finally {
+                mDatabase.endTransaction();
+            }
+        } finally {
+            statement.clearBindings();
+            mCached.compareAndSet(null, statement);
+        }
+    }
+
+    private static void bind(SupportSQLiteStatement statement, int index, String column, int type, Object value) {
+        if (value == null) {
+            if (type == LONG) {
+                throw new IllegalArgumentException(column + " is required");
+            }
+            statement.bindNull(index);
+        } else if (type == TEXT) {
+            statement.bindString(index, value.toString());
+        } else {
+            statement.bindLong(index, toLong(column, value));
+        }
+    }
+
+    //как ContentValues.getAsLong, но без упаковки результата
+    static long toLong(String column, Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(column + " is not a number: " + value);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package elegion.com.roomdatabase;
+
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.arch.persistence.db.SupportSQLiteQuery;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Собирает select и delete по одной таблице из аргументов {@code ContentProvider.query} / {@code delete}.
+ * Имена колонок в projection, selection и sortOrder сверяются со списком колонок сущности,
+ * значения передаются только как литералы или через {@code ?}, так что фильтрация и сортировка
+ * выполняются в SQLite, а в запрос нельзя подсунуть чужой SQL.
+ */
+final class ProviderQueryCompiler {
+
+    private static final Set<String> SELECTION_KEYWORDS = new HashSet<>(Arrays.asList(
+            "and", "or", "not", "is", "null", "like", "glob", "in", "between", "escape", "collate", "nocase"));
+
+    private final String mTable;
+    private final Set<String> mColumns;
+
+    ProviderQueryCompiler(@NonNull String table, @NonNull String... columns) {
+        mTable = table;
+        mColumns = new HashSet<>(columns.length);
+        for (String column : columns) {
+            mColumns.add(column.toLowerCase(Locale.US));
+        }
+    }
+
+    /**
+     * @param rowId id из uri строки или null для uri таблицы
+     */
+    SupportSQLiteQuery compile(@Nullable String[] projection, @Nullable String selection,
+                               @Nullable String[] selectionArgs, @Nullable String sortOrder,
+                               @Nullable Integer rowId) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        appendProjection(sql, projection);
+        sql.append(" FROM ").append(mTable);
+
+        List<Object> args = new ArrayList<>();
+        appendWhere(sql, args, selection, selectionArgs, rowId);
+
+        if (sortOrder != null && !sortOrder.trim().isEmpty()) {
+            sql.append(" ORDER BY ");
+            appendSortOrder(sql, sortOrder);
+        }
+
+        return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+    }
+
+    /**
+     * Один {@code DELETE} по selection: выполняется через {@code compileStatement} и
+     * {@link SupportSQLiteQuery#bindTo}. Без selection и rowId удаляет все строки таблицы.
+     *
+     * @param rowId id из uri строки или null для uri таблицы
+     */
+    SupportSQLiteQuery compileDelete(@Nullable String selection, @Nullable String[] selectionArgs,
+                                     @Nullable Integer rowId) {
+        StringBuilder sql = new StringBuilder("DELETE FROM ").append(mTable);
+        List<Object> args = new ArrayList<>();
+        appendWhere(sql, args, selection, selectionArgs, rowId);
+        return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+    }
+
+    /**
+     * Страница keyset-пагинации: строки с id больше {@code afterId} по возрастанию id, не больше
+     * {@code limit}. Идёт по первичному ключу, поэтому дальние страницы не дороже первой, в отличие
+     * от OFFSET. Колонка id добавляется в выборку, если её нет: по ней считается токен следующей страницы.
+     *
+     * @param afterId id последней строки предыдущей страницы или null для первой
+     */
+    SupportSQLiteQuery compilePage(@Nullable String[] projection, @Nullable String selection,
+                                   @Nullable String[] selectionArgs, @Nullable Long afterId, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ");
+        appendProjection(sql, projection);
+        if (projection != null && projection.length > 0 && !containsId(projection)) {
+            sql.append(", `id`");
+        }
+        sql.append(" FROM ").append(mTable);
+
+        List<Object> args = new ArrayList<>();
+        boolean hasWhere = appendWhere(sql, args, selection, selectionArgs, null);
+        if (afterId != null) {
+            sql.append(hasWhere ? " AND " : " WHERE ").append("id > ?");
+            args.add(afterId);
+        }
+        sql.append(" ORDER BY id LIMIT ?");
+        args.add(limit);
+
+        return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+    }
+
+    SupportSQLiteQuery compileCount(@Nullable String selection, @Nullable String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder("SELECT count(*) FROM ").append(mTable);
+        List<Object> args = new ArrayList<>();
+        appendWhere(sql, args, selection, selectionArgs, null);
+        return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+    }
+
+    private static boolean containsId(String[] projection) {
+        for (String column : projection) {
+            if ("id".equalsIgnoreCase(column.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //true, если в запрос добавлен WHERE
+    private boolean appendWhere(StringBuilder sql, List<Object> args, @Nullable String selection,
+                                @Nullable String[] selectionArgs, @Nullable Integer rowId) {
+        boolean hasSelection = selection != null && !selection.trim().isEmpty();
+        if (hasSelection) {
+            int placeholders = validateSelection(selection);
+            int argsCount = selectionArgs == null ? 0 : selectionArgs.length;
+            if (placeholders != argsCount) {
+                throw new IllegalArgumentException("selection expects " + placeholders + " args, got " + argsCount);
+            }
+            sql.append(" WHERE (").append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+
+        if (rowId != null) {
+            sql.append(hasSelection ? " AND " : " WHERE ").append("id = ?");
+            args.add(rowId);
+        }
+        return hasSelection || rowId != null;
+    }
+
+    private void appendProjection(StringBuilder sql, @Nullable String[] projection) {
+        if (projection == null || projection.length == 0) {
+            sql.append('*');
+            return;
+        }
+
+        for (int i = 0; i < projection.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(checkColumn(projection[i].trim()));
+        }
+    }
+
+    private void appendSortOrder(StringBuilder sql, String sortOrder) {
+        String[] terms = sortOrder.split(",");
+        for (int i = 0; i < terms.length; i++) {
+            String[] parts = terms[i].trim().split("\\s+");
+            if (parts.length > 2) {
+                throw new IllegalArgumentException("invalid sort order: " + sortOrder);
+            }
+
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(checkColumn(parts[0]));
+
+            if (parts.length == 2) {
+                String direction = parts[1].toUpperCase(Locale.US);
+                if (!"ASC".equals(direction) && !"DESC".equals(direction)) {
+                    throw new IllegalArgumentException("invalid sort order: " + sortOrder);
+                }
+                sql.append(' ').append(direction);
+            }
+        }
+    }
+
+    private String checkColumn(String column) {
+        if (!mColumns.contains(column.toLowerCase(Locale.US))) {
+            throw new IllegalArgumentException("unknown column " + column + " in " + mTable);
+        }
+        return '`' + column + '`';
+    }
+
+    /**
+     * Проверяет selection по токенам и возвращает число плейсхолдеров {@code ?}.
+     */
+    private int validateSelection(String selection) {
+        int placeholders = 0;
+        int depth = 0;
+        int i = 0;
+        int length = selection.length();
+
+        while (i < length) {
+            char c = selection.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '?') {
+                placeholders++;
+                i++;
+            } else if (c == '\'') {
+                //строковый литерал, '' внутри - экранированная кавычка
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw new IllegalArgumentException("unterminated literal in selection");
+                    }
+                    if (selection.charAt(i) == '\'') {
+                        if (i + 1 < length && selection.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        i++;
+                        break;
+                    }
+                    i++;
+                }
+            } else if (Character.isDigit(c)) {
+                while (i < length && (Character.isDigit(selection.charAt(i)) || selection.charAt(i) == '.')) {
+                    i++;
+                }
+            } else if (Character.isLetter(c) || c == '_' || c == '`' || c == '"') {
+                int start = i;
+                String identifier;
+                if (c == '`' || c == '"') {
+                    int end = selection.indexOf(c, i + 1);
+                    if (end < 0) {
+                        throw new IllegalArgumentException("unterminated identifier in selection");
+                    }
+                    identifier = selection.substring(start + 1, end);
+                    i = end + 1;
+                } else {
+                    while (i < length && (Character.isLetterOrDigit(selection.charAt(i)) || selection.charAt(i) == '_')) {
+                        i++;
+                    }
+                    identifier = selection.substring(start, i);
+                }
+
+                String lower = identifier.toLowerCase(Locale.US);
+                if (!mColumns.contains(lower) && !(c != '`' && c != '"' && SELECTION_KEYWORDS.contains(lower))) {
+                    throw new IllegalArgumentException("unknown column " + identifier + " in " + mTable);
+                }
+            } else if (c == '(') {
+                depth++;
+                i++;
+            } else if (c == ')') {
+                if (--depth < 0) {
+                    throw new IllegalArgumentException("unbalanced parentheses in selection");
+                }
+                i++;
+            } else if ("=<>!,+-*/%|".indexOf(c) >= 0) {
+                //комментарий мог бы отрезать условие по id, которое дописывается после selection
+                if (i + 1 < length && ((c == '-' && selection.charAt(i + 1) == '-')
+                        || (c == '/' && selection.charAt(i + 1) == '*'))) {
+                    throw new IllegalArgumentException("comments are not allowed in selection");
+                }
+                i++;
+            } else {
+                throw new IllegalArgumentException("unexpected '" + c + "' in selection");
+            }
+        }
+
+        if (depth != 0) {
+            throw new IllegalArgumentException("unbalanced parentheses in selection");
+        }
+
+        return placeholders;
+    }
+}
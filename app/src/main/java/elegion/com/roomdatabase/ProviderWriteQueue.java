@@ -0,0 +1,315 @@
+package elegion.com.roomdatabase;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.QueryStats;
+
+/**
+ * Очередь отложенной записи провайдера. Одиночные insert / update попадают в ограниченную
+ * очередь, а один поток-писатель применяет их группами в одной транзакции: когда набралось
+ * {@code maxBatch} записей или с первой записи группы прошло {@code maxDelayMillis}.
+ * Если очередь заполнена, вызывающий ждёт, пока писатель её разгрузит.
+ * <p>
+ * Запись, упавшая внутри группы, не должна утянуть за собой остальные: вложенная транзакция
+ * упавшей записи помечает внешнюю неуспешной, и endTransaction откатил бы всю группу молча.
+ * Поэтому такая группа откатывается явно и выполняется заново без упавших записей;
+ * закоммиченными считаются только записи, пережившие настоящий COMMIT.
+ * <p>
+ * Все поля под одной блокировкой. Писатель ждёт на своём условии, а producer и flush -
+ * на условии прогресса, которое будит только писатель: иначе ждущие будили бы друг друга
+ * по кругу и не пускали писателя к блокировке.
+ */
+final class ProviderWriteQueue {
+
+    private static final String TAG = ProviderWriteQueue.class.getSimpleName();
+
+    interface Applier {
+        //вызывается на потоке писателя внутри транзакции группы
+        void apply(int code, @NonNull Uri uri, @NonNull ContentValues values);
+
+        //после commit группы, по одному разу на таблицу
+        void onCommitted(@NonNull Set<Uri> tableUris);
+    }
+
+    private final MusicDatabase mDatabase;
+    private final Applier mApplier;
+    private final QueryStats.Timer mCommitTimer;
+    private final int mCapacity;
+    private final int mMaxBatch;
+    private final long mMaxDelayNanos;
+    private final Thread mThread;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    //писателю: появились записи, нужен flush или остановка
+    private final Condition mWriterWakeup = mLock.newCondition();
+    //ждущим enqueue и flush: писатель взял группу или закоммитил её
+    private final Condition mProgress = mLock.newCondition();
+    private final ArrayDeque<Write> mQueue = new ArrayDeque<>();
+    //число ждущих записей по таблицам, для чтения своих записей
+    private final Map<Uri, Integer> mPending = new HashMap<>();
+    private long mEnqueued;
+    private long mCommitted;
+    private long mFailed;
+    private int mMaxDepth;
+    private boolean mFlushRequested;
+    private boolean mStopped;
+
+    ProviderWriteQueue(@NonNull MusicDatabase database, @NonNull Applier applier, @NonNull QueryStats.Timer commitTimer,
+                       int capacity, int maxBatch, long maxDelayMillis) {
+        if (capacity <= 0 || maxBatch <= 0 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("capacity and batch must be positive, delay must not be negative");
+        }
+        mDatabase = database;
+        mApplier = applier;
+        mCommitTimer = commitTimer;
+        mCapacity = capacity;
+        mMaxBatch = maxBatch;
+        mMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "music-provider-writer");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Ставит запись в очередь; при заполненной очереди ждёт места.
+     *
+     * @throws IllegalStateException если очередь уже остановлена
+     */
+    void enqueue(int code, @NonNull Uri uri, @NonNull ContentValues values, @NonNull Uri tableUri) {
+        Write write = new Write(code, uri, values, tableUri);
+        mLock.lock();
+        try {
+            if (mQueue.size() >= mCapacity && !mStopped) {
+                //очередь полна: писатель забирает группу сразу, не дожидаясь срока
+                mFlushRequested = true;
+                mWriterWakeup.signal();
+                do {
+                    mProgress.awaitUninterruptibly();
+                } while (mQueue.size() >= mCapacity && !mStopped);
+            }
+            if (mStopped) {
+                throw new IllegalStateException("write-behind queue is shut down");
+            }
+
+            mQueue.add(write);
+            mEnqueued++;
+            Integer pending = mPending.get(tableUri);
+            mPending.put(tableUri, pending == null ? 1 : pending + 1);
+            mMaxDepth = Math.max(mMaxDepth, mQueue.size());
+            if (mQueue.size() == 1 || mQueue.size() >= mMaxBatch) {
+                mWriterWakeup.signal();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    boolean hasPending(@NonNull Uri tableUri) {
+        mLock.lock();
+        try {
+            Integer pending = mPending.get(tableUri);
+            return pending != null && pending > 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Ждёт, пока все записи, поставленные до вызова, закоммитятся или будут отброшены.
+     * С потока писателя не ждёт.
+     */
+    void flush() {
+        if (Thread.currentThread() == mThread) {
+            return;
+        }
+        mLock.lock();
+        try {
+            long target = mEnqueued;
+            while (mCommitted + mFailed < target) {
+                mFlushRequested = true;
+                mWriterWakeup.signal();
+                mProgress.awaitUninterruptibly();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Записывает всё, что осталось в очереди, и останавливает писателя. Новые записи после
+     * этого не принимаются.
+     */
+    void shutdown() {
+        mLock.lock();
+        try {
+            mStopped = true;
+            mWriterWakeup.signal();
+            //enqueue, ждущие места, получат IllegalStateException
+            mProgress.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+        flush();
+    }
+
+    int getDepth() {
+        mLock.lock();
+        try {
+            return mQueue.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    void dump(@NonNull PrintWriter writer) {
+        mLock.lock();
+        try {
+            writer.println("write-behind: depth=" + mQueue.size() + " maxDepth=" + mMaxDepth
+                    + " committed=" + mCommitted + " failed=" + mFailed + " capacity=" + mCapacity);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void drain() {
+        List<Write> batch = new ArrayList<>(mMaxBatch);
+        while (true) {
+            mLock.lock();
+            try {
+                while (mQueue.isEmpty() && !mStopped) {
+                    mWriterWakeup.awaitUninterruptibly();
+                }
+                if (mQueue.isEmpty()) {
+                    return;
+                }
+
+                //копим группу до размера или до срока, flush и shutdown отдают её сразу
+                long waitNanos = mMaxDelayNanos;
+                while (mQueue.size() < mMaxBatch && !mFlushRequested && !mStopped && waitNanos > 0) {
+                    try {
+                        waitNanos = mWriterWakeup.awaitNanos(waitNanos);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                mFlushRequested = false;
+
+                for (int i = 0; i < mMaxBatch && !mQueue.isEmpty(); i++) {
+                    batch.add(mQueue.poll());
+                }
+                //освободилось место для ждущих enqueue
+                mProgress.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+
+            int failed = commit(batch);
+
+            mLock.lock();
+            try {
+                for (int i = 0, size = batch.size(); i < size; i++) {
+                    Uri tableUri = batch.get(i).mTableUri;
+                    mPending.put(tableUri, mPending.get(tableUri) - 1);
+                }
+                mCommitted += batch.size() - failed;
+                mFailed += failed;
+                mProgress.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+            batch.clear();
+        }
+    }
+
+    //возвращает число записей, которые не удалось применить
+    private int commit(List<Write> batch) {
+        long start = System.nanoTime();
+        List<Write> writes = batch;
+        int failed = 0;
+        while (!writes.isEmpty()) {
+            Set<Uri> tableUris = new LinkedHashSet<>();
+            List<Write> rejected = null;
+            try {
+                mDatabase.beginTransaction();
+                try {
+                    for (int i = 0, size = writes.size(); i < size; i++) {
+                        Write write = writes.get(i);
+                        try {
+                            mApplier.apply(write.mCode, write.mUri, write.mValues);
+                            tableUris.add(write.mTableUri);
+                        } catch (RuntimeException e) {
+                            if (rejected == null) {
+                                rejected = new ArrayList<>();
+                            }
+                            rejected.add(write);
+                            Log.w(TAG, "write-behind write failed: " + write.mUri, e);
+                        }
+                    }
+                    //с упавшей записью группа откатывается целиком, успешной её не помечаем
+                    if (rejected == null) {
+                        mDatabase.setTransactionSuccessful();
+                    }
+                } finally {
+                    mDatabase.endTransaction();
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "write-behind commit failed, " + writes.size() + " writes lost", e);
+                return failed + writes.size();
+            }
+
+            if (rejected == null) {
+                mCommitTimer.record(start, writes.size());
+                mApplier.onCommitted(tableUris);
+                return failed;
+            }
+
+            //каждый повтор короче хотя бы на одну запись, так что цикл конечен
+            failed += rejected.size();
+            List<Write> remaining = new ArrayList<>(writes.size() - rejected.size());
+            for (int i = 0, size = writes.size(); i < size; i++) {
+                if (!rejected.contains(writes.get(i))) {
+                    remaining.add(writes.get(i));
+                }
+            }
+            writes = remaining;
+        }
+        return failed;
+    }
+
+    private static final class Write {
+
+        private final int mCode;
+        private final Uri mUri;
+        private final ContentValues mValues;
+        private final Uri mTableUri;
+
+        Write(int code, Uri uri, ContentValues values, Uri tableUri) {
+            mCode = code;
+            mUri = uri;
+            mValues = values;
+            mTableUri = tableUri;
+        }
+    }
+}
@@ -2,13 +2,16 @@ package elegion.com.roomdatabase.database;
 
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 
+import java.util.Date;
+
 /**
  * @author Azret Magometov
  */
 
-@Entity
+@Entity(indices = {@Index(value = "release"), @Index(value = "version")})
 public class Album {
 
     @PrimaryKey
@@ -18,13 +21,22 @@ public class Album {
     @ColumnInfo(name = "name")
     private String mName;
 
+    //хранится как номер дня от эпохи, см. MusicTypeConverters
     @ColumnInfo(name = "release")
-    private String mReleaseDate;
+    private Date mReleaseDate;
+
+    //время последнего изменения строки, мс от эпохи
+    @ColumnInfo(name = "updated_at")
+    private long mUpdatedAt;
+
+    //номер изменения из общей последовательности, см. MusicSync; 0 - проставит триггер при записи
+    @ColumnInfo(name = "version")
+    private long mVersion;
 
     public Album() {
     }
 
-    public Album(int id, String name, String releaseDate) {
+    public Album(int id, String name, Date releaseDate) {
         mId = id;
         mName = name;
         mReleaseDate = releaseDate;
@@ -46,14 +58,30 @@ public class Album {
         mName = name;
     }
 
-    public String getReleaseDate() {
+    public Date getReleaseDate() {
         return mReleaseDate;
     }
 
-    public void setReleaseDate(String releaseDate) {
+    public void setReleaseDate(Date releaseDate) {
         mReleaseDate = releaseDate;
     }
 
+    public long getUpdatedAt() {
+        return mUpdatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        mUpdatedAt = updatedAt;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public void setVersion(long version) {
+        mVersion = version;
+    }
+
     @Override
     public String toString() {
         return "Album{" + "mId=" + mId +
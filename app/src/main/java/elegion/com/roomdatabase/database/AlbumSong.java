@@ -3,6 +3,7 @@ package elegion.com.roomdatabase.database;
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
 import android.arch.persistence.room.ForeignKey;
+import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 
 /**
@@ -11,7 +12,11 @@ import android.arch.persistence.room.PrimaryKey;
 
 @Entity(foreignKeys = {
         @ForeignKey(entity = Album.class, parentColumns = "id", childColumns = "album_id"),
-        @ForeignKey(entity = Song.class, parentColumns = "id", childColumns = "song_id")})
+        @ForeignKey(entity = Song.class, parentColumns = "id", childColumns = "song_id")},
+        indices = {
+                @Index(value = {"album_id", "song_id"}),
+                @Index(value = {"song_id", "album_id"}),
+                @Index(value = "version")})
 public class AlbumSong {
 
     @PrimaryKey
@@ -24,6 +29,13 @@ public class AlbumSong {
     @ColumnInfo(name = "song_id")
     private int mSongId;
 
+    //служебные колонки синхронизации, как у Album
+    @ColumnInfo(name = "updated_at")
+    private long mUpdatedAt;
+
+    @ColumnInfo(name = "version")
+    private long mVersion;
+
     public AlbumSong() {
     }
 
@@ -57,6 +69,22 @@ public class AlbumSong {
         mSongId = songId;
     }
 
+    public long getUpdatedAt() {
+        return mUpdatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        mUpdatedAt = updatedAt;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public void setVersion(long version) {
+        mVersion = version;
+    }
+
     @Override
     public String toString() {
         return "AlbumSong{" + "mId=" + mId +
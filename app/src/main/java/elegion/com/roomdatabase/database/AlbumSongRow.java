@@ -0,0 +1,33 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Embedded;
+
+/**
+ * Строка join song и albumsong: песня и альбом, к которому она привязана.
+ */
+
+public class AlbumSongRow {
+
+    @ColumnInfo(name = "album_id")
+    private int mAlbumId;
+
+    @Embedded
+    private Song mSong;
+
+    public int getAlbumId() {
+        return mAlbumId;
+    }
+
+    public void setAlbumId(int albumId) {
+        mAlbumId = albumId;
+    }
+
+    public Song getSong() {
+        return mSong;
+    }
+
+    public void setSong(Song song) {
+        mSong = song;
+    }
+}
@@ -0,0 +1,37 @@
+package elegion.com.roomdatabase.database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Альбом вместе со списком его песен.
+ */
+
+public class AlbumWithSongs {
+
+    private final Album mAlbum;
+    private final List<Song> mSongs;
+
+    public AlbumWithSongs(Album album) {
+        this(album, new ArrayList<Song>());
+    }
+
+    public AlbumWithSongs(Album album, List<Song> songs) {
+        mAlbum = album;
+        mSongs = songs;
+    }
+
+    public Album getAlbum() {
+        return mAlbum;
+    }
+
+    public List<Song> getSongs() {
+        return mSongs;
+    }
+
+    @Override
+    public String toString() {
+        return "AlbumWithSongs{" + "mAlbum=" + mAlbum +
+                ", mSongs=" + mSongs + '}';
+    }
+}
@@ -0,0 +1,83 @@
+package elegion.com.roomdatabase.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Загружает альбомы вместе с песнями за фиксированное число запросов: id альбомов уходят
+ * в {@code in (...)} кусками, чтобы не упереться в лимит переменных SQLite (999).
+ */
+public class AlbumWithSongsLoader {
+
+    static final int MAX_VARIABLES_PER_QUERY = 900;
+
+    private final MusicDatabase mDatabase;
+    private final MusicDao mMusicDao;
+
+    public AlbumWithSongsLoader(@NonNull MusicDatabase database) {
+        mDatabase = database;
+        mMusicDao = database.getMusicDao();
+    }
+
+    @WorkerThread
+    public List<AlbumWithSongs> loadAll() {
+        mDatabase.beginTransaction();
+        try {
+            List<AlbumWithSongs> result = attachSongs(mMusicDao.getAlbums());
+            mDatabase.setTransactionSuccessful();
+            return result;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @WorkerThread
+    public List<AlbumWithSongs> load(@NonNull int[] albumIds) {
+        mDatabase.beginTransaction();
+        try {
+            List<Album> albums = new ArrayList<>(albumIds.length);
+            for (int from = 0; from < albumIds.length; from += MAX_VARIABLES_PER_QUERY) {
+                int to = Math.min(from + MAX_VARIABLES_PER_QUERY, albumIds.length);
+                albums.addAll(mMusicDao.getAlbumsByIds(Arrays.copyOfRange(albumIds, from, to)));
+            }
+            List<AlbumWithSongs> result = attachSongs(albums);
+            mDatabase.setTransactionSuccessful();
+            return result;
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    private List<AlbumWithSongs> attachSongs(List<Album> albums) {
+        int size = albums.size();
+        List<AlbumWithSongs> result = new ArrayList<>(size);
+        SparseArray<AlbumWithSongs> byId = new SparseArray<>(size);
+
+        for (int i = 0; i < size; i++) {
+            AlbumWithSongs albumWithSongs = new AlbumWithSongs(albums.get(i));
+            result.add(albumWithSongs);
+            byId.put(albums.get(i).getId(), albumWithSongs);
+        }
+
+        for (int from = 0; from < size; from += MAX_VARIABLES_PER_QUERY) {
+            int to = Math.min(from + MAX_VARIABLES_PER_QUERY, size);
+            int[] ids = new int[to - from];
+            for (int i = from; i < to; i++) {
+                ids[i - from] = albums.get(i).getId();
+            }
+
+            List<AlbumSongRow> rows = mMusicDao.getSongsFromAlbums(ids);
+            for (int i = 0, rowsSize = rows.size(); i < rowsSize; i++) {
+                AlbumSongRow row = rows.get(i);
+                byId.get(row.getAlbumId()).getSongs().add(row.getSong());
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+package elegion.com.roomdatabase.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.Arrays;
+
+/**
+ * Удаляет строки пачкой: id уходят в {@code in (...)} кусками по
+ * {@link AlbumWithSongsLoader#MAX_VARIABLES_PER_QUERY}, все куски - одна транзакция.
+ * Связи удалённых альбомов и песен удаляет триггер в том же statement, отдельных запросов
+ * на albumsong нет.
+ */
+public class BatchDeleter {
+
+    private final MusicDatabase mDatabase;
+    private final MusicDao mMusicDao;
+
+    public BatchDeleter(@NonNull MusicDatabase database) {
+        mDatabase = database;
+        mMusicDao = database.getMusicDao();
+    }
+
+    /**
+     * @return число удалённых альбомов, без учёта связей
+     */
+    @WorkerThread
+    public int deleteAlbums(@NonNull int[] albumIds) {
+        int deleted = delete(albumIds, new Chunk() {
+            @Override
+            public int delete(int[] ids) {
+                return mMusicDao.deleteAlbumsByIds(ids);
+            }
+        });
+
+        return deleted;
+    }
+
+    /**
+     * @return число удалённых песен, без учёта связей
+     */
+    @WorkerThread
+    public int deleteSongs(@NonNull int[] songIds) {
+        int deleted = delete(songIds, new Chunk() {
+            @Override
+            public int delete(int[] ids) {
+                return mMusicDao.deleteSongsByIds(ids);
+            }
+        });
+
+        return deleted;
+    }
+
+    @WorkerThread
+    public int deleteAlbumSongs(@NonNull int[] albumSongIds) {
+        int deleted = delete(albumSongIds, new Chunk() {
+            @Override
+            public int delete(int[] ids) {
+                return mMusicDao.deleteAlbumSongsByIds(ids);
+            }
+        });
+
+        return deleted;
+    }
+
+    private int delete(int[] ids, Chunk chunk) {
+        if (ids.length == 0) {
+            return 0;
+        }
+
+        int deleted = 0;
+        mDatabase.beginTransaction();
+        try {
+            for (int from = 0; from < ids.length; from += AlbumWithSongsLoader.MAX_VARIABLES_PER_QUERY) {
+                int to = Math.min(from + AlbumWithSongsLoader.MAX_VARIABLES_PER_QUERY, ids.length);
+                deleted += chunk.delete(from == 0 && to == ids.length ? ids : Arrays.copyOfRange(ids, from, to));
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+        return deleted;
+    }
+
+    private interface Chunk {
+        int delete(int[] ids);
+    }
+}
@@ -0,0 +1,239 @@
+package elegion.com.roomdatabase.database;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Снимок каталога в NDJSON: по JSON-объекту на строку, поле {@code table} первым.
+ * <pre>
+ * {"table":"album","id":1,"name":"A","release":17532}
+ * {"table":"song","id":10,"name":"S","duration":215000}
+ * {"table":"albumsong","id":100,"album_id":1,"song_id":10}
+ * </pre>
+ * Таблицы читаются страницами по id, каждая страница - отдельный короткий запрос вне транзакции:
+ * транзакция на Android эксклюзивная и держала бы писателей весь экспорт, вместе с форматированием
+ * и gzip. Поэтому файл - не снимок одного момента, а набор закоммиченных строк. Связи пишутся,
+ * только если их альбом и песня уже попали в файл, так что {@link CatalogImporter} загрузит его
+ * обратно без висячих ссылок. В памяти - страница и id выгруженных альбомов и песен.
+ */
+public class CatalogExporter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private static final String ALBUMS_PAGE = "SELECT `id`, `name`, `release` FROM `Album` "
+            + "WHERE `id` > ? ORDER BY `id` LIMIT ?";
+    private static final String SONGS_PAGE = "SELECT `id`, `name`, `duration` FROM `Song` "
+            + "WHERE `id` > ? ORDER BY `id` LIMIT ?";
+    private static final String ALBUM_SONGS_PAGE = "SELECT `id`, `album_id`, `song_id` FROM `AlbumSong` "
+            + "WHERE `id` > ? ORDER BY `id` LIMIT ?";
+
+    private final MusicDatabase mDatabase;
+    private final int mPageSize;
+
+    public CatalogExporter(@NonNull MusicDatabase database) {
+        this(database, DEFAULT_PAGE_SIZE);
+    }
+
+    CatalogExporter(@NonNull MusicDatabase database, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        mDatabase = database;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Пишет снимок во временный файл рядом с {@code file} и переименовывает его, так что
+     * {@code file} либо старый, либо полный новый. При ошибке временный файл удаляется.
+     *
+     * @return число записанных строк
+     */
+    @WorkerThread
+    public long exportFile(@NonNull File file, boolean gzip) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        boolean renamed = false;
+        try {
+            OutputStream output = new FileOutputStream(temp);
+            long records;
+            try {
+                if (gzip) {
+                    output = new GZIPOutputStream(output, BUFFER_SIZE);
+                }
+                records = export(output);
+            } finally {
+                output.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("cannot rename " + temp + " to " + file);
+            }
+            renamed = true;
+            return records;
+        } finally {
+            if (!renamed) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Пишет снимок в {@code output}; поток не закрывается, но буфер сбрасывается.
+     *
+     * @return число записанных строк
+     */
+    @WorkerThread
+    public long export(@NonNull OutputStream output) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"), BUFFER_SIZE);
+        final IdList albumIds = new IdList();
+        final IdList songIds = new IdList();
+
+        long records = exportTable(ALBUMS_PAGE, new RowWriter() {
+            @Override
+            public boolean write(Cursor page) throws IOException {
+                writer.write("{\"table\":\"album\",\"id\":");
+                writer.write(Integer.toString(page.getInt(0)));
+                writeName(writer, page, 1);
+                writer.write(",\"release\":");
+                writer.write(page.isNull(2) ? "null" : Long.toString(page.getLong(2)));
+                writer.write("}\n");
+                albumIds.add(page.getInt(0));
+                return true;
+            }
+        });
+
+        records += exportTable(SONGS_PAGE, new RowWriter() {
+            @Override
+            public boolean write(Cursor page) throws IOException {
+                writer.write("{\"table\":\"song\",\"id\":");
+                writer.write(Integer.toString(page.getInt(0)));
+                writeName(writer, page, 1);
+                writer.write(",\"duration\":");
+                writer.write(Long.toString(page.getLong(2)));
+                writer.write("}\n");
+                songIds.add(page.getInt(0));
+                return true;
+            }
+        });
+
+        records += exportTable(ALBUM_SONGS_PAGE, new RowWriter() {
+            @Override
+            public boolean write(Cursor page) throws IOException {
+                //связь с альбомом или песней, появившимися после их страниц, в файл не попадает
+                if (!albumIds.contains(page.getInt(1)) || !songIds.contains(page.getInt(2))) {
+                    return false;
+                }
+                writer.write("{\"table\":\"albumsong\",\"id\":");
+                writer.write(Integer.toString(page.getInt(0)));
+                writer.write(",\"album_id\":");
+                writer.write(Integer.toString(page.getInt(1)));
+                writer.write(",\"song_id\":");
+                writer.write(Integer.toString(page.getInt(2)));
+                writer.write("}\n");
+                return true;
+            }
+        });
+
+        writer.flush();
+        return records;
+    }
+
+    //первая колонка запроса - id, по ней идёт следующая страница
+    private long exportTable(String pageSql, RowWriter rowWriter) throws IOException {
+        long records = 0;
+        long afterId = Long.MIN_VALUE;
+        while (true) {
+            Cursor page = mDatabase.query(pageSql, new Object[]{afterId, mPageSize});
+            int rows = 0;
+            try {
+                while (page.moveToNext()) {
+                    afterId = page.getLong(0);
+                    rows++;
+                    if (rowWriter.write(page)) {
+                        records++;
+                    }
+                }
+            } finally {
+                page.close();
+            }
+            if (rows < mPageSize) {
+                return records;
+            }
+        }
+    }
+
+    private static void writeName(Writer writer, Cursor cursor, int column) throws IOException {
+        writer.write(",\"name\":");
+        if (cursor.isNull(column)) {
+            writer.write("null");
+        } else {
+            writeString(writer, cursor.getString(column));
+        }
+    }
+
+    static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    //остальные управляющие символы и разделители строк JavaScript - через \\u
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+
+    private interface RowWriter {
+        //false - строка пропущена
+        boolean write(Cursor page) throws IOException;
+    }
+
+    //id по возрастанию, в порядке страниц
+    private static final class IdList {
+
+        private int[] mIds = new int[256];
+        private int mSize;
+
+        void add(int id) {
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            mIds[mSize++] = id;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(mIds, 0, mSize, id) >= 0;
+        }
+    }
+}
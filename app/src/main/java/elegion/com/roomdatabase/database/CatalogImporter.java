@@ -0,0 +1,572 @@
+package elegion.com.roomdatabase.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Потоковый импорт каталога из файла: строки читаются по одной и пишутся кусками по
+ * {@code chunkSize} записей, каждый кусок - отдельная транзакция. Память не растёт с размером файла.
+ * <p>
+ * CSV - по записи на строку, первое поле - таблица:
+ * <pre>
+ * album,1,"Название, с запятой",17532     (release - номер дня от эпохи, может быть пустым)
+ * song,10,Песня,215000                     (duration в миллисекундах)
+ * albumsong,100,1,10                       (id, album_id, song_id)
+ * </pre>
+ * JSON - объект с массивами {@code albums}, {@code songs}, {@code albumSongs}, ключи как у колонок.
+ * NDJSON - по объекту на строку с полем {@code table}, как пишет {@link CatalogExporter}.
+ * <p>
+ * Внутри куска сначала пишутся альбомы, потом песни, потом связи, поэтому альбом и песня
+ * должны встретиться в файле не позже связи, которая на них ссылается.
+ */
+public class CatalogImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 5000;
+
+    static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CSV_FIELDS = 4;
+
+    public interface ProgressListener {
+        /**
+         * Вызывается после commit каждого куска на потоке импорта.
+         *
+         * @param records   сколько записей файла уже в базе, включая пропущенные при продолжении
+         * @param bytesRead сколько байт потока прочитано (для .gz - распакованных); с учётом буфера
+         *                  чуть больше разобранного
+         */
+        void onChunkCommitted(long records, long bytesRead);
+    }
+
+    private final MusicDatabase mDatabase;
+    private final MusicDao mMusicDao;
+    private final MusicSync mMusicSync;
+    private final int mChunkSize;
+
+    public CatalogImporter(@NonNull MusicDatabase database) {
+        this(database, DEFAULT_CHUNK_SIZE);
+    }
+
+    public CatalogImporter(@NonNull MusicDatabase database, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        mDatabase = database;
+        mMusicDao = database.getMusicDao();
+        mMusicSync = new MusicSync(database);
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Импортирует файл (.json - JSON, .ndjson - NDJSON, иначе CSV; .gz в конце - сжатый).
+     * После каждого куска число записей сохраняется в {@code <файл>.checkpoint}; если импорт
+     * прервался, следующий вызов продолжит с последнего закоммиченного куска. Повтор куска безопасен: все вставки идут с REPLACE.
+     *
+     * @return число записей в файле
+     */
+    @WorkerThread
+    public long importFile(@NonNull File file, @Nullable final ProgressListener listener) throws IOException {
+        final File checkpoint = getCheckpointFile(file);
+        ProgressListener checkpointing = new ProgressListener() {
+            @Override
+            public void onChunkCommitted(long records, long bytesRead) {
+                writeCheckpoint(checkpoint, records);
+                if (listener != null) {
+                    listener.onChunkCommitted(records, bytesRead);
+                }
+            }
+        };
+
+        String name = file.getName();
+        long records;
+        InputStream input = new FileInputStream(file);
+        try {
+            if (name.endsWith(".gz")) {
+                input = new GZIPInputStream(input, BUFFER_SIZE);
+                name = name.substring(0, name.length() - ".gz".length());
+            }
+
+            long skipRecords = readCheckpoint(checkpoint);
+            if (name.endsWith(".json")) {
+                records = importJson(input, skipRecords, checkpointing);
+            } else if (name.endsWith(".ndjson")) {
+                records = importNdjson(input, skipRecords, checkpointing);
+            } else {
+                records = importCsv(input, skipRecords, checkpointing);
+            }
+        } finally {
+            input.close();
+        }
+
+        //файл импортирован целиком, следующий импорт того же файла начнётся сначала
+        if (checkpoint.exists() && !checkpoint.delete()) {
+            throw new IOException("cannot delete " + checkpoint);
+        }
+        return records;
+    }
+
+    @WorkerThread
+    public long importCsv(@NonNull InputStream input, long skipRecords, @Nullable ProgressListener listener)
+            throws IOException {
+        CountingInputStream counting = new CountingInputStream(input);
+        Reader reader = new BufferedReader(new InputStreamReader(counting, "UTF-8"), BUFFER_SIZE);
+        ChunkWriter writer = new ChunkWriter(skipRecords, counting, listener);
+
+        String[] fields = new String[CSV_FIELDS];
+        StringBuilder field = new StringBuilder();
+        long line = 0;
+        int count;
+        while ((count = readCsvRecord(reader, fields, field)) != -1) {
+            line++;
+            if (count == 1 && fields[0].isEmpty()) {
+                continue;
+            }
+            if (count != CSV_FIELDS) {
+                throw new IOException("line " + line + ": expected " + CSV_FIELDS + " fields, got " + count);
+            }
+            if (writer.skipNext()) {
+                continue;
+            }
+
+            try {
+                switch (fields[0]) {
+                    case "album":
+                        writer.add(new Album(Integer.parseInt(fields[1]), fields[2], fields[3].isEmpty()
+                                ? null : MusicTypeConverters.fromEpochDay(Long.parseLong(fields[3]))));
+                        break;
+                    case "song":
+                        writer.add(new Song(Integer.parseInt(fields[1]), fields[2], Long.parseLong(fields[3])));
+                        break;
+                    case "albumsong":
+                        writer.add(new AlbumSong(Integer.parseInt(fields[1]),
+                                Integer.parseInt(fields[2]), Integer.parseInt(fields[3])));
+                        break;
+                    default:
+                        throw new IOException("line " + line + ": unknown record type " + fields[0]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + line + ": " + e.getMessage());
+            }
+        }
+
+        writer.flush();
+        return writer.getRecords();
+    }
+
+    @WorkerThread
+    public long importJson(@NonNull InputStream input, long skipRecords, @Nullable ProgressListener listener)
+            throws IOException {
+        CountingInputStream counting = new CountingInputStream(input);
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(counting, "UTF-8"), BUFFER_SIZE));
+        ChunkWriter writer = new ChunkWriter(skipRecords, counting, listener);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (!"albums".equals(name) && !"songs".equals(name) && !"albumSongs".equals(name)) {
+                reader.skipValue();
+                continue;
+            }
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (writer.skipNext()) {
+                    reader.skipValue();
+                } else if ("albums".equals(name)) {
+                    writer.add(readAlbum(reader));
+                } else if ("songs".equals(name)) {
+                    writer.add(readSong(reader));
+                } else {
+                    writer.add(readAlbumSong(reader));
+                }
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+
+        writer.flush();
+        return writer.getRecords();
+    }
+
+    @WorkerThread
+    public long importNdjson(@NonNull InputStream input, long skipRecords, @Nullable ProgressListener listener)
+            throws IOException {
+        CountingInputStream counting = new CountingInputStream(input);
+        JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(counting, "UTF-8"), BUFFER_SIZE));
+        //в lenient-режиме JsonReader читает несколько объектов верхнего уровня подряд
+        reader.setLenient(true);
+        ChunkWriter writer = new ChunkWriter(skipRecords, counting, listener);
+
+        while (reader.peek() != JsonToken.END_DOCUMENT) {
+            if (writer.skipNext()) {
+                reader.skipValue();
+                continue;
+            }
+
+            String table = null;
+            String name = null;
+            int id = 0;
+            long value = 0;
+            boolean hasValue = false;
+            int albumId = 0;
+            int songId = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if ("table".equals(key)) {
+                    table = reader.nextString();
+                } else if ("id".equals(key)) {
+                    id = reader.nextInt();
+                } else if ("name".equals(key)) {
+                    name = reader.nextString();
+                } else if ("release".equals(key) || "duration".equals(key)) {
+                    value = reader.nextLong();
+                    hasValue = true;
+                } else if ("album_id".equals(key)) {
+                    albumId = reader.nextInt();
+                } else if ("song_id".equals(key)) {
+                    songId = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if ("album".equals(table)) {
+                writer.add(new Album(id, name, hasValue ? MusicTypeConverters.fromEpochDay(value) : null));
+            } else if ("song".equals(table)) {
+                writer.add(new Song(id, name, value));
+            } else if ("albumsong".equals(table)) {
+                writer.add(new AlbumSong(id, albumId, songId));
+            } else {
+                throw new IOException("record " + writer.getRecords() + ": unknown table " + table);
+            }
+        }
+
+        writer.flush();
+        return writer.getRecords();
+    }
+
+    @NonNull
+    static File getCheckpointFile(@NonNull File file) {
+        return new File(file.getPath() + CHECKPOINT_SUFFIX);
+    }
+
+    private static Album readAlbum(JsonReader reader) throws IOException {
+        Album album = new Album();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("id".equals(name)) {
+                album.setId(reader.nextInt());
+            } else if ("name".equals(name)) {
+                album.setName(reader.nextString());
+            } else if ("release".equals(name)) {
+                album.setReleaseDate(MusicTypeConverters.fromEpochDay(reader.nextLong()));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return album;
+    }
+
+    private static Song readSong(JsonReader reader) throws IOException {
+        Song song = new Song();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("id".equals(name)) {
+                song.setId(reader.nextInt());
+            } else if ("name".equals(name)) {
+                song.setName(reader.nextString());
+            } else if ("duration".equals(name)) {
+                song.setDuration(reader.nextLong());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return song;
+    }
+
+    private static AlbumSong readAlbumSong(JsonReader reader) throws IOException {
+        AlbumSong albumSong = new AlbumSong();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name)) {
+                albumSong.setId(reader.nextInt());
+            } else if ("album_id".equals(name)) {
+                albumSong.setAlbumId(reader.nextInt());
+            } else if ("song_id".equals(name)) {
+                albumSong.setSongId(reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return albumSong;
+    }
+
+    /**
+     * Читает одну запись CSV (RFC 4180: поля в кавычках, "" внутри кавычек, перевод строки в поле).
+     *
+     * @return число полей или -1 в конце файла; поля сверх {@code fields.length} считаются, но не сохраняются
+     */
+    @VisibleForTesting
+    static int readCsvRecord(Reader reader, String[] fields, StringBuilder field) throws IOException {
+        int count = 0;
+        boolean quoted = false;
+        boolean empty = true;
+        field.setLength(0);
+
+        while (true) {
+            int c = reader.read();
+            if (c == -1) {
+                if (empty) {
+                    return -1;
+                }
+                break;
+            }
+            empty = false;
+
+            if (quoted) {
+                if (c != '"') {
+                    field.append((char) c);
+                    continue;
+                }
+                reader.mark(1);
+                if (reader.read() == '"') {
+                    field.append('"');
+                } else {
+                    reader.reset();
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                count = storeField(fields, count, field);
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+
+        return storeField(fields, count, field);
+    }
+
+    private static int storeField(String[] fields, int count, StringBuilder field) {
+        if (count < fields.length) {
+            fields[count] = field.toString();
+        }
+        field.setLength(0);
+        return count + 1;
+    }
+
+    private static long readCheckpoint(File checkpoint) throws IOException {
+        if (!checkpoint.exists()) {
+            return 0;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpoint), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            return line == null ? 0 : Long.parseLong(line.trim());
+        } catch (NumberFormatException e) {
+            //недописанный checkpoint: безопаснее начать сначала, REPLACE сделает повтор безвредным
+            return 0;
+        } finally {
+            reader.close();
+        }
+    }
+
+    //пишем во временный файл и переименовываем, чтобы падение не оставило половину числа
+    private static void writeCheckpoint(File checkpoint, long records) {
+        File temp = new File(checkpoint.getPath() + ".tmp");
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            try {
+                writer.write(Long.toString(records));
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(checkpoint)) {
+                throw new IOException("cannot rename " + temp + " to " + checkpoint);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot save import checkpoint", e);
+        }
+    }
+
+    /**
+     * Копит записи текущего куска и пишет их одной транзакцией: альбомы, песни, затем связи.
+     */
+    private class ChunkWriter {
+
+        private final long mSkipRecords;
+        private final CountingInputStream mInput;
+        private final ProgressListener mListener;
+
+        private final List<Album> mAlbums = new ArrayList<>();
+        private final List<Song> mSongs = new ArrayList<>();
+        private final List<AlbumSong> mAlbumSongs = new ArrayList<>();
+        private long mRecords;
+        private int mPending;
+
+        ChunkWriter(long skipRecords, CountingInputStream input, ProgressListener listener) {
+            mSkipRecords = skipRecords;
+            mInput = input;
+            mListener = listener;
+        }
+
+        //true, если очередная запись уже была импортирована до сбоя
+        boolean skipNext() {
+            if (mRecords < mSkipRecords) {
+                mRecords++;
+                return true;
+            }
+            return false;
+        }
+
+        void add(Album album) {
+            mAlbums.add(album);
+            added();
+        }
+
+        void add(Song song) {
+            mSongs.add(song);
+            added();
+        }
+
+        void add(AlbumSong albumSong) {
+            mAlbumSongs.add(albumSong);
+            added();
+        }
+
+        long getRecords() {
+            return mRecords;
+        }
+
+        void flush() {
+            if (mPending == 0) {
+                return;
+            }
+
+            mDatabase.beginTransaction();
+            try {
+                //версии выдаются на весь кусок одним запросом, а не триггером на каждую строку
+                long version = mMusicSync.reserveVersions(mPending);
+                long now = System.currentTimeMillis();
+                for (int i = 0, size = mAlbums.size(); i < size; i++) {
+                    mAlbums.get(i).setVersion(version++);
+                    mAlbums.get(i).setUpdatedAt(now);
+                }
+                for (int i = 0, size = mSongs.size(); i < size; i++) {
+                    mSongs.get(i).setVersion(version++);
+                    mSongs.get(i).setUpdatedAt(now);
+                }
+                for (int i = 0, size = mAlbumSongs.size(); i < size; i++) {
+                    mAlbumSongs.get(i).setVersion(version++);
+                    mAlbumSongs.get(i).setUpdatedAt(now);
+                }
+
+                if (!mAlbums.isEmpty()) {
+                    mMusicDao.insertAlbums(mAlbums);
+                }
+                if (!mSongs.isEmpty()) {
+                    mMusicDao.insertSongs(mSongs);
+                }
+                if (!mAlbumSongs.isEmpty()) {
+                    mMusicDao.setLinksAlbumSongs(mAlbumSongs);
+                }
+                mMusicSync.releaseReservedVersions();
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+
+            mAlbums.clear();
+            mSongs.clear();
+            mAlbumSongs.clear();
+            mPending = 0;
+
+            if (mListener != null) {
+                mListener.onChunkCommitted(mRecords, mInput.getCount());
+            }
+        }
+
+        private void added() {
+            mRecords++;
+            if (++mPending == mChunkSize) {
+                flush();
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long mCount;
+
+        CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,567 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.InvalidationTracker;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Компактный индекс каталога в памяти для списков альбомов и песен без обращения к SQLite.
+ * Строки хранятся в примитивных массивах по возрастанию id, песни альбома - в CSR-раскладке
+ * (начала диапазонов по альбомам и один массив индексов песен), имена - в одном буфере char,
+ * одинаковые имена записаны в нём один раз.
+ * <p>
+ * Снимок неизменяемый и читается без блокировок. После изменений album / song / albumsong
+ * {@link InvalidationTracker} ставит пересборку на executor, не чаще раза в минимальный интервал;
+ * до её конца читатели видят предыдущий снимок. Сборка читает таблицы короткими страницами по id
+ * без транзакции и не держит базу, поэтому снимок может смешать состояния до и после
+ * параллельной записи - за такой записью всегда следует ещё одна сборка.
+ * <p>
+ * Если задан файл снимка, каждая сборка сохраняется в него, а при старте индекс сначала
+ * отображает файл в память и берёт его без чтения таблиц, если версия схемы и счётчик
+ * изменений совпадают с базой.
+ */
+public class CatalogIndex {
+
+    private static final String TAG = CatalogIndex.class.getSimpleName();
+
+    //не чаще одной сборки за интервал: пачка коммитов синхронизации даёт одну пересборку, а не по одной на коммит
+    public static final long DEFAULT_MIN_REBUILD_INTERVAL_MILLIS = 1000;
+
+    private static final int PAGE_SIZE = 1000;
+    private static final String ALBUMS_PAGE =
+            "SELECT `id`, `name`, `release` FROM `album` WHERE `id` > ? ORDER BY `id` LIMIT ?";
+    private static final String SONGS_PAGE =
+            "SELECT `id`, `name`, `duration` FROM `song` WHERE `id` > ? ORDER BY `id` LIMIT ?";
+    private static final String ALBUM_SONGS_PAGE =
+            "SELECT `id`, `album_id`, `song_id` FROM `albumsong` WHERE `id` > ? ORDER BY `id` LIMIT ?";
+
+    private final MusicDatabase mDatabase;
+    private final Executor mExecutor;
+    private final File mSnapshotFile;
+    private final long mMinRebuildIntervalMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mRebuildScheduled = new AtomicBoolean();
+    private volatile Snapshot mSnapshot;
+    private volatile boolean mStarted;
+    private final Object mTrackerLock = new Object();
+    //под mTrackerLock
+    private boolean mObserverRegistered;
+    //uptimeMillis конца последней сборки
+    private volatile long mLastRebuildAt = Long.MIN_VALUE / 2;
+
+    private final InvalidationTracker.Observer mTrackerObserver =
+            new InvalidationTracker.Observer("album", "song", "albumsong") {
+                @Override
+                public void onInvalidated(@NonNull Set<String> tables) {
+                    scheduleRebuild();
+                }
+            };
+
+    private final Runnable mRebuild = new Runnable() {
+        @Override
+        public void run() {
+            //сбрасываем флаг до чтения: изменение во время сборки поставит ещё одну
+            mRebuildScheduled.set(false);
+            if (!mStarted) {
+                return;
+            }
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "catalog index rebuild failed", e);
+            }
+        }
+    };
+
+    private final Runnable mDelayedRebuild = new Runnable() {
+        @Override
+        public void run() {
+            mExecutor.execute(mRebuild);
+        }
+    };
+
+    private final Runnable mSyncTrackerObserver = new Runnable() {
+        @Override
+        public void run() {
+            syncTrackerObserver();
+        }
+    };
+
+    private final Runnable mWarmStart = new Runnable() {
+        @Override
+        public void run() {
+            //наблюдатель до загрузки: изменение во время неё поставит пересборку
+            syncTrackerObserver();
+            if (!mStarted) {
+                return;
+            }
+            try {
+                loadOrRebuild();
+            } catch (RuntimeException e) {
+                Log.w(TAG, "catalog index warm start failed", e);
+            }
+        }
+    };
+
+    public CatalogIndex(@NonNull MusicDatabase database, @NonNull Executor executor) {
+        this(database, executor, null);
+    }
+
+    /**
+     * @param snapshotFile файл снимка для быстрого старта или null, чтобы всегда собирать из базы
+     */
+    public CatalogIndex(@NonNull MusicDatabase database, @NonNull Executor executor, @Nullable File snapshotFile) {
+        this(database, executor, snapshotFile, DEFAULT_MIN_REBUILD_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param minRebuildIntervalMillis минимальный интервал между пересборками по инвалидации;
+     *                                 изменения внутри интервала собираются одной сборкой в его конце
+     */
+    public CatalogIndex(@NonNull MusicDatabase database, @NonNull Executor executor, @Nullable File snapshotFile,
+                        long minRebuildIntervalMillis) {
+        mDatabase = database;
+        mExecutor = executor;
+        mSnapshotFile = snapshotFile;
+        mMinRebuildIntervalMillis = minRebuildIntervalMillis;
+    }
+
+    /**
+     * Ставит на executor подписку на изменения таблиц и загрузку снимка с диска или первую сборку.
+     * addObserver трекера создаёт временные триггеры в транзакции, поэтому на вызывающем потоке
+     * (обычно главном) база не трогается.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mExecutor.execute(mWarmStart);
+    }
+
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mExecutor.execute(mSyncTrackerObserver);
+        mHandler.removeCallbacks(mDelayedRebuild);
+        mRebuildScheduled.set(false);
+    }
+
+    /**
+     * @return последний собранный снимок или null, если первая сборка ещё не закончилась
+     */
+    @Nullable
+    public Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Собирает снимок на текущем потоке и публикует его. Сборки идут по одной, чтобы на
+     * многопоточном executor более старый снимок не перезаписал более новый.
+     */
+    @WorkerThread
+    @NonNull
+    public synchronized Snapshot rebuild() {
+        Snapshot snapshot = build(mDatabase);
+        mSnapshot = snapshot;
+        mLastRebuildAt = SystemClock.uptimeMillis();
+
+        if (mSnapshotFile != null) {
+            try {
+                CatalogSnapshotFile.write(snapshot, mSnapshotFile);
+            } catch (IOException e) {
+                Log.w(TAG, "cannot save catalog snapshot " + mSnapshotFile, e);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Публикует снимок из файла, если он собран с той же схемой и тем же счётчиком изменений,
+     * что и база сейчас; иначе собирает новый через {@link #rebuild()}.
+     */
+    @WorkerThread
+    @NonNull
+    public synchronized Snapshot loadOrRebuild() {
+        if (mSnapshotFile != null) {
+            Snapshot snapshot = null;
+            try {
+                snapshot = CatalogSnapshotFile.read(mSnapshotFile, schemaVersion(mDatabase),
+                        new MusicSync(mDatabase).getVersion());
+            } catch (IOException e) {
+                Log.w(TAG, "cannot read catalog snapshot " + mSnapshotFile, e);
+            }
+            if (snapshot != null) {
+                mSnapshot = snapshot;
+                return snapshot;
+            }
+        }
+        return rebuild();
+    }
+
+    //приводит регистрацию наблюдателя к mStarted: задачи start/stop на многопоточном executor
+    //могут выполниться в любом порядке, но последняя оставит состояние последнего вызова
+    private void syncTrackerObserver() {
+        synchronized (mTrackerLock) {
+            if (mStarted && !mObserverRegistered) {
+                mDatabase.getInvalidationTracker().addObserver(mTrackerObserver);
+                mObserverRegistered = true;
+            } else if (!mStarted && mObserverRegistered) {
+                mDatabase.getInvalidationTracker().removeObserver(mTrackerObserver);
+                mObserverRegistered = false;
+            }
+        }
+    }
+
+    private void scheduleRebuild() {
+        if (!mRebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = mLastRebuildAt + mMinRebuildIntervalMillis - SystemClock.uptimeMillis();
+        if (delay > 0) {
+            mHandler.postDelayed(mDelayedRebuild, delay);
+        } else {
+            mExecutor.execute(mRebuild);
+        }
+    }
+
+    private static int schemaVersion(MusicDatabase database) {
+        return database.getOpenHelper().getReadableDatabase().getVersion();
+    }
+
+    @WorkerThread
+    static Snapshot build(@NonNull MusicDatabase database) {
+        //счётчик до чтения: если каталог изменится во время сборки, снимок окажется старше базы,
+        //файл снимка не пройдёт проверку при старте, а инвалидация уже поставила новую сборку
+        long changeCounter = new MusicSync(database).getVersion();
+        NameBuffer names = new NameBuffer();
+
+        //без транзакции: каждая страница - короткое отдельное чтение, писатели не ждут всю сборку
+        IntColumn albumIds = new IntColumn();
+        IntColumn albumNames = new IntColumn();
+        IntColumn albumNameLengths = new IntColumn();
+        IntColumn albumReleases = new IntColumn();
+        long afterId = Long.MIN_VALUE;
+        int rows;
+        do {
+            Cursor albums = database.query(ALBUMS_PAGE, new Object[]{afterId, PAGE_SIZE});
+            try {
+                for (rows = 0; albums.moveToNext(); rows++) {
+                    String name = albums.getString(1);
+                    afterId = albums.getInt(0);
+                    albumIds.add((int) afterId);
+                    albumNames.add(names.add(name));
+                    albumNameLengths.add(name == null ? -1 : name.length());
+                    albumReleases.add(albums.isNull(2) ? Snapshot.NO_RELEASE : (int) albums.getLong(2));
+                }
+            } finally {
+                albums.close();
+            }
+        } while (rows == PAGE_SIZE);
+
+        IntColumn songIds = new IntColumn();
+        IntColumn songNames = new IntColumn();
+        IntColumn songNameLengths = new IntColumn();
+        LongColumn songDurations = new LongColumn();
+        afterId = Long.MIN_VALUE;
+        do {
+            Cursor songs = database.query(SONGS_PAGE, new Object[]{afterId, PAGE_SIZE});
+            try {
+                for (rows = 0; songs.moveToNext(); rows++) {
+                    String name = songs.getString(1);
+                    afterId = songs.getInt(0);
+                    songIds.add((int) afterId);
+                    songNames.add(names.add(name));
+                    songNameLengths.add(name == null ? -1 : name.length());
+                    songDurations.add(songs.getLong(2));
+                }
+            } finally {
+                songs.close();
+            }
+        } while (rows == PAGE_SIZE);
+
+        //связи с альбомом или песней, которых не было в прочитанных страницах, пропускаются
+        int[] albumIdArray = albumIds.toArray();
+        int[] songIdArray = songIds.toArray();
+        int albumCount = albumIdArray.length;
+        int[] albumSongStarts = new int[albumCount + 1];
+        IntColumn linkAlbums = new IntColumn();
+        IntColumn linkSongs = new IntColumn();
+        afterId = Long.MIN_VALUE;
+        do {
+            Cursor albumSongs = database.query(ALBUM_SONGS_PAGE, new Object[]{afterId, PAGE_SIZE});
+            try {
+                for (rows = 0; albumSongs.moveToNext(); rows++) {
+                    afterId = albumSongs.getInt(0);
+                    int album = Arrays.binarySearch(albumIdArray, albumSongs.getInt(1));
+                    int song = Arrays.binarySearch(songIdArray, albumSongs.getInt(2));
+                    if (album < 0 || song < 0) {
+                        continue;
+                    }
+                    linkAlbums.add(album);
+                    linkSongs.add(song);
+                    albumSongStarts[album + 1]++;
+                }
+            } finally {
+                albumSongs.close();
+            }
+        } while (rows == PAGE_SIZE);
+
+        //раскладка связей по диапазонам альбомов
+        for (int i = 0; i < albumCount; i++) {
+            albumSongStarts[i + 1] += albumSongStarts[i];
+        }
+        int links = linkAlbums.mSize;
+        int[] albumSongIndexes = new int[links];
+        int[] next = Arrays.copyOf(albumSongStarts, albumCount);
+        for (int i = 0; i < links; i++) {
+            albumSongIndexes[next[linkAlbums.mValues[i]]++] = linkSongs.mValues[i];
+        }
+
+        return new Snapshot(schemaVersion(database), changeCounter,
+                IntBuffer.wrap(albumIdArray), IntBuffer.wrap(albumNames.toArray()),
+                IntBuffer.wrap(albumNameLengths.toArray()), IntBuffer.wrap(albumReleases.toArray()),
+                IntBuffer.wrap(songIdArray), IntBuffer.wrap(songNames.toArray()),
+                IntBuffer.wrap(songNameLengths.toArray()), LongBuffer.wrap(songDurations.toArray()),
+                IntBuffer.wrap(albumSongStarts), IntBuffer.wrap(albumSongIndexes), CharBuffer.wrap(names.toArray()));
+    }
+
+    /**
+     * Неизменяемый снимок каталога. Альбомы и песни адресуются индексом строки
+     * от 0 до count - 1; индекс по id даёт {@link #indexOfAlbum(int)} / {@link #indexOfSong(int)}.
+     * Колонки лежат в буферах: после сборки это обёртки массивов, после загрузки с диска -
+     * отображённые в память участки файла {@link CatalogSnapshotFile}.
+     */
+    public static final class Snapshot {
+
+        //альбом без даты релиза
+        public static final int NO_RELEASE = Integer.MIN_VALUE;
+
+        final int mSchemaVersion;
+        final long mChangeCounter;
+        final IntBuffer mAlbumIds;
+        final IntBuffer mAlbumNames;
+        final IntBuffer mAlbumNameLengths;
+        final IntBuffer mAlbumReleases;
+        final IntBuffer mSongIds;
+        final IntBuffer mSongNames;
+        final IntBuffer mSongNameLengths;
+        final LongBuffer mSongDurations;
+        final IntBuffer mAlbumSongStarts;
+        final IntBuffer mAlbumSongIndexes;
+        final CharBuffer mNames;
+
+        Snapshot(int schemaVersion, long changeCounter,
+                 IntBuffer albumIds, IntBuffer albumNames, IntBuffer albumNameLengths, IntBuffer albumReleases,
+                 IntBuffer songIds, IntBuffer songNames, IntBuffer songNameLengths, LongBuffer songDurations,
+                 IntBuffer albumSongStarts, IntBuffer albumSongIndexes, CharBuffer names) {
+            mSchemaVersion = schemaVersion;
+            mChangeCounter = changeCounter;
+            mAlbumIds = albumIds;
+            mAlbumNames = albumNames;
+            mAlbumNameLengths = albumNameLengths;
+            mAlbumReleases = albumReleases;
+            mSongIds = songIds;
+            mSongNames = songNames;
+            mSongNameLengths = songNameLengths;
+            mSongDurations = songDurations;
+            mAlbumSongStarts = albumSongStarts;
+            mAlbumSongIndexes = albumSongIndexes;
+            mNames = names;
+        }
+
+        /**
+         * @return версия схемы базы, с которой собран снимок
+         */
+        public int getSchemaVersion() {
+            return mSchemaVersion;
+        }
+
+        /**
+         * @return значение sync_sequence на момент сборки; меняется при любой записи в каталог
+         */
+        public long getChangeCounter() {
+            return mChangeCounter;
+        }
+
+        public int getAlbumCount() {
+            return mAlbumIds.capacity();
+        }
+
+        /**
+         * @return индекс альбома или -1, если его нет
+         */
+        public int indexOfAlbum(int albumId) {
+            return binarySearch(mAlbumIds, albumId);
+        }
+
+        public int getAlbumId(int index) {
+            return mAlbumIds.get(index);
+        }
+
+        @Nullable
+        public String getAlbumName(int index) {
+            return name(mAlbumNames.get(index), mAlbumNameLengths.get(index));
+        }
+
+        /**
+         * @return день релиза от 1970-01-01 или {@link #NO_RELEASE}
+         */
+        public int getAlbumRelease(int index) {
+            return mAlbumReleases.get(index);
+        }
+
+        public int getAlbumSongCount(int albumIndex) {
+            return mAlbumSongStarts.get(albumIndex + 1) - mAlbumSongStarts.get(albumIndex);
+        }
+
+        /**
+         * @return индекс песни, которая стоит в альбоме на позиции {@code position}
+         */
+        public int getAlbumSong(int albumIndex, int position) {
+            return mAlbumSongIndexes.get(mAlbumSongStarts.get(albumIndex) + position);
+        }
+
+        public int getSongCount() {
+            return mSongIds.capacity();
+        }
+
+        /**
+         * @return индекс песни или -1, если её нет
+         */
+        public int indexOfSong(int songId) {
+            return binarySearch(mSongIds, songId);
+        }
+
+        public int getSongId(int index) {
+            return mSongIds.get(index);
+        }
+
+        @Nullable
+        public String getSongName(int index) {
+            return name(mSongNames.get(index), mSongNameLengths.get(index));
+        }
+
+        public long getSongDuration(int index) {
+            return mSongDurations.get(index);
+        }
+
+        /**
+         * @return приблизительный размер колонок снимка в байтах, без заголовков объектов
+         */
+        public long getSizeInBytes() {
+            return 4L * (mAlbumIds.capacity() + mAlbumNames.capacity() + mAlbumNameLengths.capacity()
+                    + mAlbumReleases.capacity() + mSongIds.capacity() + mSongNames.capacity()
+                    + mSongNameLengths.capacity() + mAlbumSongStarts.capacity() + mAlbumSongIndexes.capacity())
+                    + 8L * mSongDurations.capacity()
+                    + 2L * mNames.capacity();
+        }
+
+        private String name(int offset, int length) {
+            return length < 0 ? null : mNames.subSequence(offset, offset + length).toString();
+        }
+
+        private static int binarySearch(IntBuffer ids, int id) {
+            int low = 0;
+            int high = ids.capacity() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int value = ids.get(middle);
+                if (value < id) {
+                    low = middle + 1;
+                } else if (value > id) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+    }
+
+    //общий буфер имён; повторяющиеся имена пишутся один раз
+    private static final class NameBuffer {
+
+        private final Map<String, Integer> mOffsets = new HashMap<>();
+        private char[] mChars = new char[1024];
+        private int mLength;
+
+        //смещение имени в буфере; у null длина -1, смещение не используется
+        int add(@Nullable String name) {
+            if (name == null) {
+                return 0;
+            }
+
+            Integer offset = mOffsets.get(name);
+            if (offset == null) {
+                offset = mLength;
+                if (mLength + name.length() > mChars.length) {
+                    mChars = Arrays.copyOf(mChars, Math.max(mChars.length * 2, mLength + name.length()));
+                }
+                name.getChars(0, name.length(), mChars, mLength);
+                mLength += name.length();
+                mOffsets.put(name, offset);
+            }
+            return offset;
+        }
+
+        char[] toArray() {
+            return Arrays.copyOf(mChars, mLength);
+        }
+    }
+
+    //растущие колонки: число строк заранее неизвестно, count(*) лишний раз прошёл бы таблицу
+    private static final class IntColumn {
+
+        private int[] mValues = new int[64];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+
+    private static final class LongColumn {
+
+        private long[] mValues = new long[64];
+        private int mSize;
+
+        void add(long value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package elegion.com.roomdatabase.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Плоский двоичный формат {@link CatalogIndex.Snapshot} для быстрого старта. Файл
+ * отображается в память целиком, колонки снимка - срезы отображения, так что при загрузке
+ * ничего не копируется и не разбирается.
+ * <p>
+ * Заголовок 40 байт: магическое число, версия формата, версия схемы базы, длина буфера имён,
+ * счётчик изменений (sync_sequence), число альбомов, песен и связей. Дальше колонки в порядке
+ * полей снимка, каждая с выравниванием на 8 байт. Порядок байт - родной для устройства;
+ * файл с другим порядком не совпадёт по магическому числу и будет пересобран.
+ */
+final class CatalogSnapshotFile {
+
+    private static final int MAGIC = 0x43494458;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+
+    private CatalogSnapshotFile() {
+    }
+
+    /**
+     * @return снимок или null, если файла нет, он повреждён или собран с другой схемой или
+     * другим счётчиком изменений
+     */
+    @Nullable
+    @WorkerThread
+    static CatalogIndex.Snapshot read(@NonNull File file, int schemaVersion, long changeCounter) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        MappedByteBuffer map;
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            //отображение остаётся действительным и после закрытия файла
+            map = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        } finally {
+            input.close();
+        }
+        map.order(ByteOrder.nativeOrder());
+
+        if (map.capacity() < HEADER_SIZE
+                || map.getInt(0) != MAGIC
+                || map.getInt(4) != FORMAT_VERSION
+                || map.getInt(8) != schemaVersion
+                || map.getLong(16) != changeCounter) {
+            return null;
+        }
+        int nameLength = map.getInt(12);
+        int albumCount = map.getInt(24);
+        int songCount = map.getInt(28);
+        int linkCount = map.getInt(32);
+        if (nameLength < 0 || albumCount < 0 || songCount < 0 || linkCount < 0
+                || map.capacity() != size(albumCount, songCount, linkCount, nameLength)) {
+            return null;
+        }
+
+        Sections sections = new Sections(map);
+        return new CatalogIndex.Snapshot(schemaVersion, changeCounter,
+                sections.next(4 * albumCount).asIntBuffer(),
+                sections.next(4 * albumCount).asIntBuffer(),
+                sections.next(4 * albumCount).asIntBuffer(),
+                sections.next(4 * albumCount).asIntBuffer(),
+                sections.next(4 * songCount).asIntBuffer(),
+                sections.next(4 * songCount).asIntBuffer(),
+                sections.next(4 * songCount).asIntBuffer(),
+                sections.next(8 * songCount).asLongBuffer(),
+                sections.next(4 * (albumCount + 1)).asIntBuffer(),
+                sections.next(4 * linkCount).asIntBuffer(),
+                sections.next(2 * nameLength).asCharBuffer());
+    }
+
+    /**
+     * Пишет снимок во временный файл и переименовывает его, чтобы при сбое не остался
+     * наполовину записанный файл.
+     */
+    @WorkerThread
+    static void write(@NonNull CatalogIndex.Snapshot snapshot, @NonNull File file) throws IOException {
+        int albumCount = snapshot.getAlbumCount();
+        int songCount = snapshot.getSongCount();
+        int linkCount = snapshot.mAlbumSongIndexes.capacity();
+        int nameLength = snapshot.mNames.capacity();
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size(albumCount, songCount, linkCount, nameLength))
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(0, MAGIC)
+                .putInt(4, FORMAT_VERSION)
+                .putInt(8, snapshot.mSchemaVersion)
+                .putInt(12, nameLength)
+                .putLong(16, snapshot.mChangeCounter)
+                .putInt(24, albumCount)
+                .putInt(28, songCount)
+                .putInt(32, linkCount);
+
+        Sections sections = new Sections(buffer);
+        sections.next(4 * albumCount).asIntBuffer().put(snapshot.mAlbumIds.duplicate());
+        sections.next(4 * albumCount).asIntBuffer().put(snapshot.mAlbumNames.duplicate());
+        sections.next(4 * albumCount).asIntBuffer().put(snapshot.mAlbumNameLengths.duplicate());
+        sections.next(4 * albumCount).asIntBuffer().put(snapshot.mAlbumReleases.duplicate());
+        sections.next(4 * songCount).asIntBuffer().put(snapshot.mSongIds.duplicate());
+        sections.next(4 * songCount).asIntBuffer().put(snapshot.mSongNames.duplicate());
+        sections.next(4 * songCount).asIntBuffer().put(snapshot.mSongNameLengths.duplicate());
+        sections.next(8 * songCount).asLongBuffer().put(snapshot.mSongDurations.duplicate());
+        sections.next(4 * (albumCount + 1)).asIntBuffer().put(snapshot.mAlbumSongStarts.duplicate());
+        sections.next(4 * linkCount).asIntBuffer().put(snapshot.mAlbumSongIndexes.duplicate());
+        sections.next(2 * nameLength).asCharBuffer().put(snapshot.mNames.duplicate());
+
+        File temp = new File(file.getPath() + ".tmp");
+        boolean renamed = false;
+        try {
+            FileOutputStream output = new FileOutputStream(temp);
+            try {
+                FileChannel channel = output.getChannel();
+                buffer.clear();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                output.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("cannot rename " + temp + " to " + file);
+            }
+            renamed = true;
+        } finally {
+            if (!renamed) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static long size(int albumCount, int songCount, int linkCount, int nameLength) {
+        return HEADER_SIZE
+                + 4 * align(4L * albumCount)
+                + 3 * align(4L * songCount)
+                + align(8L * songCount)
+                + align(4L * (albumCount + 1))
+                + align(4L * linkCount)
+                + align(2L * nameLength);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    //колонки файла подряд после заголовка, каждая с выравниванием на 8 байт
+    private static final class Sections {
+
+        private final ByteBuffer mBuffer;
+        private int mOffset = HEADER_SIZE;
+
+        Sections(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        ByteBuffer next(int bytes) {
+            ByteBuffer section = mBuffer.duplicate();
+            section.limit(mOffset + bytes).position(mOffset);
+            mOffset += (int) align(bytes);
+            //slice сбрасывает порядок байт на BIG_ENDIAN
+            return section.slice().order(mBuffer.order());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.SupportSQLiteOpenHelper;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+/**
+ * Оборачивает фабрику Room и применяет {@link MusicDatabaseConfig} в onConfigure: это
+ * единственный колбек, который фреймворк вызывает до создания таблиц и вне транзакции.
+ * В Room 1.0 у {@code RoomDatabase.Callback} такого колбека нет.
+ */
+final class ConfiguringOpenHelperFactory implements SupportSQLiteOpenHelper.Factory {
+
+    private final SupportSQLiteOpenHelper.Factory mDelegate;
+    private final MusicDatabaseConfig mConfig;
+
+    ConfiguringOpenHelperFactory(@NonNull SupportSQLiteOpenHelper.Factory delegate, @NonNull MusicDatabaseConfig config) {
+        mDelegate = delegate;
+        mConfig = config;
+    }
+
+    @Override
+    public SupportSQLiteOpenHelper create(SupportSQLiteOpenHelper.Configuration configuration) {
+        return mDelegate.create(SupportSQLiteOpenHelper.Configuration.builder(configuration.context)
+                .name(configuration.name)
+                .callback(new ConfiguringCallback(configuration.callback, mConfig))
+                .build());
+    }
+
+    static void configure(@NonNull SupportSQLiteDatabase database, @NonNull MusicDatabaseConfig config) {
+        //page_size до первой таблицы: на новой базе сработает, на существующей SQLite его проигнорирует
+        if (config.getPageSize() > 0) {
+            pragma(database, "PRAGMA page_size = " + config.getPageSize());
+        }
+
+        if (config.isWriteAheadLogging()) {
+            //для in-memory базы WAL недоступен, тогда остаётся обычный журнал
+            database.enableWriteAheadLogging();
+        } else {
+            database.disableWriteAheadLogging();
+        }
+
+        //cache_size и synchronous действуют на соединение, где выполнен onConfigure, - основное, пишущее;
+        //отрицательное значение cache_size - размер в килобайтах, а не в страницах
+        if (config.getCacheSizeKb() > 0) {
+            pragma(database, "PRAGMA cache_size = -" + config.getCacheSizeKb());
+        }
+        pragma(database, "PRAGMA synchronous = " + config.getSynchronous().name());
+        pragma(database, "PRAGMA wal_autocheckpoint = " + config.getAutoCheckpointPages());
+    }
+
+    //часть PRAGMA возвращает строку, а execSQL на таких падает, поэтому через query
+    private static void pragma(SupportSQLiteDatabase database, String sql) {
+        Cursor cursor = database.query(sql);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static class ConfiguringCallback extends SupportSQLiteOpenHelper.Callback {
+
+        private final SupportSQLiteOpenHelper.Callback mDelegate;
+        private final MusicDatabaseConfig mConfig;
+
+        ConfiguringCallback(SupportSQLiteOpenHelper.Callback delegate, MusicDatabaseConfig config) {
+            super(delegate.version);
+            mDelegate = delegate;
+            mConfig = config;
+        }
+
+        @Override
+        public void onConfigure(SupportSQLiteDatabase db) {
+            configure(db, mConfig);
+            mDelegate.onConfigure(db);
+        }
+
+        @Override
+        public void onCreate(SupportSQLiteDatabase db) {
+            mDelegate.onCreate(db);
+        }
+
+        @Override
+        public void onUpgrade(SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+            mDelegate.onUpgrade(db, oldVersion, newVersion);
+        }
+
+        @Override
+        public void onDowngrade(SupportSQLiteDatabase db, int oldVersion, int newVersion) {
+            mDelegate.onDowngrade(db, oldVersion, newVersion);
+        }
+
+        @Override
+        public void onOpen(SupportSQLiteDatabase db) {
+            mDelegate.onOpen(db);
+        }
+
+        @Override
+        public void onCorruption(SupportSQLiteDatabase db) {
+            mDelegate.onCorruption(db);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package elegion.com.roomdatabase.database;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Холодный поток строк запроса с обратным давлением, по контракту Reactive Streams.
+ * java.util.concurrent.Flow появился только в API 30, поэтому интерфейсы свои, с теми же методами.
+ * <p>
+ * Каждая подписка открывает свой курсор при первом запросе и читает из него ровно столько строк,
+ * сколько запросил подписчик; в памяти держится только окно курсора. Курсор закрывается
+ * после последней строки, при ошибке и при отмене. Все сигналы подписчику, кроме onSubscribe,
+ * приходят на executor и никогда не идут параллельно.
+ */
+public class CursorPublisher<T> {
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable error);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        //n > 0; Long.MAX_VALUE - без ограничений
+        void request(long n);
+
+        void cancel();
+    }
+
+    /**
+     * Превращает строку курсора в объект. Индексы колонок ищутся один раз на курсор,
+     * в map приходят уже готовыми, в порядке {@link #getColumns()}.
+     */
+    public interface RowMapper<T> {
+        String[] getColumns();
+
+        T map(Cursor cursor, int[] columns);
+    }
+
+    private final Callable<Cursor> mQuery;
+    private final RowMapper<T> mMapper;
+    private final Executor mExecutor;
+
+    public CursorPublisher(@NonNull Callable<Cursor> query, @NonNull RowMapper<T> mapper, @NonNull Executor executor) {
+        mQuery = query;
+        mMapper = mapper;
+        mExecutor = executor;
+    }
+
+    public void subscribe(@NonNull Subscriber<? super T> subscriber) {
+        subscriber.onSubscribe(new CursorSubscription(subscriber));
+    }
+
+    private final class CursorSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super T> mSubscriber;
+        private final AtomicLong mRequested = new AtomicLong();
+        //число необработанных сигналов; drain работает, пока оно не ноль, и только на одном потоке
+        private final AtomicInteger mWip = new AtomicInteger();
+        private volatile boolean mCancelled;
+        private volatile boolean mBadRequest;
+
+        //трогаются только внутри drain
+        private Cursor mCursor;
+        private int[] mColumns;
+        private boolean mDone;
+
+        CursorSubscription(Subscriber<? super T> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                mBadRequest = true;
+            } else {
+                long current;
+                do {
+                    current = mRequested.get();
+                    if (current == Long.MAX_VALUE) {
+                        break;
+                    }
+                } while (!mRequested.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (mWip.getAndIncrement() == 0) {
+                mExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = mWip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (mDone) {
+                return;
+            }
+            if (mCancelled) {
+                finish();
+                return;
+            }
+            if (mBadRequest) {
+                finish();
+                mSubscriber.onError(new IllegalArgumentException("request must be positive"));
+                return;
+            }
+
+            try {
+                if (mCursor == null) {
+                    mCursor = mQuery.call();
+                    String[] names = mMapper.getColumns();
+                    mColumns = new int[names.length];
+                    for (int i = 0; i < names.length; i++) {
+                        mColumns[i] = mCursor.getColumnIndexOrThrow(names[i]);
+                    }
+                }
+
+                long requested = mRequested.get();
+                long emitted = 0;
+                while (emitted != requested) {
+                    if (mCancelled) {
+                        finish();
+                        return;
+                    }
+                    if (!mCursor.moveToNext()) {
+                        break;
+                    }
+                    mSubscriber.onNext(mMapper.map(mCursor, mColumns));
+                    emitted++;
+                }
+
+                //конец отдаём сразу, не дожидаясь следующего request
+                if (mCursor.isLast() || mCursor.isAfterLast() || mCursor.getCount() == 0) {
+                    finish();
+                    if (!mCancelled) {
+                        mSubscriber.onComplete();
+                    }
+                    return;
+                }
+                if (requested != Long.MAX_VALUE) {
+                    mRequested.addAndGet(-emitted);
+                }
+            } catch (Exception e) {
+                finish();
+                mSubscriber.onError(e);
+            }
+        }
+
+        private void finish() {
+            mDone = true;
+            if (mCursor != null) {
+                mCursor.close();
+                mCursor = null;
+            }
+        }
+    }
+}
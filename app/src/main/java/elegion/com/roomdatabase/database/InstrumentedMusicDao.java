@@ -0,0 +1,490 @@
+package elegion.com.roomdatabase.database;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link MusicDao}, который пишет время и размер результата каждого вызова в {@link QueryStats}.
+ * Курсоры не читаются ради размера: замер покрывает только подготовку запроса, а размер
+ * пишется, только если уже известен (см. {@link QueryStats#knownRowCount}). Вызовы,
+ * закончившиеся исключением, не учитываются.
+ * <p>
+ * Записи сбрасывают затронутые id из {@link RowCache} через {@link MusicDatabase}: так кэш
+ * верен для любого, кто пишет через {@link MusicDatabase#getMusicDao()}. Удаление альбома или
+ * песни удаляет связи триггером, поэтому сбрасываются все связи.
+ * <p>
+ * Таймер ищется по имени-константе на каждом вызове: это чтение из ConcurrentHashMap без
+ * выделения памяти, зато гистограммы заводятся только для методов, которые реально вызывались.
+ */
+class InstrumentedMusicDao implements MusicDao {
+
+    private final MusicDao mDelegate;
+    private final MusicDatabase mDatabase;
+    private final QueryStats mStats;
+
+    InstrumentedMusicDao(@NonNull MusicDao delegate, @NonNull MusicDatabase database) {
+        mDelegate = delegate;
+        mDatabase = database;
+        mStats = database.getQueryStats();
+    }
+
+    @Override
+    public void insertAlbums(List<Album> albums) {
+        long start = System.nanoTime();
+        mDelegate.insertAlbums(albums);
+        for (int i = 0, size = albums.size(); i < size; i++) {
+            mDatabase.invalidateAlbum(albums.get(i).getId());
+        }
+        mStats.timer("dao.insertAlbums").record(start, albums.size());
+    }
+
+    @Override
+    public void insertAlbum(Album albums) {
+        long start = System.nanoTime();
+        mDelegate.insertAlbum(albums);
+        mDatabase.invalidateAlbum(albums.getId());
+        mStats.timer("dao.insertAlbum").record(start, 1);
+    }
+
+    @Override
+    public void insertSongs(List<Song> songs) {
+        long start = System.nanoTime();
+        mDelegate.insertSongs(songs);
+        for (int i = 0, size = songs.size(); i < size; i++) {
+            mDatabase.invalidateSong(songs.get(i).getId());
+        }
+        mStats.timer("dao.insertSongs").record(start, songs.size());
+    }
+
+    @Override
+    public void insertSong(Song song) {
+        long start = System.nanoTime();
+        mDelegate.insertSong(song);
+        mDatabase.invalidateSong(song.getId());
+        mStats.timer("dao.insertSong").record(start, 1);
+    }
+
+    @Override
+    public void setLinksAlbumSongs(List<AlbumSong> linksAlbumSongs) {
+        long start = System.nanoTime();
+        mDelegate.setLinksAlbumSongs(linksAlbumSongs);
+        for (int i = 0, size = linksAlbumSongs.size(); i < size; i++) {
+            mDatabase.invalidateAlbumSong(linksAlbumSongs.get(i).getId());
+        }
+        mStats.timer("dao.setLinksAlbumSongs").record(start, linksAlbumSongs.size());
+    }
+
+    @Override
+    public void setLinkAlbumSong(AlbumSong linkAlbumSong) {
+        long start = System.nanoTime();
+        mDelegate.setLinkAlbumSong(linkAlbumSong);
+        mDatabase.invalidateAlbumSong(linkAlbumSong.getId());
+        mStats.timer("dao.setLinkAlbumSong").record(start, 1);
+    }
+
+    @Override
+    public List<Album> getAlbums() {
+        long start = System.nanoTime();
+        List<Album> result = mDelegate.getAlbums();
+        mStats.timer("dao.getAlbums").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public Cursor getAlbumsCursor() {
+        long start = System.nanoTime();
+        Cursor result = mDelegate.getAlbumsCursor();
+        mStats.timer("dao.getAlbumsCursor").record(start, QueryStats.knownRowCount(result));
+        return result;
+    }
+
+    @Override
+    public Cursor getAlbumWithIdCursor(int albumId) {
+        long start = System.nanoTime();
+        Cursor result = mDelegate.getAlbumWithIdCursor(albumId);
+        mStats.timer("dao.getAlbumWithIdCursor").record(start, QueryStats.knownRowCount(result));
+        return result;
+    }
+
+    @Override
+    public List<Song> getSongs() {
+        long start = System.nanoTime();
+        List<Song> result = mDelegate.getSongs();
+        mStats.timer("dao.getSongs").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public Cursor getSongsCursor() {
+        long start = System.nanoTime();
+        Cursor result = mDelegate.getSongsCursor();
+        mStats.timer("dao.getSongsCursor").record(start, QueryStats.knownRowCount(result));
+        return result;
+    }
+
+    @Override
+    public Cursor getSongWithIdCursor(int songId) {
+        long start = System.nanoTime();
+        Cursor result = mDelegate.getSongWithIdCursor(songId);
+        mStats.timer("dao.getSongWithIdCursor").record(start, QueryStats.knownRowCount(result));
+        return result;
+    }
+
+    @Override
+    public List<AlbumSong> getAlbumSongs() {
+        long start = System.nanoTime();
+        List<AlbumSong> result = mDelegate.getAlbumSongs();
+        mStats.timer("dao.getAlbumSongs").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public Cursor getAlbumSongsCursor() {
+        long start = System.nanoTime();
+        Cursor result = mDelegate.getAlbumSongsCursor();
+        mStats.timer("dao.getAlbumSongsCursor").record(start, QueryStats.knownRowCount(result));
+        return result;
+    }
+
+    @Override
+    public Cursor getAlbumSongWithIdCursor(int songId) {
+        long start = System.nanoTime();
+        Cursor result = mDelegate.getAlbumSongWithIdCursor(songId);
+        mStats.timer("dao.getAlbumSongWithIdCursor").record(start, QueryStats.knownRowCount(result));
+        return result;
+    }
+
+    @Override
+    public Album getAlbumById(int albumId) {
+        long start = System.nanoTime();
+        Album result = mDelegate.getAlbumById(albumId);
+        mStats.timer("dao.getAlbumById").record(start, result != null ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public Song getSongById(int songId) {
+        long start = System.nanoTime();
+        Song result = mDelegate.getSongById(songId);
+        mStats.timer("dao.getSongById").record(start, result != null ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public AlbumSong getAlbumSongById(int id) {
+        long start = System.nanoTime();
+        AlbumSong result = mDelegate.getAlbumSongById(id);
+        mStats.timer("dao.getAlbumSongById").record(start, result != null ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public List<Album> getAlbumsAfter(long afterId, int limit) {
+        long start = System.nanoTime();
+        List<Album> result = mDelegate.getAlbumsAfter(afterId, limit);
+        mStats.timer("dao.getAlbumsAfter").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public List<Song> getSongsAfter(long afterId, int limit) {
+        long start = System.nanoTime();
+        List<Song> result = mDelegate.getSongsAfter(afterId, limit);
+        mStats.timer("dao.getSongsAfter").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public List<AlbumSong> getAlbumSongsAfter(long afterId, int limit) {
+        long start = System.nanoTime();
+        List<AlbumSong> result = mDelegate.getAlbumSongsAfter(afterId, limit);
+        mStats.timer("dao.getAlbumSongsAfter").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public void deleteAlbum(Album album) {
+        long start = System.nanoTime();
+        mDelegate.deleteAlbum(album);
+        mDatabase.invalidateAlbum(album.getId());
+        mDatabase.invalidateAllAlbumSongs();
+        mStats.timer("dao.deleteAlbum").record(start, 1);
+    }
+
+    @Override
+    public void deleteSong(Song song) {
+        long start = System.nanoTime();
+        mDelegate.deleteSong(song);
+        mDatabase.invalidateSong(song.getId());
+        mDatabase.invalidateAllAlbumSongs();
+        mStats.timer("dao.deleteSong").record(start, 1);
+    }
+
+    @Override
+    public void deleteLinkAlbumSong(AlbumSong albumSong) {
+        long start = System.nanoTime();
+        mDelegate.deleteLinkAlbumSong(albumSong);
+        mDatabase.invalidateAlbumSong(albumSong.getId());
+        mStats.timer("dao.deleteLinkAlbumSong").record(start, 1);
+    }
+
+    @Override
+    public List<Song> getSongsFromAlbum(int albumId) {
+        long start = System.nanoTime();
+        List<Song> result = mDelegate.getSongsFromAlbum(albumId);
+        mStats.timer("dao.getSongsFromAlbum").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public List<Song> getSongsShorterThan(long maxDurationMillis) {
+        long start = System.nanoTime();
+        List<Song> result = mDelegate.getSongsShorterThan(maxDurationMillis);
+        mStats.timer("dao.getSongsShorterThan").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public List<Album> getAlbumsReleasedBetween(Date from, Date to) {
+        long start = System.nanoTime();
+        List<Album> result = mDelegate.getAlbumsReleasedBetween(from, to);
+        mStats.timer("dao.getAlbumsReleasedBetween").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public List<Album> getAlbumsByIds(int[] albumIds) {
+        long start = System.nanoTime();
+        List<Album> result = mDelegate.getAlbumsByIds(albumIds);
+        mStats.timer("dao.getAlbumsByIds").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public List<AlbumSongRow> getSongsFromAlbums(int[] albumIds) {
+        long start = System.nanoTime();
+        List<AlbumSongRow> result = mDelegate.getSongsFromAlbums(albumIds);
+        mStats.timer("dao.getSongsFromAlbums").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public int updateAlbumInfo(Album album) {
+        long start = System.nanoTime();
+        int result = mDelegate.updateAlbumInfo(album);
+        mDatabase.invalidateAlbum(album.getId());
+        mStats.timer("dao.updateAlbumInfo").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int updateSongInfo(Song song) {
+        long start = System.nanoTime();
+        int result = mDelegate.updateSongInfo(song);
+        mDatabase.invalidateSong(song.getId());
+        mStats.timer("dao.updateSongInfo").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int updateAlbumSongInfo(AlbumSong albumSong) {
+        long start = System.nanoTime();
+        int result = mDelegate.updateAlbumSongInfo(albumSong);
+        mDatabase.invalidateAlbumSong(albumSong.getId());
+        mStats.timer("dao.updateAlbumSongInfo").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int deleteAlbumById(int albumId) {
+        long start = System.nanoTime();
+        int result = mDelegate.deleteAlbumById(albumId);
+        mDatabase.invalidateAlbum(albumId);
+        mDatabase.invalidateAllAlbumSongs();
+        mStats.timer("dao.deleteAlbumById").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int deleteSongById(int songId) {
+        long start = System.nanoTime();
+        int result = mDelegate.deleteSongById(songId);
+        mDatabase.invalidateSong(songId);
+        mDatabase.invalidateAllAlbumSongs();
+        mStats.timer("dao.deleteSongById").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int deleteAlbumSongById(int id) {
+        long start = System.nanoTime();
+        int result = mDelegate.deleteAlbumSongById(id);
+        mDatabase.invalidateAlbumSong(id);
+        mStats.timer("dao.deleteAlbumSongById").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int deleteAlbumsByIds(int[] albumIds) {
+        long start = System.nanoTime();
+        int result = mDelegate.deleteAlbumsByIds(albumIds);
+        for (int albumId : albumIds) {
+            mDatabase.invalidateAlbum(albumId);
+        }
+        mDatabase.invalidateAllAlbumSongs();
+        mStats.timer("dao.deleteAlbumsByIds").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int deleteSongsByIds(int[] songIds) {
+        long start = System.nanoTime();
+        int result = mDelegate.deleteSongsByIds(songIds);
+        for (int songId : songIds) {
+            mDatabase.invalidateSong(songId);
+        }
+        mDatabase.invalidateAllAlbumSongs();
+        mStats.timer("dao.deleteSongsByIds").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int deleteAlbumSongsByIds(int[] ids) {
+        long start = System.nanoTime();
+        int result = mDelegate.deleteAlbumSongsByIds(ids);
+        for (int id : ids) {
+            mDatabase.invalidateAlbumSong(id);
+        }
+        mStats.timer("dao.deleteAlbumSongsByIds").record(start, result);
+        return result;
+    }
+
+    @Override
+    public long insertAlbumIfAbsent(Album album) {
+        long start = System.nanoTime();
+        long result = mDelegate.insertAlbumIfAbsent(album);
+        mDatabase.invalidateAlbum(album.getId());
+        mStats.timer("dao.insertAlbumIfAbsent").record(start, result == -1 ? 0 : 1);
+        return result;
+    }
+
+    @Override
+    public long insertSongIfAbsent(Song song) {
+        long start = System.nanoTime();
+        long result = mDelegate.insertSongIfAbsent(song);
+        mDatabase.invalidateSong(song.getId());
+        mStats.timer("dao.insertSongIfAbsent").record(start, result == -1 ? 0 : 1);
+        return result;
+    }
+
+    @Override
+    public long insertAlbumSongIfAbsent(AlbumSong albumSong) {
+        long start = System.nanoTime();
+        long result = mDelegate.insertAlbumSongIfAbsent(albumSong);
+        mDatabase.invalidateAlbumSong(albumSong.getId());
+        mStats.timer("dao.insertAlbumSongIfAbsent").record(start, result == -1 ? 0 : 1);
+        return result;
+    }
+
+    @Override
+    public int updateAlbumIfChanged(int id, String name, Date release, long updatedAt, long version) {
+        long start = System.nanoTime();
+        int result = mDelegate.updateAlbumIfChanged(id, name, release, updatedAt, version);
+        mDatabase.invalidateAlbum(id);
+        mStats.timer("dao.updateAlbumIfChanged").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int updateSongIfChanged(int id, String name, long duration, long updatedAt, long version) {
+        long start = System.nanoTime();
+        int result = mDelegate.updateSongIfChanged(id, name, duration, updatedAt, version);
+        mDatabase.invalidateSong(id);
+        mStats.timer("dao.updateSongIfChanged").record(start, result);
+        return result;
+    }
+
+    @Override
+    public int updateAlbumSongIfChanged(int id, int albumId, int songId, long updatedAt, long version) {
+        long start = System.nanoTime();
+        int result = mDelegate.updateAlbumSongIfChanged(id, albumId, songId, updatedAt, version);
+        mDatabase.invalidateAlbumSong(id);
+        mStats.timer("dao.updateAlbumSongIfChanged").record(start, result);
+        return result;
+    }
+
+    @Override
+    public List<Album> getAlbumsChangedSince(long version, int limit) {
+        long start = System.nanoTime();
+        List<Album> result = mDelegate.getAlbumsChangedSince(version, limit);
+        mStats.timer("dao.getAlbumsChangedSince").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public List<Song> getSongsChangedSince(long version, int limit) {
+        long start = System.nanoTime();
+        List<Song> result = mDelegate.getSongsChangedSince(version, limit);
+        mStats.timer("dao.getSongsChangedSince").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public List<AlbumSong> getAlbumSongsChangedSince(long version, int limit) {
+        long start = System.nanoTime();
+        List<AlbumSong> result = mDelegate.getAlbumSongsChangedSince(version, limit);
+        mStats.timer("dao.getAlbumSongsChangedSince").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public int addSongPlays(int songId, long plays, long playedAt) {
+        long start = System.nanoTime();
+        int result = mDelegate.addSongPlays(songId, plays, playedAt);
+        mStats.timer("dao.addSongPlays").record(start, result);
+        return result;
+    }
+
+    @Override
+    public SongStats getSongStats(int songId) {
+        long start = System.nanoTime();
+        SongStats result = mDelegate.getSongStats(songId);
+        mStats.timer("dao.getSongStats").record(start, result != null ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public List<PlayedSong> getMostPlayedSongs(int limit) {
+        long start = System.nanoTime();
+        List<PlayedSong> result = mDelegate.getMostPlayedSongs(limit);
+        mStats.timer("dao.getMostPlayedSongs").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public Cursor getMostPlayedSongsCursor(int limit) {
+        long start = System.nanoTime();
+        Cursor result = mDelegate.getMostPlayedSongsCursor(limit);
+        mStats.timer("dao.getMostPlayedSongsCursor").record(start, QueryStats.knownRowCount(result));
+        return result;
+    }
+
+    @Override
+    public List<PlayedSong> getRecentlyPlayedSongs(int limit) {
+        long start = System.nanoTime();
+        List<PlayedSong> result = mDelegate.getRecentlyPlayedSongs(limit);
+        mStats.timer("dao.getRecentlyPlayedSongs").record(start, result.size());
+        return result;
+    }
+
+    @Override
+    public Cursor getRecentlyPlayedSongsCursor(int limit) {
+        long start = System.nanoTime();
+        Cursor result = mDelegate.getRecentlyPlayedSongsCursor(limit);
+        mStats.timer("dao.getRecentlyPlayedSongsCursor").record(start, QueryStats.knownRowCount(result));
+        return result;
+    }
+}
@@ -0,0 +1,228 @@
+package elegion.com.roomdatabase.database;
+
+import java.util.Arrays;
+
+/**
+ * LRU-кэш с примитивными int-ключами: ключи, цепочки хэш-таблицы и LRU-список хранятся
+ * в массивах, поэтому id не боксятся и на get не создаётся ни одного объекта.
+ * <p>
+ * Каждое удаление увеличивает поколение кэша. Загрузчик, читающий из базы без блокировки,
+ * берёт {@link #generation()} до чтения и кладёт результат через
+ * {@link #putIfGeneration(int, Object, long)}, чтобы не вернуть в кэш строку,
+ * которую успели изменить, пока шёл запрос.
+ */
+public final class IntLruCache<V> {
+
+    private static final int NONE = -1;
+
+    private final int mMaxSize;
+    private final int mMask;
+    private final int[] mBuckets;
+    private final int[] mChain;
+    private final int[] mKeys;
+    private final Object[] mValues;
+    private final int[] mPrev;
+    private final int[] mNext;
+
+    private int mHead = NONE;
+    private int mTail = NONE;
+    private int mFree = NONE;
+    private int mUsed;
+    private int mSize;
+    private long mGeneration;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    public IntLruCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        mMaxSize = maxSize;
+
+        int buckets = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+        mMask = buckets - 1;
+        mBuckets = new int[buckets];
+        Arrays.fill(mBuckets, NONE);
+
+        mChain = new int[maxSize];
+        mKeys = new int[maxSize];
+        mValues = new Object[maxSize];
+        mPrev = new int[maxSize];
+        mNext = new int[maxSize];
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized V get(int key) {
+        int slot = find(key);
+        if (slot == NONE) {
+            mMissCount++;
+            return null;
+        }
+
+        mHitCount++;
+        moveToHead(slot);
+        return (V) mValues[slot];
+    }
+
+    public synchronized void put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        int slot = find(key);
+        if (slot != NONE) {
+            mValues[slot] = value;
+            moveToHead(slot);
+            return;
+        }
+
+        if (mSize == mMaxSize) {
+            removeSlot(mTail);
+            mEvictionCount++;
+        }
+
+        slot = allocate();
+        mKeys[slot] = key;
+        mValues[slot] = value;
+
+        int bucket = bucket(key);
+        mChain[slot] = mBuckets[bucket];
+        mBuckets[bucket] = slot;
+
+        linkHead(slot);
+        mSize++;
+    }
+
+    /**
+     * Кладёт значение, только если с момента {@code generation} из кэша ничего не удаляли.
+     */
+    public synchronized boolean putIfGeneration(int key, V value, long generation) {
+        if (generation != mGeneration) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    public synchronized void remove(int key) {
+        mGeneration++;
+        int slot = find(key);
+        if (slot != NONE) {
+            removeSlot(slot);
+        }
+    }
+
+    public synchronized void clear() {
+        mGeneration++;
+        Arrays.fill(mBuckets, NONE);
+        Arrays.fill(mValues, null);
+        mHead = NONE;
+        mTail = NONE;
+        mFree = NONE;
+        mUsed = 0;
+        mSize = 0;
+    }
+
+    public synchronized long generation() {
+        return mGeneration;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long missCount() {
+        return mMissCount;
+    }
+
+    public synchronized long evictionCount() {
+        return mEvictionCount;
+    }
+
+    private int bucket(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mMask;
+    }
+
+    private int find(int key) {
+        for (int slot = mBuckets[bucket(key)]; slot != NONE; slot = mChain[slot]) {
+            if (mKeys[slot] == key) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    private int allocate() {
+        if (mFree != NONE) {
+            int slot = mFree;
+            mFree = mNext[slot];
+            return slot;
+        }
+        return mUsed++;
+    }
+
+    private void removeSlot(int slot) {
+        int bucket = bucket(mKeys[slot]);
+        if (mBuckets[bucket] == slot) {
+            mBuckets[bucket] = mChain[slot];
+        } else {
+            int previous = mBuckets[bucket];
+            while (mChain[previous] != slot) {
+                previous = mChain[previous];
+            }
+            mChain[previous] = mChain[slot];
+        }
+
+        unlink(slot);
+        mValues[slot] = null;
+        mNext[slot] = mFree;
+        mFree = slot;
+        mSize--;
+    }
+
+    private void moveToHead(int slot) {
+        if (slot == mHead) {
+            return;
+        }
+        unlink(slot);
+        linkHead(slot);
+    }
+
+    private void linkHead(int slot) {
+        mPrev[slot] = NONE;
+        mNext[slot] = mHead;
+        if (mHead != NONE) {
+            mPrev[mHead] = slot;
+        }
+        mHead = slot;
+        if (mTail == NONE) {
+            mTail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        int prev = mPrev[slot];
+        int next = mNext[slot];
+        if (prev != NONE) {
+            mNext[prev] = next;
+        } else {
+            mHead = next;
+        }
+        if (next != NONE) {
+            mPrev[next] = prev;
+        } else {
+            mTail = prev;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package elegion.com.roomdatabase.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма задержек в наносекундах с логарифмически-линейными корзинами, как в HdrHistogram:
+ * каждая степень двойки делится на 32 корзины, поэтому относительная ошибка перцентиля не больше 1/32.
+ * Значения до 2^36 нс (~68 с), больше - попадают в последнюю корзину.
+ * <p>
+ * {@link #record} не выделяет память и не берёт блокировок, его можно звать на каждом запросе
+ * из любого потока. Чтение перцентилей во время записи даёт приблизительный, но согласованный по
+ * смыслу результат.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucketOf(nanos));
+        mCount.incrementAndGet();
+        mTotal.addAndGet(nanos);
+
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getTotalNanos() {
+        return mTotal.get();
+    }
+
+    public long getMaxNanos() {
+        return mMax.get();
+    }
+
+    /**
+     * Верхняя граница корзины, в которую попал {@code percentile}-й перцентиль; 0, если записей нет.
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mTotal.set(0);
+        mMax.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        //старший бит всегда 1, следующие SUB_BUCKET_BITS бит - номер корзины внутри степени
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
@@ -8,6 +8,7 @@ import android.arch.persistence.room.Query;
 import android.arch.persistence.room.Update;
 import android.database.Cursor;
 
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -17,6 +18,18 @@ import java.util.List;
 @Dao
 public interface MusicDao {
 
+    //запросы, чей план проверяет QueryPlanTest: тест берёт тот же текст, что и @Query
+    String SONGS_FROM_ALBUM_QUERY =
+            "select song.* from song inner join albumsong on song.id = albumsong.song_id where album_id = :albumId";
+    String SONGS_SHORTER_THAN_QUERY = "select * from song where duration < :maxDurationMillis order by duration";
+    String ALBUMS_RELEASED_BETWEEN_QUERY = "select * from album where release between :from and :to order by release";
+    String MOST_PLAYED_SONGS_QUERY = "select song.*, songstats.plays, songstats.last_played_at from songstats "
+            + "inner join song on song.id = songstats.song_id "
+            + "where songstats.plays > 0 order by songstats.plays desc limit :limit";
+    String RECENTLY_PLAYED_SONGS_QUERY = "select song.*, songstats.plays, songstats.last_played_at from songstats "
+            + "inner join song on song.id = songstats.song_id "
+            + "where songstats.last_played_at > 0 order by songstats.last_played_at desc limit :limit";
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void insertAlbums(List<Album> albums);
 
@@ -62,6 +75,25 @@ public interface MusicDao {
     @Query("select * from albumsong where id = :songId")
     Cursor getAlbumSongWithIdCursor(int songId);
 
+    @Query("select * from album where id = :albumId")
+    Album getAlbumById(int albumId);
+
+    @Query("select * from song where id = :songId")
+    Song getSongById(int songId);
+
+    @Query("select * from albumsong where id = :id")
+    AlbumSong getAlbumSongById(int id);
+
+    //постраничная выборка по ключу: следующая страница начинается после последнего id предыдущей
+    @Query("select * from album where id > :afterId order by id limit :limit")
+    List<Album> getAlbumsAfter(long afterId, int limit);
+
+    @Query("select * from song where id > :afterId order by id limit :limit")
+    List<Song> getSongsAfter(long afterId, int limit);
+
+    @Query("select * from albumsong where id > :afterId order by id limit :limit")
+    List<AlbumSong> getAlbumSongsAfter(long afterId, int limit);
+
     @Delete
     void deleteAlbum(Album album);
 
@@ -72,9 +104,24 @@ public interface MusicDao {
     void deleteLinkAlbumSong(AlbumSong albumSong);
 
     //получить список песен переданного id альбома
-    @Query("select * from song inner join albumsong on song.id = albumsong.song_id where album_id = :albumId")
+    @Query(SONGS_FROM_ALBUM_QUERY)
     List<Song> getSongsFromAlbum(int albumId);
 
+    //выборки по диапазону идут через индексы на song.duration и album.release
+    @Query(SONGS_SHORTER_THAN_QUERY)
+    List<Song> getSongsShorterThan(long maxDurationMillis);
+
+    @Query(ALBUMS_RELEASED_BETWEEN_QUERY)
+    List<Album> getAlbumsReleasedBetween(Date from, Date to);
+
+    @Query("select * from album where id in (:albumIds)")
+    List<Album> getAlbumsByIds(int[] albumIds);
+
+    //песни сразу нескольких альбомов, число id ограничено лимитом переменных SQLite
+    @Query("select song.*, albumsong.album_id from song inner join albumsong on song.id = albumsong.song_id "
+            + "where albumsong.album_id in (:albumIds) order by albumsong.album_id, albumsong.id")
+    List<AlbumSongRow> getSongsFromAlbums(int[] albumIds);
+
     //обновить информацию об альбоме
     @Update
     int updateAlbumInfo(Album album);
@@ -95,4 +142,68 @@ public interface MusicDao {
     @Query("DELETE FROM albumsong where id = :id")
     int deleteAlbumSongById(int id);
 
+    //удаление пачкой, не больше 999 id за вызов; связи альбомов и песен удаляются триггерами
+    @Query("DELETE FROM album where id in (:albumIds)")
+    int deleteAlbumsByIds(int[] albumIds);
+
+    @Query("DELETE FROM song where id in (:songIds)")
+    int deleteSongsByIds(int[] songIds);
+
+    @Query("DELETE FROM albumsong where id in (:ids)")
+    int deleteAlbumSongsByIds(int[] ids);
+
+    //upsert для MusicSync: вставка только новой строки, -1 - строка с таким id уже есть
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertAlbumIfAbsent(Album album);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertSongIfAbsent(Song song);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    long insertAlbumSongIfAbsent(AlbumSong albumSong);
+
+    //обновляет строку, только если данные отличаются; 0 - строки нет или она не изменилась
+    @Query("UPDATE album SET name = :name, release = :release, updated_at = :updatedAt, version = :version "
+            + "WHERE id = :id AND (name IS NOT :name OR release IS NOT :release)")
+    int updateAlbumIfChanged(int id, String name, Date release, long updatedAt, long version);
+
+    @Query("UPDATE song SET name = :name, duration = :duration, updated_at = :updatedAt, version = :version "
+            + "WHERE id = :id AND (name IS NOT :name OR duration != :duration)")
+    int updateSongIfChanged(int id, String name, long duration, long updatedAt, long version);
+
+    @Query("UPDATE albumsong SET album_id = :albumId, song_id = :songId, updated_at = :updatedAt, version = :version "
+            + "WHERE id = :id AND (album_id != :albumId OR song_id != :songId)")
+    int updateAlbumSongIfChanged(int id, int albumId, int songId, long updatedAt, long version);
+
+    //изменения после токена синхронизации по возрастанию version, идут по индексу на version
+    @Query("select * from album where version > :version order by version limit :limit")
+    List<Album> getAlbumsChangedSince(long version, int limit);
+
+    @Query("select * from song where version > :version order by version limit :limit")
+    List<Song> getSongsChangedSince(long version, int limit);
+
+    @Query("select * from albumsong where version > :version order by version limit :limit")
+    List<AlbumSong> getAlbumSongsChangedSince(long version, int limit);
+
+    //прибавляет накопленные PlayCounter прослушивания; строки нет - песни нет, прослушивания теряются
+    @Query("UPDATE songstats SET plays = plays + :plays, last_played_at = max(last_played_at, :playedAt) "
+            + "WHERE song_id = :songId")
+    int addSongPlays(int songId, long plays, long playedAt);
+
+    @Query("select * from songstats where song_id = :songId")
+    SongStats getSongStats(int songId);
+
+    //top-N идут по индексам на plays и last_played_at с конца, без сортировки всей таблицы
+    @Query(MOST_PLAYED_SONGS_QUERY)
+    List<PlayedSong> getMostPlayedSongs(int limit);
+
+    @Query(MOST_PLAYED_SONGS_QUERY)
+    Cursor getMostPlayedSongsCursor(int limit);
+
+    @Query(RECENTLY_PLAYED_SONGS_QUERY)
+    List<PlayedSong> getRecentlyPlayedSongs(int limit);
+
+    @Query(RECENTLY_PLAYED_SONGS_QUERY)
+    Cursor getRecentlyPlayedSongsCursor(int limit);
+
 }
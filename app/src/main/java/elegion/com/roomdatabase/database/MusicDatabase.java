@@ -1,14 +1,313 @@
 package elegion.com.roomdatabase.database;
 
+import android.arch.persistence.db.framework.FrameworkSQLiteOpenHelperFactory;
 import android.arch.persistence.room.Database;
+import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.TypeConverters;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Azret Magometov
  */
 
-@Database(entities = {Album.class, Song.class, AlbumSong.class}, version = 1)
+@Database(entities = {Album.class, Song.class, AlbumSong.class, SongStats.class}, version = 8)
+@TypeConverters(MusicTypeConverters.class)
 public abstract class MusicDatabase extends RoomDatabase {
-    public abstract MusicDao getMusicDao();
 
+    private static final String TAG = MusicDatabase.class.getSimpleName();
+
+    public static final String DATABASE_NAME = "music_database";
+
+    public enum CheckpointMode {
+        //PASSIVE не ждёт читателей и писателя, FULL ждёт писателя, RESTART ещё и читателей старого WAL
+        PASSIVE, FULL, RESTART
+    }
+
+    private static volatile MusicDatabase sInstance;
+
+    private volatile RowCache mRowCache;
+    private volatile MusicDao mMusicDao;
+    private volatile PlayCounter mPlayCounter;
+    private final QueryStats mQueryStats = new QueryStats();
+    //id, сброшенные из RowCache записями DAO внутри транзакции этого потока
+    private final ThreadLocal<PendingRows> mPendingRows = new ThreadLocal<>();
+    private ScheduledExecutorService mCheckpointExecutor;
+    private ScheduledFuture<?> mPeriodicCheckpoint;
+
+    //DAO, сгенерированный Room; снаружи он доступен только через замеры getMusicDao()
+    abstract MusicDao getRoomMusicDao();
+
+    public MusicDao getMusicDao() {
+        MusicDao musicDao = mMusicDao;
+        if (musicDao == null) {
+            synchronized (this) {
+                musicDao = mMusicDao;
+                if (musicDao == null) {
+                    musicDao = new InstrumentedMusicDao(getRoomMusicDao(), this);
+                    mMusicDao = musicDao;
+                }
+            }
+        }
+        return musicDao;
+    }
+
+    public QueryStats getQueryStats() {
+        return mQueryStats;
+    }
+
+    public RowCache getRowCache() {
+        RowCache rowCache = mRowCache;
+        if (rowCache == null) {
+            synchronized (this) {
+                rowCache = mRowCache;
+                if (rowCache == null) {
+                    rowCache = new RowCache(getMusicDao());
+                    mRowCache = rowCache;
+                }
+            }
+        }
+        return rowCache;
+    }
+
+    /**
+     * Записи через {@link #getMusicDao()} сбрасывают затронутые id из {@link RowCache} сразу, а внутри
+     * транзакции - ещё раз после её конца: строку, которую другой поток успел загрузить до
+     * commit или rollback, кэш не оставит.
+     */
+    void invalidateAlbum(int id) {
+        getRowCache().invalidateAlbum(id);
+        PendingRows pending = getPendingRows();
+        if (pending != null) {
+            pending.mAlbums.add(id);
+        }
+    }
+
+    void invalidateSong(int id) {
+        getRowCache().invalidateSong(id);
+        PendingRows pending = getPendingRows();
+        if (pending != null) {
+            pending.mSongs.add(id);
+        }
+    }
+
+    void invalidateAlbumSong(int id) {
+        getRowCache().invalidateAlbumSong(id);
+        PendingRows pending = getPendingRows();
+        if (pending != null) {
+            pending.mAlbumSongs.add(id);
+        }
+    }
+
+    void invalidateAllAlbumSongs() {
+        getRowCache().invalidateAllAlbumSongs();
+        PendingRows pending = getPendingRows();
+        if (pending != null) {
+            pending.mAllAlbumSongs = true;
+        }
+    }
+
+    //null вне транзакции: запись DAO уже закоммичена, повторный сброс не нужен
+    private PendingRows getPendingRows() {
+        if (!inTransaction()) {
+            return null;
+        }
+        PendingRows pending = mPendingRows.get();
+        if (pending == null) {
+            pending = new PendingRows();
+            mPendingRows.set(pending);
+        }
+        return pending;
+    }
+
+    @Override
+    public void endTransaction() {
+        super.endTransaction();
+        PendingRows pending = mPendingRows.get();
+        if (pending != null && !inTransaction()) {
+            mPendingRows.remove();
+            pending.applyTo(getRowCache());
+        }
+    }
+
+    public PlayCounter getPlayCounter() {
+        PlayCounter playCounter = mPlayCounter;
+        if (playCounter == null) {
+            synchronized (this) {
+                playCounter = mPlayCounter;
+                if (playCounter == null) {
+                    playCounter = new PlayCounter(this);
+                    mPlayCounter = playCounter;
+                }
+            }
+        }
+        return playCounter;
+    }
+
+    /**
+     * Единственный экземпляр базы на процесс. Его используют и {@code AppDelegate},
+     * и {@code MusicProvider}, чтобы не держать два пула соединений и два InvalidationTracker
+     * на одном файле. Сама база открывается Room лениво, при первом запросе.
+     */
+    public static MusicDatabase getInstance(@NonNull Context context) {
+        MusicDatabase instance = sInstance;
+        if (instance == null) {
+            synchronized (MusicDatabase.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    MusicDatabaseConfig config = MusicDatabaseConfig.DEFAULT;
+                    instance = configure(Room.databaseBuilder(context.getApplicationContext(),
+                            MusicDatabase.class, DATABASE_NAME), config)
+                            .build();
+                    instance.startPeriodicCheckpoint(config.getCheckpointIntervalMillis());
+                    instance.getPlayCounter().startPeriodicFlush(PlayCounter.DEFAULT_FLUSH_INTERVAL_MILLIS);
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Миграции и колбеки схемы с настройками {@link MusicDatabaseConfig#DEFAULT}. Тестовые
+     * in-memory базы собираются через этот же метод, чтобы у них были те же FTS-таблицы и триггеры.
+     */
+    public static RoomDatabase.Builder<MusicDatabase> configure(@NonNull RoomDatabase.Builder<MusicDatabase> builder) {
+        return configure(builder, MusicDatabaseConfig.DEFAULT);
+    }
+
+    public static RoomDatabase.Builder<MusicDatabase> configure(@NonNull RoomDatabase.Builder<MusicDatabase> builder,
+                                                                @NonNull MusicDatabaseConfig config) {
+        return builder
+                .openHelperFactory(new ConfiguringOpenHelperFactory(new FrameworkSQLiteOpenHelperFactory(), config))
+                .addMigrations(MusicMigrations.ALL)
+                .addCallback(MusicMigrations.CREATE_CALLBACK);
+    }
+
+    /**
+     * Переносит страницы из WAL в основной файл. Без WAL ничего не делает.
+     *
+     * @return false, если checkpoint не дошёл до конца журнала из-за активных читателей или писателя
+     */
+    @WorkerThread
+    public boolean checkpoint(@NonNull CheckpointMode mode) {
+        Cursor cursor = getOpenHelper().getWritableDatabase().query("PRAGMA wal_checkpoint(" + mode.name() + ")");
+        try {
+            //busy, страниц в журнале, перенесено страниц
+            return !cursor.moveToFirst() || (cursor.getInt(0) == 0 && cursor.getInt(1) == cursor.getInt(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Запускает фоновый PASSIVE checkpoint раз в {@code intervalMillis}; 0 - остановить.
+     * Помогает, когда автоматический checkpoint на коммите отключён или не успевает
+     * из-за постоянных читателей и WAL разрастается.
+     */
+    public synchronized void startPeriodicCheckpoint(long intervalMillis) {
+        if (mPeriodicCheckpoint != null) {
+            mPeriodicCheckpoint.cancel(false);
+            mPeriodicCheckpoint = null;
+        }
+        if (intervalMillis <= 0) {
+            return;
+        }
+
+        if (mCheckpointExecutor == null) {
+            mCheckpointExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "music-checkpoint");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mPeriodicCheckpoint = mCheckpointExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                //исключение отменило бы все следующие запуски
+                try {
+                    if (isOpen()) {
+                        checkpoint(CheckpointMode.PASSIVE);
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "periodic checkpoint failed", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (mCheckpointExecutor != null) {
+                mCheckpointExecutor.shutdownNow();
+                mCheckpointExecutor = null;
+                mPeriodicCheckpoint = null;
+            }
+        }
+        //несброшенные прослушивания пишутся до закрытия, иначе они пропадут
+        PlayCounter playCounter = mPlayCounter;
+        if (playCounter != null) {
+            playCounter.stop();
+            if (isOpen()) {
+                try {
+                    playCounter.flush();
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "play counter flush on close failed", e);
+                }
+            }
+        }
+        super.close();
+    }
+
+    @VisibleForTesting
+    public static void setInstance(MusicDatabase instance) {
+        synchronized (MusicDatabase.class) {
+            if (sInstance != null && sInstance != instance) {
+                sInstance.close();
+            }
+            sInstance = instance;
+        }
+    }
+
+    //id строк RowCache, затронутых транзакцией
+    private static final class PendingRows {
+
+        private final Set<Integer> mAlbums = new HashSet<>();
+        private final Set<Integer> mSongs = new HashSet<>();
+        private final Set<Integer> mAlbumSongs = new HashSet<>();
+        private boolean mAllAlbumSongs;
+
+        void applyTo(RowCache rowCache) {
+            for (int id : mAlbums) {
+                rowCache.invalidateAlbum(id);
+            }
+            for (int id : mSongs) {
+                rowCache.invalidateSong(id);
+            }
+            if (mAllAlbumSongs) {
+                rowCache.invalidateAllAlbumSongs();
+            } else {
+                for (int id : mAlbumSongs) {
+                    rowCache.invalidateAlbumSong(id);
+                }
+            }
+        }
+    }
 }
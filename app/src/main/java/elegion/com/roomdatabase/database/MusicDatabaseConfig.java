@@ -0,0 +1,145 @@
+package elegion.com.roomdatabase.database;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Настройки соединения SQLite для {@link MusicDatabase}: журнал, размер страницы и кэша,
+ * уровень synchronous и политика checkpoint. Применяются в onConfigure при каждом открытии
+ * базы, до создания схемы и миграций.
+ * <p>
+ * WAL позволяет провайдеру читать параллельно с пакетной записью: читатели видят последний
+ * закоммиченный снимок и не ждут писателя. Размер пула читающих соединений в WAL выбирает
+ * фреймворк, публичного API для него нет.
+ */
+public final class MusicDatabaseConfig {
+
+    public enum Synchronous {
+        //в WAL при NORMAL после сбоя питания могут пропасть последние транзакции, но база цела
+        OFF, NORMAL, FULL
+    }
+
+    public static final int DEFAULT_AUTO_CHECKPOINT_PAGES = 1000;
+
+    public static final MusicDatabaseConfig DEFAULT = new Builder().build();
+
+    private final boolean mWriteAheadLogging;
+    private final int mPageSize;
+    private final int mCacheSizeKb;
+    private final Synchronous mSynchronous;
+    private final int mAutoCheckpointPages;
+    private final long mCheckpointIntervalMillis;
+
+    private MusicDatabaseConfig(Builder builder) {
+        mWriteAheadLogging = builder.mWriteAheadLogging;
+        mPageSize = builder.mPageSize;
+        mCacheSizeKb = builder.mCacheSizeKb;
+        mSynchronous = builder.mSynchronous;
+        mAutoCheckpointPages = builder.mAutoCheckpointPages;
+        mCheckpointIntervalMillis = builder.mCheckpointIntervalMillis;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return mWriteAheadLogging;
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    public int getCacheSizeKb() {
+        return mCacheSizeKb;
+    }
+
+    @NonNull
+    public Synchronous getSynchronous() {
+        return mSynchronous;
+    }
+
+    public int getAutoCheckpointPages() {
+        return mAutoCheckpointPages;
+    }
+
+    public long getCheckpointIntervalMillis() {
+        return mCheckpointIntervalMillis;
+    }
+
+    public Builder buildUpon() {
+        return new Builder()
+                .setWriteAheadLogging(mWriteAheadLogging)
+                .setPageSize(mPageSize)
+                .setCacheSizeKb(mCacheSizeKb)
+                .setSynchronous(mSynchronous)
+                .setAutoCheckpointPages(mAutoCheckpointPages)
+                .setCheckpointIntervalMillis(mCheckpointIntervalMillis);
+    }
+
+    public static final class Builder {
+
+        private boolean mWriteAheadLogging = true;
+        private int mPageSize;
+        private int mCacheSizeKb;
+        private Synchronous mSynchronous = Synchronous.NORMAL;
+        private int mAutoCheckpointPages = DEFAULT_AUTO_CHECKPOINT_PAGES;
+        private long mCheckpointIntervalMillis;
+
+        public Builder setWriteAheadLogging(boolean writeAheadLogging) {
+            mWriteAheadLogging = writeAheadLogging;
+            return this;
+        }
+
+        /**
+         * Размер страницы в байтах, степень двойки от 512 до 65536; 0 - значение SQLite.
+         * Действует только на новую базу: у существующей файла страница уже выбрана.
+         */
+        public Builder setPageSize(int pageSize) {
+            if (pageSize != 0 && (pageSize < 512 || pageSize > 65536 || Integer.bitCount(pageSize) != 1)) {
+                throw new IllegalArgumentException("pageSize must be a power of two between 512 and 65536");
+            }
+            mPageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Кэш страниц на одно соединение в килобайтах; 0 - значение SQLite.
+         */
+        public Builder setCacheSizeKb(int cacheSizeKb) {
+            if (cacheSizeKb < 0) {
+                throw new IllegalArgumentException("cacheSizeKb must not be negative");
+            }
+            mCacheSizeKb = cacheSizeKb;
+            return this;
+        }
+
+        public Builder setSynchronous(@NonNull Synchronous synchronous) {
+            mSynchronous = synchronous;
+            return this;
+        }
+
+        /**
+         * После скольких страниц в WAL SQLite сам делает checkpoint на коммите; 0 - не делает,
+         * тогда checkpoint только через {@link MusicDatabase#checkpoint} или по таймеру.
+         */
+        public Builder setAutoCheckpointPages(int autoCheckpointPages) {
+            if (autoCheckpointPages < 0) {
+                throw new IllegalArgumentException("autoCheckpointPages must not be negative");
+            }
+            mAutoCheckpointPages = autoCheckpointPages;
+            return this;
+        }
+
+        /**
+         * Период фонового PASSIVE checkpoint в миллисекундах; 0 - не запускать.
+         */
+        public Builder setCheckpointIntervalMillis(long checkpointIntervalMillis) {
+            if (checkpointIntervalMillis < 0) {
+                throw new IllegalArgumentException("checkpointIntervalMillis must not be negative");
+            }
+            mCheckpointIntervalMillis = checkpointIntervalMillis;
+            return this;
+        }
+
+        public MusicDatabaseConfig build() {
+            return new MusicDatabaseConfig(this);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.SupportSQLiteStatement;
+import android.arch.persistence.room.RoomDatabase;
+import android.arch.persistence.room.migration.Migration;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Миграции схемы {@link MusicDatabase}.
+ */
+final class MusicMigrations {
+
+    private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+    //индексы на albumsong для join по album_id и проверок внешних ключей при удалении песни
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_AlbumSong_album_id_song_id` ON `AlbumSong` (`album_id`, `song_id`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_AlbumSong_song_id_album_id` ON `AlbumSong` (`song_id`, `album_id`)");
+        }
+    };
+
+    //song.duration и album.release из строк в числа; SQLite не меняет тип колонки, поэтому таблицы пересоздаются
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `Song_new` (`id` INTEGER NOT NULL, `name` TEXT, "
+                    + "`duration` INTEGER NOT NULL, PRIMARY KEY(`id`))");
+            SupportSQLiteStatement insertSong = database.compileStatement(
+                    "INSERT INTO `Song_new` (`id`, `name`, `duration`) VALUES (?, ?, ?)");
+            Cursor songs = database.query("SELECT `id`, `name`, `duration` FROM `Song`");
+            try {
+                while (songs.moveToNext()) {
+                    insertSong.bindLong(1, songs.getInt(0));
+                    bindStringOrNull(insertSong, 2, songs.getString(1));
+                    insertSong.bindLong(3, parseNumber(songs.getString(2), 0));
+                    insertSong.executeInsert();
+                }
+            } finally {
+                songs.close();
+            }
+            database.execSQL("DROP TABLE `Song`");
+            database.execSQL("ALTER TABLE `Song_new` RENAME TO `Song`");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Song_duration` ON `Song` (`duration`)");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `Album_new` (`id` INTEGER NOT NULL, `name` TEXT, "
+                    + "`release` INTEGER, PRIMARY KEY(`id`))");
+            SupportSQLiteStatement insertAlbum = database.compileStatement(
+                    "INSERT INTO `Album_new` (`id`, `name`, `release`) VALUES (?, ?, ?)");
+            Cursor albums = database.query("SELECT `id`, `name`, `release` FROM `Album`");
+            try {
+                while (albums.moveToNext()) {
+                    insertAlbum.bindLong(1, albums.getInt(0));
+                    bindStringOrNull(insertAlbum, 2, albums.getString(1));
+                    long release = parseReleaseEpochDay(albums.getString(2));
+                    if (release == Long.MIN_VALUE) {
+                        insertAlbum.bindNull(3);
+                    } else {
+                        insertAlbum.bindLong(3, release);
+                    }
+                    insertAlbum.executeInsert();
+                }
+            } finally {
+                albums.close();
+            }
+            database.execSQL("DROP TABLE `Album`");
+            database.execSQL("ALTER TABLE `Album_new` RENAME TO `Album`");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Album_release` ON `Album` (`release`)");
+        }
+    };
+
+    //полнотекстовый поиск по названиям: FTS4-таблицы и триггеры синхронизации
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            MusicSearch.createSearchTables(database);
+        }
+    };
+
+    //каскадное удаление связей вместе с альбомом или песней; осиротевшие связи из старых версий удаляются
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("DELETE FROM `AlbumSong` WHERE `album_id` NOT IN (SELECT `id` FROM `Album`) "
+                    + "OR `song_id` NOT IN (SELECT `id` FROM `Song`)");
+            createCascadeTriggers(database);
+        }
+    };
+
+    //updated_at / version у всех таблиц, последовательность версий и журнал удалений для дельта-синхронизации
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            //FTS переиндексируется только при изменении name, иначе проставление версий ниже переписало бы весь индекс
+            database.execSQL("DROP TRIGGER IF EXISTS `" + MusicSearch.SONG_FTS + "_au`");
+            database.execSQL("DROP TRIGGER IF EXISTS `" + MusicSearch.ALBUM_FTS + "_au`");
+            MusicSearch.createUpdateTrigger(database, "Song", MusicSearch.SONG_FTS);
+            MusicSearch.createUpdateTrigger(database, "Album", MusicSearch.ALBUM_FTS);
+
+            //существующие строки получают разные версии без построчного обхода: version = id - min(id) + смещение;
+            //updated_at остаётся 0 - время изменения неизвестно
+            long lastVersion = 0;
+            for (String table : new String[]{"Album", "Song", "AlbumSong"}) {
+                database.execSQL("ALTER TABLE `" + table + "` ADD COLUMN `updated_at` INTEGER NOT NULL DEFAULT 0");
+                database.execSQL("ALTER TABLE `" + table + "` ADD COLUMN `version` INTEGER NOT NULL DEFAULT 0");
+                database.execSQL("CREATE INDEX IF NOT EXISTS `index_" + table + "_version` ON `" + table + "` (`version`)");
+
+                Cursor range = database.query("SELECT min(`id`), max(`id`) FROM `" + table + "`");
+                try {
+                    if (range.moveToFirst() && !range.isNull(0)) {
+                        long minId = range.getLong(0);
+                        database.execSQL("UPDATE `" + table + "` SET `version` = `id` - ? + ?",
+                                new Object[]{minId, lastVersion + 1});
+                        lastVersion += range.getLong(1) - minId + 1;
+                    }
+                } finally {
+                    range.close();
+                }
+            }
+
+            MusicSync.createSyncTables(database);
+            database.execSQL("UPDATE `sync_sequence` SET `value` = ?, `reserved_after` = ?",
+                    new Object[]{lastVersion, lastVersion});
+        }
+    };
+
+    //статистика прослушиваний: строка на каждую существующую песню, дальше строки ведут триггеры
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `SongStats` (`song_id` INTEGER NOT NULL, "
+                    + "`plays` INTEGER NOT NULL, `last_played_at` INTEGER NOT NULL, PRIMARY KEY(`song_id`), "
+                    + "FOREIGN KEY(`song_id`) REFERENCES `Song`(`id`) ON UPDATE NO ACTION ON DELETE NO ACTION )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_SongStats_plays` ON `SongStats` (`plays`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_SongStats_last_played_at` ON `SongStats` (`last_played_at`)");
+            database.execSQL("INSERT OR IGNORE INTO `SongStats` (`song_id`, `plays`, `last_played_at`) "
+                    + "SELECT `id`, 0, 0 FROM `Song`");
+            createStatsTriggers(database);
+        }
+    };
+
+    //триггер вставки проставлял версию только при version = 0, и REPLACE загруженной сущности
+    //оставался без версии; теперь он сверяется с диапазоном, выданным MusicSync
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            MusicSync.upgradeSyncTables(database);
+        }
+    };
+
+    static final Migration[] ALL = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6,
+            MIGRATION_6_7, MIGRATION_7_8};
+
+    //объекты, о которых Room не знает (FTS-таблицы, триггеры), на новой базе создаются здесь,
+    //потому что миграции для неё не выполняются
+    static final RoomDatabase.Callback CREATE_CALLBACK = new RoomDatabase.Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase database) {
+            MusicSearch.createSearchTables(database);
+            createCascadeTriggers(database);
+            MusicSync.createSyncTables(database);
+            createStatsTriggers(database);
+        }
+    };
+
+    private MusicMigrations() {
+    }
+
+    /**
+     * Удаление альбома или песни удаляет их связи в albumsong тем же statement.
+     * Триггеры, а не {@code ON DELETE CASCADE} во внешнем ключе: все вставки в DAO идут через REPLACE,
+     * а REPLACE с каскадным ключом удалил бы связи у каждой перезаписанной строки. Триггеры
+     * на удаление через REPLACE не срабатывают, пока выключен {@code recursive_triggers}.
+     */
+    static void createCascadeTriggers(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `AlbumSong_album_cascade` AFTER DELETE ON `Album` BEGIN "
+                + "DELETE FROM `AlbumSong` WHERE `album_id` = old.`id`; END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `AlbumSong_song_cascade` AFTER DELETE ON `Song` BEGIN "
+                + "DELETE FROM `AlbumSong` WHERE `song_id` = old.`id`; END");
+    }
+
+    /**
+     * Строка songstats появляется вместе с песней и удаляется вместе с ней. INSERT OR IGNORE:
+     * перезапись песни через REPLACE снова вызывает триггер на вставку, и счётчики сохраняются.
+     */
+    static void createStatsTriggers(@NonNull SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `SongStats_song_ai` AFTER INSERT ON `Song` BEGIN "
+                + "INSERT OR IGNORE INTO `SongStats` (`song_id`, `plays`, `last_played_at`) VALUES (new.`id`, 0, 0); END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `SongStats_song_cascade` AFTER DELETE ON `Song` BEGIN "
+                + "DELETE FROM `SongStats` WHERE `song_id` = old.`id`; END");
+    }
+
+    /**
+     * Последнее число в строке вида "duration 1520934000000" или {@code fallback}, если чисел нет.
+     */
+    @VisibleForTesting
+    static long parseNumber(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+
+        int end = value.length();
+        while (end > 0 && !Character.isDigit(value.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && Character.isDigit(value.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end) {
+            return fallback;
+        }
+
+        try {
+            return Long.parseLong(value.substring(start, end));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Старые даты релиза записывались как "release " + System.currentTimeMillis(): большие числа
+     * считаем миллисекундами, маленькие - уже номером дня. {@code Long.MIN_VALUE} - даты нет.
+     */
+    @VisibleForTesting
+    static long parseReleaseEpochDay(String value) {
+        long number = parseNumber(value, Long.MIN_VALUE);
+        if (number == Long.MIN_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return number > MILLIS_PER_DAY ? number / MILLIS_PER_DAY : number;
+    }
+
+    private static void bindStringOrNull(SupportSQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
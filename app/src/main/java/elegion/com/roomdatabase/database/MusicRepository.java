@@ -0,0 +1,384 @@
+package elegion.com.roomdatabase.database;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Асинхронная обёртка над {@link MusicDao}: чтения идут в ограниченный пул, записи в один
+ * поток, а результат возвращается колбеком на главном потоке.
+ */
+public class MusicRepository {
+
+    private static final String TAG = MusicRepository.class.getSimpleName();
+    private static final int READ_THREADS = 2;
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Колбек, которому нужны и ошибки. Для остальных колбеков ошибка только пишется в лог,
+     * а onResult не вызывается; поток пула при этом продолжает работать.
+     */
+    public interface ErrorCallback<T> extends Callback<T> {
+        void onError(Exception error);
+    }
+
+    private final MusicDatabase mDatabase;
+    private final MusicDao mMusicDao;
+    private final Executor mReadExecutor;
+    private final Executor mWriteExecutor;
+    private final Executor mMainExecutor;
+    private final CatalogIndex mCatalogIndex;
+
+    public MusicRepository(@NonNull MusicDatabase database) {
+        this(database, null);
+    }
+
+    /**
+     * @param catalogSnapshotFile файл снимка {@link CatalogIndex} для быстрого старта или null
+     */
+    public MusicRepository(@NonNull MusicDatabase database, @Nullable File catalogSnapshotFile) {
+        this(database, database.getMusicDao(),
+                Executors.newFixedThreadPool(READ_THREADS, new NamedThreadFactory("music-read")),
+                Executors.newSingleThreadExecutor(new NamedThreadFactory("music-write")),
+                new MainThreadExecutor(), catalogSnapshotFile);
+    }
+
+    @VisibleForTesting
+    public MusicRepository(@NonNull MusicDatabase database, @NonNull MusicDao musicDao,
+                           @NonNull Executor readExecutor, @NonNull Executor writeExecutor,
+                           @NonNull Executor mainExecutor) {
+        this(database, musicDao, readExecutor, writeExecutor, mainExecutor, null);
+    }
+
+    private MusicRepository(@NonNull MusicDatabase database, @NonNull MusicDao musicDao,
+                            @NonNull Executor readExecutor, @NonNull Executor writeExecutor,
+                            @NonNull Executor mainExecutor, @Nullable File catalogSnapshotFile) {
+        mDatabase = database;
+        mMusicDao = musicDao;
+        mReadExecutor = readExecutor;
+        mWriteExecutor = writeExecutor;
+        mMainExecutor = mainExecutor;
+        mCatalogIndex = new CatalogIndex(database, readExecutor, catalogSnapshotFile);
+    }
+
+    //списки каталога из памяти; пока первая сборка не закончилась, getSnapshot() возвращает null
+    public CatalogIndex getCatalogIndex() {
+        return mCatalogIndex;
+    }
+
+    public void getAlbums(@NonNull Callback<List<Album>> callback) {
+        mReadExecutor.execute(new Task<List<Album>>(callback) {
+            @Override
+            List<Album> call() {
+                return mMusicDao.getAlbums();
+            }
+        });
+    }
+
+    public void getSongs(@NonNull Callback<List<Song>> callback) {
+        mReadExecutor.execute(new Task<List<Song>>(callback) {
+            @Override
+            List<Song> call() {
+                return mMusicDao.getSongs();
+            }
+        });
+    }
+
+    public void getAlbumSongs(@NonNull Callback<List<AlbumSong>> callback) {
+        mReadExecutor.execute(new Task<List<AlbumSong>>(callback) {
+            @Override
+            List<AlbumSong> call() {
+                return mMusicDao.getAlbumSongs();
+            }
+        });
+    }
+
+    public void getSongsFromAlbum(final int albumId, @NonNull Callback<List<Song>> callback) {
+        mReadExecutor.execute(new Task<List<Song>>(callback) {
+            @Override
+            List<Song> call() {
+                return mMusicDao.getSongsFromAlbum(albumId);
+            }
+        });
+    }
+
+    public void getAlbumsWithSongs(@NonNull Callback<List<AlbumWithSongs>> callback) {
+        mReadExecutor.execute(new Task<List<AlbumWithSongs>>(callback) {
+            @Override
+            List<AlbumWithSongs> call() {
+                return new AlbumWithSongsLoader(mDatabase).loadAll();
+            }
+        });
+    }
+
+    public void searchSongs(@NonNull final String query, final int limit, @NonNull Callback<List<Song>> callback) {
+        mReadExecutor.execute(new Task<List<Song>>(callback) {
+            @Override
+            List<Song> call() {
+                return new MusicSearch(mDatabase).searchSongs(query, limit);
+            }
+        });
+    }
+
+    public void searchAlbums(@NonNull final String query, final int limit, @NonNull Callback<List<Album>> callback) {
+        mReadExecutor.execute(new Task<List<Album>>(callback) {
+            @Override
+            List<Album> call() {
+                return new MusicSearch(mDatabase).searchAlbums(query, limit);
+            }
+        });
+    }
+
+    //только счётчик в памяти, в songstats прослушивание попадёт с очередным сбросом PlayCounter
+    public void recordPlay(int songId) {
+        mDatabase.getPlayCounter().recordPlay(songId);
+    }
+
+    public void getMostPlayedSongs(final int limit, @NonNull Callback<List<PlayedSong>> callback) {
+        mReadExecutor.execute(new Task<List<PlayedSong>>(callback) {
+            @Override
+            List<PlayedSong> call() {
+                mDatabase.getPlayCounter().flush();
+                return mMusicDao.getMostPlayedSongs(limit);
+            }
+        });
+    }
+
+    public void getRecentlyPlayedSongs(final int limit, @NonNull Callback<List<PlayedSong>> callback) {
+        mReadExecutor.execute(new Task<List<PlayedSong>>(callback) {
+            @Override
+            List<PlayedSong> call() {
+                mDatabase.getPlayCounter().flush();
+                return mMusicDao.getRecentlyPlayedSongs(limit);
+            }
+        });
+    }
+
+    public ObservableQuery.Subscription observeAlbums(@NonNull ObservableQuery.Observer<List<Album>> observer) {
+        return new ObservableQuery<>(mDatabase, mReadExecutor, ObservableQuery.DEFAULT_DEBOUNCE_MILLIS,
+                new Callable<List<Album>>() {
+                    @Override
+                    public List<Album> call() throws Exception {
+                        return mMusicDao.getAlbums();
+                    }
+                }, "album").observe(observer);
+    }
+
+    public ObservableQuery.Subscription observeSongs(@NonNull ObservableQuery.Observer<List<Song>> observer) {
+        return new ObservableQuery<>(mDatabase, mReadExecutor, ObservableQuery.DEFAULT_DEBOUNCE_MILLIS,
+                new Callable<List<Song>>() {
+                    @Override
+                    public List<Song> call() throws Exception {
+                        return mMusicDao.getSongs();
+                    }
+                }, "song").observe(observer);
+    }
+
+    public ObservableQuery.Subscription observeAlbumSongs(@NonNull ObservableQuery.Observer<List<AlbumSong>> observer) {
+        return new ObservableQuery<>(mDatabase, mReadExecutor, ObservableQuery.DEFAULT_DEBOUNCE_MILLIS,
+                new Callable<List<AlbumSong>>() {
+                    @Override
+                    public List<AlbumSong> call() throws Exception {
+                        return mMusicDao.getAlbumSongs();
+                    }
+                }, "albumsong").observe(observer);
+    }
+
+    public ObservableQuery.Subscription observeSongsFromAlbum(final int albumId,
+                                                              @NonNull ObservableQuery.Observer<List<Song>> observer) {
+        return new ObservableQuery<>(mDatabase, mReadExecutor, ObservableQuery.DEFAULT_DEBOUNCE_MILLIS,
+                new Callable<List<Song>>() {
+                    @Override
+                    public List<Song> call() throws Exception {
+                        return mMusicDao.getSongsFromAlbum(albumId);
+                    }
+                }, "song", "albumsong").observe(observer);
+    }
+
+    //строки по запросу подписчика, без сборки всей таблицы в список; сигналы приходят на потоке чтения
+    public CursorPublisher<Album> streamAlbums() {
+        return MusicStreams.albums(mMusicDao, mReadExecutor);
+    }
+
+    public CursorPublisher<Song> streamSongs() {
+        return MusicStreams.songs(mMusicDao, mReadExecutor);
+    }
+
+    public CursorPublisher<AlbumSong> streamAlbumSongs() {
+        return MusicStreams.albumSongs(mMusicDao, mReadExecutor);
+    }
+
+    //альбомы, песни и связи пишутся одной транзакцией; неизменённые строки не перезаписываются
+    public void insertCatalog(@NonNull final List<Album> albums, @NonNull final List<Song> songs,
+                              @NonNull final List<AlbumSong> albumSongs, @Nullable Callback<Void> callback) {
+        mWriteExecutor.execute(new Task<Void>(callback) {
+            @Override
+            Void call() {
+                new MusicSync(mDatabase).upsertCatalog(albums, songs, albumSongs);
+                return null;
+            }
+        });
+    }
+
+    //изменения после токена; следующий токен - Changes.getToken()
+    public void getChanges(final long since, final int limit, @NonNull Callback<MusicSync.Changes> callback) {
+        mReadExecutor.execute(new Task<MusicSync.Changes>(callback) {
+            @Override
+            MusicSync.Changes call() {
+                return new MusicSync(mDatabase).getChanges(since, limit);
+            }
+        });
+    }
+
+    //альбомы удаляются вместе со связями одной транзакцией, в результате - число удалённых альбомов
+    public void deleteAlbums(@NonNull final int[] albumIds, @Nullable Callback<Integer> callback) {
+        mWriteExecutor.execute(new Task<Integer>(callback) {
+            @Override
+            Integer call() {
+                return new BatchDeleter(mDatabase).deleteAlbums(albumIds);
+            }
+        });
+    }
+
+    public void deleteSongs(@NonNull final int[] songIds, @Nullable Callback<Integer> callback) {
+        mWriteExecutor.execute(new Task<Integer>(callback) {
+            @Override
+            Integer call() {
+                return new BatchDeleter(mDatabase).deleteSongs(songIds);
+            }
+        });
+    }
+
+    //снимок каталога в NDJSON; при ошибке ввода-вывода результат null
+    public void exportCatalog(@NonNull final File file, final boolean gzip, @Nullable Callback<Long> callback) {
+        mReadExecutor.execute(new Task<Long>(callback) {
+            @Override
+            Long call() {
+                try {
+                    return new CatalogExporter(mDatabase).exportFile(file, gzip);
+                } catch (IOException e) {
+                    Log.e(TAG, "catalog export failed: " + file, e);
+                    return null;
+                }
+            }
+        });
+    }
+
+    //прогресс и результат приходят на главный поток; при ошибке ввода-вывода результат null,
+    //а checkpoint остаётся, и повторный вызов продолжит импорт
+    public void importCatalog(@NonNull final File file, @Nullable final CatalogImporter.ProgressListener listener,
+                              @Nullable Callback<Long> callback) {
+        mWriteExecutor.execute(new Task<Long>(callback) {
+            @Override
+            Long call() {
+                try {
+                    return new CatalogImporter(mDatabase).importFile(file, new CatalogImporter.ProgressListener() {
+                        @Override
+                        public void onChunkCommitted(final long records, final long bytesRead) {
+                            if (listener == null) {
+                                return;
+                            }
+                            mMainExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    listener.onChunkCommitted(records, bytesRead);
+                                }
+                            });
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.e(TAG, "catalog import failed: " + file, e);
+                    return null;
+                }
+            }
+        });
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        mMainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    private void deliverError(@Nullable final Callback<?> callback, final Exception error) {
+        if (!(callback instanceof ErrorCallback)) {
+            Log.e(TAG, "music repository task failed", error);
+            return;
+        }
+        mMainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ((ErrorCallback<?>) callback).onError(error);
+            }
+        });
+    }
+
+    //работа на потоке пула: исключение не убивает поток, а доходит до колбека или до лога
+    private abstract class Task<T> implements Runnable {
+
+        private final Callback<T> mCallback;
+
+        Task(@Nullable Callback<T> callback) {
+            mCallback = callback;
+        }
+
+        abstract T call() throws Exception;
+
+        @Override
+        public final void run() {
+            T result;
+            try {
+                result = call();
+            } catch (Exception e) {
+                deliverError(mCallback, e);
+                return;
+            }
+            if (mCallback != null) {
+                deliver(mCallback, result);
+            }
+        }
+    }
+
+    private static class MainThreadExecutor implements Executor {
+
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mHandler.post(command);
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String mPrefix;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            mPrefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            return new Thread(runnable, mPrefix + "-" + mCount.incrementAndGet());
+        }
+    }
+}
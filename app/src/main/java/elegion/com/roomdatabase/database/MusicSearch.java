@@ -0,0 +1,150 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Полнотекстовый поиск по названиям песен и альбомов через FTS4-таблицы song_fts и album_fts.
+ * Каждое слово запроса ищется как префикс, все слова должны совпасть. Выше в выдаче
+ * названия, которые начинаются с запроса, затем более короткие.
+ * <p>
+ * Room 1.0 не знает о виртуальных таблицах и не пропустит их в {@code @Query}, поэтому
+ * запросы собираются здесь, а не в {@link MusicDao}.
+ */
+public class MusicSearch {
+
+    static final String SONG_FTS = "song_fts";
+    static final String ALBUM_FTS = "album_fts";
+
+    private static final String[] SONG_COLUMNS = {"id", "name", "duration"};
+    private static final String[] ALBUM_COLUMNS = {"id", "name", "release"};
+
+    private final MusicDatabase mDatabase;
+
+    public MusicSearch(@NonNull MusicDatabase database) {
+        mDatabase = database;
+    }
+
+    @WorkerThread
+    public Cursor searchSongsCursor(@NonNull String query, int limit) {
+        return search("Song", SONG_FTS, SONG_COLUMNS, query, limit);
+    }
+
+    @WorkerThread
+    public Cursor searchAlbumsCursor(@NonNull String query, int limit) {
+        return search("Album", ALBUM_FTS, ALBUM_COLUMNS, query, limit);
+    }
+
+    @WorkerThread
+    public List<Song> searchSongs(@NonNull String query, int limit) {
+        Cursor cursor = searchSongsCursor(query, limit);
+        try {
+            List<Song> songs = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                songs.add(new Song(cursor.getInt(0), cursor.getString(1), cursor.getLong(2)));
+            }
+            return songs;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @WorkerThread
+    public List<Album> searchAlbums(@NonNull String query, int limit) {
+        Cursor cursor = searchAlbumsCursor(query, limit);
+        try {
+            List<Album> albums = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                albums.add(new Album(cursor.getInt(0), cursor.getString(1),
+                        cursor.isNull(2) ? null : MusicTypeConverters.fromEpochDay(cursor.getLong(2))));
+            }
+            return albums;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor search(String table, String ftsTable, String[] columns, String query, int limit) {
+        String match = toMatchExpression(query);
+        if (match.isEmpty()) {
+            return new MatrixCursor(columns, 0);
+        }
+
+        StringBuilder select = new StringBuilder();
+        for (String column : columns) {
+            if (select.length() > 0) {
+                select.append(", ");
+            }
+            select.append(table).append(".`").append(column).append('`');
+        }
+
+        String sql = "SELECT " + select
+                + " FROM " + ftsTable + " JOIN " + table + " ON " + table + ".id = " + ftsTable + ".docid"
+                + " WHERE " + ftsTable + " MATCH ?"
+                + " ORDER BY (" + table + ".name LIKE ?) DESC, length(" + table + ".name), " + table + ".id"
+                + " LIMIT ?";
+
+        return mDatabase.query(new SimpleSQLiteQuery(sql, new Object[]{match, query.trim() + "%", limit}));
+    }
+
+    /**
+     * Превращает пользовательский ввод в выражение MATCH: только буквы и цифры, каждое слово - префикс.
+     * Операторы FTS (OR, NEAR, кавычки, минус) из ввода не проходят.
+     */
+    static String toMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        StringBuilder token = new StringBuilder();
+
+        for (int i = 0, length = query.length(); i <= length; i++) {
+            char c = i < length ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(token).append('*');
+                token.setLength(0);
+            }
+        }
+
+        return match.toString();
+    }
+
+    /**
+     * Создаёт FTS-таблицы и триггеры синхронизации. Вызывается и из миграции, и при создании новой базы.
+     */
+    static void createSearchTables(@NonNull SupportSQLiteDatabase database) {
+        createSearchTable(database, "Song", SONG_FTS);
+        createSearchTable(database, "Album", ALBUM_FTS);
+    }
+
+    static void createSearchTable(SupportSQLiteDatabase database, String table, String ftsTable) {
+        database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `" + ftsTable + "` USING fts4(`name`)");
+
+        //все вставки в DAO идут с REPLACE, а удаление при REPLACE не вызывает триггеры,
+        //поэтому в индекс тоже пишем через INSERT OR REPLACE по docid
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `" + ftsTable + "_ai` AFTER INSERT ON `" + table + "` BEGIN "
+                + "INSERT OR REPLACE INTO `" + ftsTable + "` (docid, `name`) VALUES (new.`id`, new.`name`); END");
+        createUpdateTrigger(database, table, ftsTable);
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `" + ftsTable + "_ad` AFTER DELETE ON `" + table + "` BEGIN "
+                + "DELETE FROM `" + ftsTable + "` WHERE docid = old.`id`; END");
+
+        database.execSQL("INSERT OR REPLACE INTO `" + ftsTable + "` (docid, `name`) SELECT `id`, `name` FROM `" + table + "`");
+    }
+
+    //только на изменение name: служебные колонки синхронизации обновляются отдельным UPDATE,
+    //и переписывать индекс из-за них незачем
+    static void createUpdateTrigger(SupportSQLiteDatabase database, String table, String ftsTable) {
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `" + ftsTable + "_au` AFTER UPDATE OF `name` ON `" + table + "` BEGIN "
+                + "DELETE FROM `" + ftsTable + "` WHERE docid = old.`id`; "
+                + "INSERT OR REPLACE INTO `" + ftsTable + "` (docid, `name`) VALUES (new.`id`, new.`name`); END");
+    }
+}
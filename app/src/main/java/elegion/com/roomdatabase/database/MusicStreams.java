@@ -0,0 +1,91 @@
+package elegion.com.roomdatabase.database;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Потоки таблиц каталога через {@link CursorPublisher}: строки читаются из курсоров DAO по мере
+ * запроса подписчика и собираются в сущности вручную, без адаптеров Room на каждую строку.
+ */
+public final class MusicStreams {
+
+    public static final CursorPublisher.RowMapper<Album> ALBUM = new CursorPublisher.RowMapper<Album>() {
+        @Override
+        public String[] getColumns() {
+            return new String[]{"id", "name", "release", "updated_at", "version"};
+        }
+
+        @Override
+        public Album map(Cursor cursor, int[] columns) {
+            Album album = new Album(cursor.getInt(columns[0]), cursor.getString(columns[1]),
+                    cursor.isNull(columns[2]) ? null : MusicTypeConverters.fromEpochDay(cursor.getLong(columns[2])));
+            album.setUpdatedAt(cursor.getLong(columns[3]));
+            album.setVersion(cursor.getLong(columns[4]));
+            return album;
+        }
+    };
+
+    public static final CursorPublisher.RowMapper<Song> SONG = new CursorPublisher.RowMapper<Song>() {
+        @Override
+        public String[] getColumns() {
+            return new String[]{"id", "name", "duration", "updated_at", "version"};
+        }
+
+        @Override
+        public Song map(Cursor cursor, int[] columns) {
+            Song song = new Song(cursor.getInt(columns[0]), cursor.getString(columns[1]), cursor.getLong(columns[2]));
+            song.setUpdatedAt(cursor.getLong(columns[3]));
+            song.setVersion(cursor.getLong(columns[4]));
+            return song;
+        }
+    };
+
+    public static final CursorPublisher.RowMapper<AlbumSong> ALBUM_SONG = new CursorPublisher.RowMapper<AlbumSong>() {
+        @Override
+        public String[] getColumns() {
+            return new String[]{"id", "album_id", "song_id", "updated_at", "version"};
+        }
+
+        @Override
+        public AlbumSong map(Cursor cursor, int[] columns) {
+            AlbumSong albumSong = new AlbumSong(cursor.getInt(columns[0]), cursor.getInt(columns[1]),
+                    cursor.getInt(columns[2]));
+            albumSong.setUpdatedAt(cursor.getLong(columns[3]));
+            albumSong.setVersion(cursor.getLong(columns[4]));
+            return albumSong;
+        }
+    };
+
+    private MusicStreams() {
+    }
+
+    public static CursorPublisher<Album> albums(@NonNull final MusicDao musicDao, @NonNull Executor executor) {
+        return new CursorPublisher<>(new Callable<Cursor>() {
+            @Override
+            public Cursor call() throws Exception {
+                return musicDao.getAlbumsCursor();
+            }
+        }, ALBUM, executor);
+    }
+
+    public static CursorPublisher<Song> songs(@NonNull final MusicDao musicDao, @NonNull Executor executor) {
+        return new CursorPublisher<>(new Callable<Cursor>() {
+            @Override
+            public Cursor call() throws Exception {
+                return musicDao.getSongsCursor();
+            }
+        }, SONG, executor);
+    }
+
+    public static CursorPublisher<AlbumSong> albumSongs(@NonNull final MusicDao musicDao, @NonNull Executor executor) {
+        return new CursorPublisher<>(new Callable<Cursor>() {
+            @Override
+            public Cursor call() throws Exception {
+                return musicDao.getAlbumSongsCursor();
+            }
+        }, ALBUM_SONG, executor);
+    }
+}
@@ -0,0 +1,392 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Дельта-синхронизация каталога. Каждая записанная строка album / song / albumsong получает
+ * version из общей возрастающей последовательности, удалённая строка остаётся в sync_deleted
+ * со своей version. Токен клиента - последняя увиденная version: по нему отдаются только
+ * изменения после него.
+ * <p>
+ * Версии проставляют триггеры на любую запись, для которой version не выдана заранее: при
+ * вставке - вне диапазона, открытого {@link #reserveVersions}, при обновлении - не выросла.
+ * Поэтому и REPLACE загруженной сущности со старой version попадает в дельту.
+ * {@link #upsertCatalog} выдаёт версии сам и не трогает строки, которые не изменились:
+ * ни удаления со вставкой, ни перестройки индексов и FTS.
+ */
+public class MusicSync {
+
+    public static final String TABLE_ALBUM = "album";
+    public static final String TABLE_SONG = "song";
+    public static final String TABLE_ALBUMSONG = "albumsong";
+
+    //миллисекунды от эпохи средствами SQLite
+    private static final String NOW_MILLIS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    private static final String SELECT_DELETED = "SELECT `table_name`, `id`, `version` FROM `sync_deleted` "
+            + "WHERE `version` > ? ORDER BY `version` LIMIT ?";
+
+    private static final String ALBUM_CHANGES = changesQuery("Album", TABLE_ALBUM, "`name`, `release`");
+    private static final String SONG_CHANGES = changesQuery("Song", TABLE_SONG, "`name`, `duration`");
+    private static final String ALBUMSONG_CHANGES = changesQuery("AlbumSong", TABLE_ALBUMSONG, "`album_id`, `song_id`");
+
+    private final MusicDatabase mDatabase;
+    private final MusicDao mMusicDao;
+
+    public MusicSync(@NonNull MusicDatabase database) {
+        mDatabase = database;
+        mMusicDao = database.getMusicDao();
+    }
+
+    /**
+     * Текущий токен - version последнего изменения. Клиент без данных начинает с 0.
+     */
+    @WorkerThread
+    public long getVersion() {
+        Cursor cursor = mDatabase.query("SELECT `value` FROM `sync_sequence`", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Пишет альбомы, песни и связи одной транзакцией. Строки, которые не изменились, не
+     * перезаписываются; новые и изменённые получают свежие version и updated_at. Поля version
+     * и updated_at переданных объектов перезаписываются и значимы только у изменённых.
+     *
+     * @return число вставленных и изменённых строк
+     */
+    @WorkerThread
+    public int upsertCatalog(@NonNull List<Album> albums, @NonNull List<Song> songs,
+                             @NonNull List<AlbumSong> albumSongs) {
+        int changed = 0;
+
+        mDatabase.beginTransaction();
+        try {
+            //номера выдаются на все строки сразу, у пропущенных остаются дыры - токену важен только порядок
+            long version = reserveVersions(albums.size() + songs.size() + albumSongs.size());
+            long now = System.currentTimeMillis();
+
+            for (int i = 0, size = albums.size(); i < size; i++) {
+                Album album = albums.get(i);
+                album.setVersion(version);
+                album.setUpdatedAt(now);
+                if (mMusicDao.insertAlbumIfAbsent(album) != -1 || mMusicDao.updateAlbumIfChanged(album.getId(),
+                        album.getName(), album.getReleaseDate(), now, version) > 0) {
+                    changed++;
+                    version++;
+                }
+            }
+
+            for (int i = 0, size = songs.size(); i < size; i++) {
+                Song song = songs.get(i);
+                song.setVersion(version);
+                song.setUpdatedAt(now);
+                if (mMusicDao.insertSongIfAbsent(song) != -1 || mMusicDao.updateSongIfChanged(song.getId(),
+                        song.getName(), song.getDuration(), now, version) > 0) {
+                    changed++;
+                    version++;
+                }
+            }
+
+            for (int i = 0, size = albumSongs.size(); i < size; i++) {
+                AlbumSong albumSong = albumSongs.get(i);
+                albumSong.setVersion(version);
+                albumSong.setUpdatedAt(now);
+                if (mMusicDao.insertAlbumSongIfAbsent(albumSong) != -1 || mMusicDao.updateAlbumSongIfChanged(
+                        albumSong.getId(), albumSong.getAlbumId(), albumSong.getSongId(), now, version) > 0) {
+                    changed++;
+                    version++;
+                }
+            }
+
+            releaseReservedVersions();
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        return changed;
+    }
+
+    /**
+     * Изменения после токена {@code since}, не больше {@code limit} строк каждого вида.
+     * Если хотя бы один вид упёрся в limit, выдача обрезается по меньшей из последних version,
+     * чтобы по новому токену ничего не потерялось; тогда {@link Changes#hasMore()} - true.
+     */
+    @WorkerThread
+    public Changes getChanges(long since, int limit) {
+        mDatabase.beginTransaction();
+        try {
+            List<Album> albums = mMusicDao.getAlbumsChangedSince(since, limit);
+            List<Song> songs = mMusicDao.getSongsChangedSince(since, limit);
+            List<AlbumSong> albumSongs = mMusicDao.getAlbumSongsChangedSince(since, limit);
+            List<DeletedRow> deleted = getDeletedSince(since, limit);
+
+            long token = Long.MAX_VALUE;
+            if (albums.size() == limit) {
+                token = Math.min(token, albums.get(limit - 1).getVersion());
+            }
+            if (songs.size() == limit) {
+                token = Math.min(token, songs.get(limit - 1).getVersion());
+            }
+            if (albumSongs.size() == limit) {
+                token = Math.min(token, albumSongs.get(limit - 1).getVersion());
+            }
+            if (deleted.size() == limit) {
+                token = Math.min(token, deleted.get(limit - 1).getVersion());
+            }
+
+            boolean hasMore = token != Long.MAX_VALUE;
+            if (hasMore) {
+                while (!albums.isEmpty() && albums.get(albums.size() - 1).getVersion() > token) {
+                    albums.remove(albums.size() - 1);
+                }
+                while (!songs.isEmpty() && songs.get(songs.size() - 1).getVersion() > token) {
+                    songs.remove(songs.size() - 1);
+                }
+                while (!albumSongs.isEmpty() && albumSongs.get(albumSongs.size() - 1).getVersion() > token) {
+                    albumSongs.remove(albumSongs.size() - 1);
+                }
+                while (!deleted.isEmpty() && deleted.get(deleted.size() - 1).getVersion() > token) {
+                    deleted.remove(deleted.size() - 1);
+                }
+            } else {
+                token = Math.max(since, getVersion());
+            }
+
+            mDatabase.setTransactionSuccessful();
+            return new Changes(albums, songs, albumSongs, deleted, token, hasMore);
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * Изменения одной таблицы вместе с удалениями по возрастанию version, для провайдера.
+     * Колонки: id, две колонки данных таблицы, updated_at, version, deleted (1 - строка удалена,
+     * колонки данных пустые). Новый токен - version последней строки.
+     */
+    @WorkerThread
+    public Cursor queryChanges(@NonNull String table, long since, int limit) {
+        String sql;
+        switch (table) {
+            case TABLE_ALBUM:
+                sql = ALBUM_CHANGES;
+                break;
+            case TABLE_SONG:
+                sql = SONG_CHANGES;
+                break;
+            case TABLE_ALBUMSONG:
+                sql = ALBUMSONG_CHANGES;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown table " + table);
+        }
+        return mDatabase.query(sql, new Object[]{since, since, limit});
+    }
+
+    /**
+     * Удаляет записи об удалениях с version не больше {@code upToVersion}. Клиенты с токеном
+     * меньше этой границы не узнают об удалениях и должны пересинхронизироваться целиком.
+     */
+    @WorkerThread
+    public int pruneDeleted(long upToVersion) {
+        return mDatabase.getOpenHelper().getWritableDatabase()
+                .delete("sync_deleted", "`version` <= ?", new Object[]{upToVersion});
+    }
+
+    /**
+     * Выдаёт {@code count} номеров подряд и возвращает первый. Вызывать внутри транзакции записи
+     * и перед commit закрыть выдачу {@link #releaseReservedVersions()}: пока диапазон
+     * (reserved_after, value] открыт, строки с version из него триггеры не перенумеровывают.
+     */
+    long reserveVersions(int count) {
+        mDatabase.getOpenHelper().getWritableDatabase()
+                .execSQL("UPDATE `sync_sequence` SET `value` = `value` + ?", new Object[]{count});
+        return getVersion() - count + 1;
+    }
+
+    //после закрытия любая запись с уже выданной version снова получает новую
+    void releaseReservedVersions() {
+        mDatabase.getOpenHelper().getWritableDatabase()
+                .execSQL("UPDATE `sync_sequence` SET `reserved_after` = `value`");
+    }
+
+    private List<DeletedRow> getDeletedSince(long since, int limit) {
+        Cursor cursor = mDatabase.query(SELECT_DELETED, new Object[]{since, limit});
+        try {
+            List<DeletedRow> result = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                result.add(new DeletedRow(cursor.getString(0), cursor.getInt(1), cursor.getLong(2)));
+            }
+            return result;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Последовательность, журнал удалений и триггеры. Вызывается и из миграции, и при создании новой базы.
+     */
+    static void createSyncTables(@NonNull SupportSQLiteDatabase database) {
+        //reserved_after = value - выданных заранее номеров нет
+        database.execSQL("CREATE TABLE IF NOT EXISTS `sync_sequence` (`id` INTEGER PRIMARY KEY, `value` INTEGER NOT NULL, "
+                + "`reserved_after` INTEGER NOT NULL DEFAULT 0)");
+        database.execSQL("INSERT OR IGNORE INTO `sync_sequence` (`id`, `value`, `reserved_after`) VALUES (0, 0, 0)");
+        database.execSQL("CREATE TABLE IF NOT EXISTS `sync_deleted` (`table_name` TEXT NOT NULL, `id` INTEGER NOT NULL, "
+                + "`updated_at` INTEGER NOT NULL, `version` INTEGER NOT NULL, PRIMARY KEY(`table_name`, `id`))");
+        database.execSQL("CREATE INDEX IF NOT EXISTS `index_sync_deleted_version` ON `sync_deleted` (`version`)");
+        database.execSQL("CREATE INDEX IF NOT EXISTS `index_sync_deleted_table_name_version` "
+                + "ON `sync_deleted` (`table_name`, `version`)");
+
+        createSyncTriggers(database, "Album", TABLE_ALBUM);
+        createSyncTriggers(database, "Song", TABLE_SONG);
+        createSyncTriggers(database, "AlbumSong", TABLE_ALBUMSONG);
+    }
+
+    /**
+     * Добавляет в sync_sequence колонку reserved_after, если её нет, и пересоздаёт триггеры версий.
+     */
+    static void upgradeSyncTables(@NonNull SupportSQLiteDatabase database) {
+        boolean hasReservedAfter = false;
+        Cursor columns = database.query("PRAGMA table_info(`sync_sequence`)");
+        try {
+            int name = columns.getColumnIndexOrThrow("name");
+            while (columns.moveToNext()) {
+                hasReservedAfter |= "reserved_after".equals(columns.getString(name));
+            }
+        } finally {
+            columns.close();
+        }
+        if (!hasReservedAfter) {
+            database.execSQL("ALTER TABLE `sync_sequence` ADD COLUMN `reserved_after` INTEGER NOT NULL DEFAULT 0");
+        }
+        database.execSQL("UPDATE `sync_sequence` SET `reserved_after` = `value`");
+
+        for (String table : new String[]{"Album", "Song", "AlbumSong"}) {
+            database.execSQL("DROP TRIGGER IF EXISTS `" + table + "_sync_ai`");
+            database.execSQL("DROP TRIGGER IF EXISTS `" + table + "_sync_au`");
+            database.execSQL("DROP TRIGGER IF EXISTS `" + table + "_sync_ad`");
+        }
+        createSyncTriggers(database, "Album", TABLE_ALBUM);
+        createSyncTriggers(database, "Song", TABLE_SONG);
+        createSyncTriggers(database, "AlbumSong", TABLE_ALBUMSONG);
+    }
+
+    private static void createSyncTriggers(SupportSQLiteDatabase database, String table, String name) {
+        //закрытая выдача остаётся закрытой, открытая внутри upsert - открытой
+        String next = "UPDATE `sync_sequence` SET `value` = `value` + 1, `reserved_after` = "
+                + "CASE WHEN `reserved_after` = `value` THEN `value` + 1 ELSE `reserved_after` END; ";
+        String stamp = next
+                + "UPDATE `" + table + "` SET `version` = (SELECT `value` FROM `sync_sequence`), "
+                + "`updated_at` = " + NOW_MILLIS + " WHERE `id` = new.`id`; ";
+
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `" + table + "_sync_ai` AFTER INSERT ON `" + table + "` "
+                + "WHEN new.`version` <= (SELECT `reserved_after` FROM `sync_sequence`) "
+                + "OR new.`version` > (SELECT `value` FROM `sync_sequence`) BEGIN " + stamp + "END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `" + table + "_sync_au` AFTER UPDATE ON `" + table + "` "
+                + "WHEN new.`version` <= old.`version` BEGIN " + stamp + "END");
+        //удаление через REPLACE триггеры не вызывает, поэтому перезапись строки не считается удалением
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS `" + table + "_sync_ad` AFTER DELETE ON `" + table + "` BEGIN "
+                + next
+                + "INSERT OR REPLACE INTO `sync_deleted` (`table_name`, `id`, `updated_at`, `version`) "
+                + "SELECT '" + name + "', old.`id`, " + NOW_MILLIS + ", `value` FROM `sync_sequence`; END");
+    }
+
+    private static String changesQuery(String table, String name, String columns) {
+        return "SELECT `id`, " + columns + ", `updated_at`, `version`, 0 AS `deleted` FROM `" + table + "` "
+                + "WHERE `version` > ? "
+                + "UNION ALL SELECT `id`, NULL, NULL, `updated_at`, `version`, 1 FROM `sync_deleted` "
+                + "WHERE `table_name` = '" + name + "' AND `version` > ? "
+                + "ORDER BY `version` LIMIT ?";
+    }
+
+    public static final class Changes {
+
+        private final List<Album> mAlbums;
+        private final List<Song> mSongs;
+        private final List<AlbumSong> mAlbumSongs;
+        private final List<DeletedRow> mDeleted;
+        private final long mToken;
+        private final boolean mHasMore;
+
+        Changes(List<Album> albums, List<Song> songs, List<AlbumSong> albumSongs, List<DeletedRow> deleted,
+                long token, boolean hasMore) {
+            mAlbums = Collections.unmodifiableList(albums);
+            mSongs = Collections.unmodifiableList(songs);
+            mAlbumSongs = Collections.unmodifiableList(albumSongs);
+            mDeleted = Collections.unmodifiableList(deleted);
+            mToken = token;
+            mHasMore = hasMore;
+        }
+
+        public List<Album> getAlbums() {
+            return mAlbums;
+        }
+
+        public List<Song> getSongs() {
+            return mSongs;
+        }
+
+        public List<AlbumSong> getAlbumSongs() {
+            return mAlbumSongs;
+        }
+
+        //удаления применяются вместе с остальными изменениями по возрастанию version
+        public List<DeletedRow> getDeleted() {
+            return mDeleted;
+        }
+
+        //передать в следующий getChanges
+        public long getToken() {
+            return mToken;
+        }
+
+        public boolean hasMore() {
+            return mHasMore;
+        }
+    }
+
+    public static final class DeletedRow {
+
+        private final String mTable;
+        private final int mId;
+        private final long mVersion;
+
+        DeletedRow(String table, int id, long version) {
+            mTable = table;
+            mId = id;
+            mVersion = version;
+        }
+
+        //одно из TABLE_ALBUM, TABLE_SONG, TABLE_ALBUMSONG
+        public String getTable() {
+            return mTable;
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        public long getVersion() {
+            return mVersion;
+        }
+
+        @Override
+        public String toString() {
+            return "DeletedRow{" + "mTable=" + mTable +
+                    ", mId=" + mId +
+                    ", mVersion=" + mVersion + '}';
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.TypeConverter;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Даты релиза хранятся в базе как номер дня от 1970-01-01 (UTC), чтобы по ним работали
+ * индекс и сравнение чисел.
+ */
+public final class MusicTypeConverters {
+
+    private static final long MILLIS_PER_DAY = TimeUnit.DAYS.toMillis(1);
+
+    private MusicTypeConverters() {
+    }
+
+    @TypeConverter
+    public static Long toEpochDay(Date date) {
+        if (date == null) {
+            return null;
+        }
+        long time = date.getTime();
+        long epochDay = time / MILLIS_PER_DAY;
+        //даты до 1970 года округляем вниз, а не к нулю
+        if (time % MILLIS_PER_DAY < 0) {
+            epochDay--;
+        }
+        return epochDay;
+    }
+
+    @TypeConverter
+    public static Date fromEpochDay(Long epochDay) {
+        if (epochDay == null) {
+            return null;
+        }
+        return new Date(epochDay * MILLIS_PER_DAY);
+    }
+}
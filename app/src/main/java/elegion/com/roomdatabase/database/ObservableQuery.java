@@ -0,0 +1,195 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.InvalidationTracker;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Запрос, который перевыполняется при изменении его таблиц. Изменения приходят
+ * от {@link InvalidationTracker}; несколько инвалидаций подряд (например, пачка вставок)
+ * схлопываются в одно перевыполнение через {@code debounceMillis}. При непрерывных
+ * изменениях перевыполнение всё равно происходит не позже {@code maxLatencyMillis}
+ * после первой неотработанной инвалидации.
+ * Результат и ошибка запроса доставляются на главном потоке.
+ */
+public class ObservableQuery<T> {
+
+    private static final String TAG = ObservableQuery.class.getSimpleName();
+
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+    public static final long DEFAULT_MAX_LATENCY_MILLIS = 1000;
+
+    public interface Observer<T> {
+        void onChanged(T value);
+    }
+
+    /**
+     * Наблюдатель, которому нужны и ошибки запроса. Ошибки остальных наблюдателей только пишутся в лог;
+     * подписка остаётся активной, следующее изменение таблиц запустит запрос снова.
+     */
+    public interface ErrorObserver<T> extends Observer<T> {
+        void onError(Exception error);
+    }
+
+    public interface Subscription {
+        void dispose();
+    }
+
+    private final MusicDatabase mDatabase;
+    private final Executor mQueryExecutor;
+    private final long mDebounceMillis;
+    private final long mMaxLatencyMillis;
+    private final Callable<T> mQuery;
+    private final String[] mTables;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public ObservableQuery(@NonNull MusicDatabase database, @NonNull Executor queryExecutor, long debounceMillis,
+                           @NonNull Callable<T> query, @NonNull String... tables) {
+        this(database, queryExecutor, debounceMillis, Math.max(debounceMillis, DEFAULT_MAX_LATENCY_MILLIS), query, tables);
+    }
+
+    public ObservableQuery(@NonNull MusicDatabase database, @NonNull Executor queryExecutor, long debounceMillis,
+                           long maxLatencyMillis, @NonNull Callable<T> query, @NonNull String... tables) {
+        if (tables.length == 0) {
+            throw new IllegalArgumentException("at least one table is required");
+        }
+        mDatabase = database;
+        mQueryExecutor = queryExecutor;
+        mDebounceMillis = debounceMillis;
+        mMaxLatencyMillis = maxLatencyMillis;
+        mQuery = query;
+        mTables = tables;
+    }
+
+    /**
+     * Подписывает наблюдателя: сразу выполняет запрос и затем повторяет его после изменений таблиц.
+     * <p>
+     * addObserver / removeObserver трекера создают и удаляют временные триггеры в транзакции,
+     * поэтому подписка и отписка идут на {@code queryExecutor}, а не на вызывающем потоке.
+     */
+    public Subscription observe(@NonNull Observer<T> observer) {
+        ActiveSubscription subscription = new ActiveSubscription(observer);
+        mQueryExecutor.execute(subscription.mRegister);
+        return subscription;
+    }
+
+    private final class ActiveSubscription implements Subscription {
+
+        private final Observer<T> mObserver;
+        private volatile boolean mDisposed;
+        //uptimeMillis первой инвалидации, ещё не отработанной перезапросом, или -1
+        private long mPendingSince = -1;
+
+        //первый запрос - после регистрации, чтобы изменение между ними не потерялось
+        private final Runnable mRegister = new Runnable() {
+            @Override
+            public void run() {
+                if (mDisposed) {
+                    return;
+                }
+                InvalidationTracker tracker = mDatabase.getInvalidationTracker();
+                tracker.addObserver(mTrackerObserver);
+                //dispose() мог пройти, пока шла регистрация, и его отписка - раньше неё
+                if (mDisposed) {
+                    tracker.removeObserver(mTrackerObserver);
+                    return;
+                }
+                mLoad.run();
+            }
+        };
+
+        private final Runnable mUnregister = new Runnable() {
+            @Override
+            public void run() {
+                mDatabase.getInvalidationTracker().removeObserver(mTrackerObserver);
+            }
+        };
+
+        private final Runnable mRequery = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ActiveSubscription.this) {
+                    mPendingSince = -1;
+                }
+                if (mDisposed) {
+                    return;
+                }
+                mQueryExecutor.execute(mLoad);
+            }
+        };
+
+        private final Runnable mLoad = new Runnable() {
+            @Override
+            public void run() {
+                if (mDisposed) {
+                    return;
+                }
+
+                final T value;
+                try {
+                    value = mQuery.call();
+                } catch (final Exception e) {
+                    //исключение на executor убило бы его поток или потерялось в пуле
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mDisposed) {
+                                return;
+                            }
+                            if (mObserver instanceof ErrorObserver) {
+                                ((ErrorObserver<T>) mObserver).onError(e);
+                            } else {
+                                Log.w(TAG, "observable query failed", e);
+                            }
+                        }
+                    });
+                    return;
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mDisposed) {
+                            mObserver.onChanged(value);
+                        }
+                    }
+                });
+            }
+        };
+
+        private final InvalidationTracker.Observer mTrackerObserver;
+
+        ActiveSubscription(Observer<T> observer) {
+            mObserver = observer;
+            mTrackerObserver = new InvalidationTracker.Observer(mTables) {
+                @Override
+                public void onInvalidated(@NonNull Set<String> tables) {
+                    //откладываем перезапрос, пока идут изменения, но не дольше mMaxLatencyMillis
+                    synchronized (ActiveSubscription.this) {
+                        long now = SystemClock.uptimeMillis();
+                        if (mPendingSince < 0) {
+                            mPendingSince = now;
+                        }
+                        mMainHandler.removeCallbacks(mRequery);
+                        mMainHandler.postAtTime(mRequery,
+                                Math.min(now + mDebounceMillis, mPendingSince + mMaxLatencyMillis));
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void dispose() {
+            mDisposed = true;
+            mMainHandler.removeCallbacks(mRequery);
+            mQueryExecutor.execute(mUnregister);
+        }
+    }
+}
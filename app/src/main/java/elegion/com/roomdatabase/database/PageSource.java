@@ -0,0 +1,159 @@
+package elegion.com.roomdatabase.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Отдаёт таблицу страницами по ключу (id &gt; последнего id, order by id) и заранее
+ * подгружает следующую страницу, пока вызывающий обрабатывает текущую.
+ * В памяти одновременно не больше двух страниц. Источник, брошенный до конца таблицы,
+ * нужно закрыть через {@link #close()}, иначе загруженная заранее страница так и повиснет.
+ */
+public abstract class PageSource<T> implements Closeable {
+
+    public static final int DEFAULT_PAGE_SIZE = 200;
+
+    private final int mPageSize;
+    private final Executor mPrefetchExecutor;
+
+    private long mAfterId = Long.MIN_VALUE;
+    //читается в hasNext() без блокировки, в том числе с другого потока
+    private volatile boolean mExhausted;
+    private FutureTask<List<T>> mNextPage;
+
+    protected PageSource(int pageSize, @NonNull Executor prefetchExecutor) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        mPageSize = pageSize;
+        mPrefetchExecutor = prefetchExecutor;
+    }
+
+    protected abstract List<T> loadPage(long afterId, int limit);
+
+    protected abstract int getId(T item);
+
+    public boolean hasNext() {
+        return !mExhausted;
+    }
+
+    /**
+     * Следующая страница; пустой список означает конец таблицы.
+     */
+    @WorkerThread
+    public synchronized List<T> nextPage() {
+        if (mExhausted) {
+            return Collections.emptyList();
+        }
+
+        List<T> page;
+        if (mNextPage != null) {
+            //задача снимается до ожидания: упавшая подгрузка не должна отдавать ту же ошибку
+            //на каждом следующем вызове, следующий вызов загрузит страницу заново
+            FutureTask<List<T>> nextPage = mNextPage;
+            mNextPage = null;
+            page = await(nextPage);
+        } else {
+            page = loadPage(mAfterId, mPageSize);
+        }
+
+        if (page.size() < mPageSize) {
+            mExhausted = true;
+        }
+        if (!page.isEmpty()) {
+            mAfterId = getId(page.get(page.size() - 1));
+        }
+        if (!mExhausted) {
+            prefetch(mAfterId);
+        }
+
+        return page;
+    }
+
+    /**
+     * Отменяет подгрузку следующей страницы; после закрытия {@link #nextPage()} возвращает
+     * пустой список. Уже идущий запрос не прерывается, его результат отбрасывается.
+     */
+    @Override
+    public synchronized void close() {
+        mExhausted = true;
+        if (mNextPage != null) {
+            mNextPage.cancel(false);
+            mNextPage = null;
+        }
+    }
+
+    private void prefetch(final long afterId) {
+        mNextPage = new FutureTask<>(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return loadPage(afterId, mPageSize);
+            }
+        });
+        mPrefetchExecutor.execute(mNextPage);
+    }
+
+    private static <T> T await(FutureTask<T> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public static PageSource<Album> albums(@NonNull final MusicDao musicDao, int pageSize, @NonNull Executor prefetchExecutor) {
+        return new PageSource<Album>(pageSize, prefetchExecutor) {
+            @Override
+            protected List<Album> loadPage(long afterId, int limit) {
+                return musicDao.getAlbumsAfter(afterId, limit);
+            }
+
+            @Override
+            protected int getId(Album item) {
+                return item.getId();
+            }
+        };
+    }
+
+    public static PageSource<Song> songs(@NonNull final MusicDao musicDao, int pageSize, @NonNull Executor prefetchExecutor) {
+        return new PageSource<Song>(pageSize, prefetchExecutor) {
+            @Override
+            protected List<Song> loadPage(long afterId, int limit) {
+                return musicDao.getSongsAfter(afterId, limit);
+            }
+
+            @Override
+            protected int getId(Song item) {
+                return item.getId();
+            }
+        };
+    }
+
+    public static PageSource<AlbumSong> albumSongs(@NonNull final MusicDao musicDao, int pageSize, @NonNull Executor prefetchExecutor) {
+        return new PageSource<AlbumSong>(pageSize, prefetchExecutor) {
+            @Override
+            protected List<AlbumSong> loadPage(long afterId, int limit) {
+                return musicDao.getAlbumSongsAfter(afterId, limit);
+            }
+
+            @Override
+            protected int getId(AlbumSong item) {
+                return item.getId();
+            }
+        };
+    }
+}
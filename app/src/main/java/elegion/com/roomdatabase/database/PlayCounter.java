@@ -0,0 +1,225 @@
+package elegion.com.roomdatabase.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счётчики прослушиваний в памяти со сбросом в {@link SongStats} пачкой. Запись в базу
+ * на каждое прослушивание - транзакция и fsync на событие, поэтому {@link #recordPlay} только
+ * увеличивает счётчик, а {@link #flush()} раз в интервал прибавляет накопленное
+ * одним {@code UPDATE ... SET plays = plays + ?} на песню в одной транзакции.
+ * <p>
+ * LongAdder есть только с API 24, поэтому разнесение по ячейкам своё: у каждого потока
+ * своя полоса, и параллельные прослушивания одной песни попадают в разные AtomicLong.
+ * Ячейки не удаляются - их не больше, чем песен на полосу, а удаление потеряло бы
+ * прибавку, пришедшую в момент сброса.
+ */
+public class PlayCounter {
+
+    private static final String TAG = PlayCounter.class.getSimpleName();
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int MAX_STRIPES = 16;
+
+    private final MusicDatabase mDatabase;
+    private final MusicDao mMusicDao;
+    private final ConcurrentHashMap<Integer, Cell>[] mStripes;
+    private final int mStripeMask;
+    private ScheduledExecutorService mFlushExecutor;
+    private ScheduledFuture<?> mPeriodicFlush;
+    private volatile FlushListener mFlushListener;
+
+    @SuppressWarnings("unchecked")
+    public PlayCounter(@NonNull MusicDatabase database) {
+        mDatabase = database;
+        mMusicDao = database.getMusicDao();
+
+        //степень двойки не меньше числа ядер, чтобы полоса выбиралась маской
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < MAX_STRIPES) {
+            stripes <<= 1;
+        }
+        mStripes = new ConcurrentHashMap[stripes];
+        for (int i = 0; i < stripes; i++) {
+            mStripes[i] = new ConcurrentHashMap<>();
+        }
+        mStripeMask = stripes - 1;
+    }
+
+    /**
+     * Слушатель зовётся после commit сброса, обновившего хотя бы одну строку, на потоке сброса.
+     */
+    public void setFlushListener(FlushListener listener) {
+        mFlushListener = listener;
+    }
+
+    public void recordPlay(int songId) {
+        recordPlays(songId, 1, System.currentTimeMillis());
+    }
+
+    /**
+     * Без блокировок и обращений к базе, можно звать с главного потока.
+     */
+    public void recordPlays(int songId, long plays, long playedAtMillis) {
+        if (plays <= 0) {
+            throw new IllegalArgumentException("plays must be positive");
+        }
+
+        ConcurrentHashMap<Integer, Cell> stripe = mStripes[stripeIndex()];
+        Cell cell = stripe.get(songId);
+        if (cell == null) {
+            Cell created = new Cell();
+            cell = stripe.putIfAbsent(songId, created);
+            if (cell == null) {
+                cell = created;
+            }
+        }
+        //время раньше счётчика: сброс, забравший прослушивание, увидит и его время
+        long lastPlayedAt;
+        do {
+            lastPlayedAt = cell.mLastPlayedAt.get();
+        } while (playedAtMillis > lastPlayedAt && !cell.mLastPlayedAt.compareAndSet(lastPlayedAt, playedAtMillis));
+        cell.mPlays.addAndGet(plays);
+    }
+
+    /**
+     * Прибавляет накопленные прослушивания к songstats. Если транзакция упала, прослушивания
+     * возвращаются в счётчики и уйдут следующим сбросом.
+     *
+     * @return число обновлённых строк songstats
+     */
+    @WorkerThread
+    public synchronized int flush() {
+        Map<Integer, long[]> pending = drain();
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        int updated = 0;
+        try {
+            mDatabase.beginTransaction();
+            try {
+                for (Map.Entry<Integer, long[]> entry : pending.entrySet()) {
+                    long[] plays = entry.getValue();
+                    updated += mMusicDao.addSongPlays(entry.getKey(), plays[0], plays[1]);
+                }
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            for (Map.Entry<Integer, long[]> entry : pending.entrySet()) {
+                long[] plays = entry.getValue();
+                recordPlays(entry.getKey(), plays[0], plays[1]);
+            }
+            throw e;
+        }
+
+        FlushListener listener = mFlushListener;
+        if (listener != null && updated > 0) {
+            listener.onFlushed(updated);
+        }
+        return updated;
+    }
+
+    /**
+     * Запускает фоновый {@link #flush()} раз в {@code intervalMillis}; 0 - остановить.
+     */
+    public synchronized void startPeriodicFlush(long intervalMillis) {
+        if (mPeriodicFlush != null) {
+            mPeriodicFlush.cancel(false);
+            mPeriodicFlush = null;
+        }
+        if (intervalMillis <= 0) {
+            return;
+        }
+
+        if (mFlushExecutor == null) {
+            mFlushExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "music-play-counter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mPeriodicFlush = mFlushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                //исключение отменило бы все следующие запуски
+                try {
+                    if (mDatabase.isOpen()) {
+                        flush();
+                    }
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "periodic play counter flush failed", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Останавливает фоновый сброс. Накопленное не пишется: перед закрытием базы нужен {@link #flush()}.
+     */
+    public synchronized void stop() {
+        if (mFlushExecutor != null) {
+            mFlushExecutor.shutdownNow();
+            mFlushExecutor = null;
+            mPeriodicFlush = null;
+        }
+    }
+
+    //забирает счётчики всех полос: song id -> {прослушивания, время последнего}
+    private Map<Integer, long[]> drain() {
+        Map<Integer, long[]> pending = new HashMap<>();
+        for (ConcurrentHashMap<Integer, Cell> stripe : mStripes) {
+            for (Map.Entry<Integer, Cell> entry : stripe.entrySet()) {
+                Cell cell = entry.getValue();
+                long plays = cell.mPlays.getAndSet(0);
+                if (plays == 0) {
+                    continue;
+                }
+
+                long lastPlayedAt = cell.mLastPlayedAt.get();
+                long[] total = pending.get(entry.getKey());
+                if (total == null) {
+                    pending.put(entry.getKey(), new long[]{plays, lastPlayedAt});
+                } else {
+                    total[0] += plays;
+                    total[1] = Math.max(total[1], lastPlayedAt);
+                }
+            }
+        }
+        return pending;
+    }
+
+    //полоса потока постоянна, перемешивание id разводит соседние потоки по разным полосам
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mStripeMask;
+    }
+
+    public interface FlushListener {
+
+        void onFlushed(int updatedRows);
+    }
+
+    private static final class Cell {
+
+        private final AtomicLong mPlays = new AtomicLong();
+        private final AtomicLong mLastPlayedAt = new AtomicLong();
+    }
+}
@@ -0,0 +1,44 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Embedded;
+
+/**
+ * Строка join song и songstats: песня и её прослушивания.
+ */
+
+public class PlayedSong {
+
+    @Embedded
+    private Song mSong;
+
+    @ColumnInfo(name = "plays")
+    private long mPlays;
+
+    @ColumnInfo(name = "last_played_at")
+    private long mLastPlayedAt;
+
+    public Song getSong() {
+        return mSong;
+    }
+
+    public void setSong(Song song) {
+        mSong = song;
+    }
+
+    public long getPlays() {
+        return mPlays;
+    }
+
+    public void setPlays(long plays) {
+        mPlays = plays;
+    }
+
+    public long getLastPlayedAt() {
+        return mLastPlayedAt;
+    }
+
+    public void setLastPlayedAt(long lastPlayedAt) {
+        mLastPlayedAt = lastPlayedAt;
+    }
+}
@@ -0,0 +1,245 @@
+package elegion.com.roomdatabase.database;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Задержки и размеры результатов по методам DAO и операциям провайдера плюс журнал медленных
+ * запросов. Таймер создаётся один раз на имя, дальше {@link Timer#record} не выделяет память,
+ * пока запрос не медленнее порога.
+ * <p>
+ * Снять с устройства: {@code adb shell dumpsys activity provider elegion.com.roomdatabase/.MusicProvider},
+ * сбросить - тем же вызовом с аргументом {@code reset}.
+ */
+public class QueryStats {
+
+    private static final String TAG = QueryStats.class.getSimpleName();
+
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 100;
+    public static final int SLOW_QUERY_LOG_SIZE = 64;
+    //размер результата неизвестен и не учитывается в rows/call
+    public static final long UNKNOWN_ROWS = -1;
+
+    private final ConcurrentHashMap<String, Timer> mTimers = new ConcurrentHashMap<>();
+    private final SlowQuery[] mSlowQueries = new SlowQuery[SLOW_QUERY_LOG_SIZE];
+    private volatile long mSlowQueryNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_QUERY_MILLIS);
+    private int mSlowQueryCount;
+
+    /**
+     * Размер курсора, если он уже известен без чтения результата: {@link MatrixCursor} или курсор
+     * с заполненным окном. Иначе {@link #UNKNOWN_ROWS} - {@code getCount()} у свежего
+     * {@code SQLiteCursor} выполнил бы запрос целиком ради статистики.
+     */
+    public static long knownRowCount(Cursor cursor) {
+        while (cursor instanceof CursorWrapper) {
+            cursor = ((CursorWrapper) cursor).getWrappedCursor();
+        }
+        if (cursor == null) {
+            return 0;
+        }
+        if (cursor instanceof MatrixCursor) {
+            return cursor.getCount();
+        }
+        if (cursor instanceof AbstractWindowedCursor && ((AbstractWindowedCursor) cursor).hasWindow()) {
+            return cursor.getCount();
+        }
+        return UNKNOWN_ROWS;
+    }
+
+    @NonNull
+    public Timer timer(@NonNull String name) {
+        Timer timer = mTimers.get(name);
+        if (timer == null) {
+            Timer created = new Timer(name);
+            timer = mTimers.putIfAbsent(name, created);
+            if (timer == null) {
+                timer = created;
+            }
+        }
+        return timer;
+    }
+
+    public void setSlowQueryThresholdMillis(long thresholdMillis) {
+        mSlowQueryNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mSlowQueryNanos);
+    }
+
+    /**
+     * Последние медленные запросы, от старых к новым, не больше {@link #SLOW_QUERY_LOG_SIZE}.
+     */
+    @NonNull
+    public synchronized List<SlowQuery> getSlowQueries() {
+        int size = Math.min(mSlowQueryCount, SLOW_QUERY_LOG_SIZE);
+        List<SlowQuery> result = new ArrayList<>(size);
+        for (int i = mSlowQueryCount - size; i < mSlowQueryCount; i++) {
+            result.add(mSlowQueries[i % SLOW_QUERY_LOG_SIZE]);
+        }
+        return result;
+    }
+
+    @NonNull
+    public List<Timer> getTimers() {
+        List<Timer> timers = new ArrayList<>(mTimers.values());
+        Collections.sort(timers, new Comparator<Timer>() {
+            @Override
+            public int compare(Timer left, Timer right) {
+                return left.getName().compareTo(right.getName());
+            }
+        });
+        return timers;
+    }
+
+    public void reset() {
+        for (Timer timer : mTimers.values()) {
+            timer.reset();
+        }
+        synchronized (this) {
+            mSlowQueryCount = 0;
+            Arrays.fill(mSlowQueries, null);
+        }
+    }
+
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println(String.format(Locale.US, "%-44s %9s %9s %9s %9s %9s %11s",
+                "name", "count", "p50 us", "p95 us", "p99 us", "max us", "rows/call"));
+        for (Timer timer : getTimers()) {
+            LatencyHistogram histogram = timer.getHistogram();
+            long count = histogram.getCount();
+            if (count == 0) {
+                continue;
+            }
+            long countedCalls = timer.getCountedCalls();
+            writer.println(String.format(Locale.US, "%-44s %9d %9d %9d %9d %9d %11s",
+                    timer.getName(), count,
+                    histogram.getPercentileNanos(50) / 1000,
+                    histogram.getPercentileNanos(95) / 1000,
+                    histogram.getPercentileNanos(99) / 1000,
+                    histogram.getMaxNanos() / 1000,
+                    countedCalls == 0 ? "-"
+                            : String.format(Locale.US, "%.1f", (double) timer.getRows() / countedCalls)));
+        }
+
+        writer.println();
+        writer.println("slow queries (>= " + getSlowQueryThresholdMillis() + " ms):");
+        for (SlowQuery slowQuery : getSlowQueries()) {
+            writer.println("  " + slowQuery);
+        }
+    }
+
+    private void logSlowQuery(String name, long nanos, long rows) {
+        SlowQuery slowQuery = new SlowQuery(name, System.currentTimeMillis(), nanos, rows);
+        synchronized (this) {
+            mSlowQueries[mSlowQueryCount % SLOW_QUERY_LOG_SIZE] = slowQuery;
+            mSlowQueryCount++;
+        }
+        Log.w(TAG, "slow query: " + slowQuery);
+    }
+
+    public final class Timer {
+
+        private final String mName;
+        private final LatencyHistogram mHistogram = new LatencyHistogram();
+        private final AtomicLong mRows = new AtomicLong();
+        private final AtomicLong mCountedCalls = new AtomicLong();
+
+        Timer(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return mHistogram;
+        }
+
+        //строк в результатах или затронуто, суммарно по вызовам с известным размером
+        public long getRows() {
+            return mRows.get();
+        }
+
+        //вызовы, для которых размер результата известен
+        public long getCountedCalls() {
+            return mCountedCalls.get();
+        }
+
+        /**
+         * @param startNanos значение {@code System.nanoTime()} перед вызовом
+         * @param rows       строк в результате, размер курсора или число затронутых строк;
+         *                   {@link #UNKNOWN_ROWS}, если размер неизвестен
+         */
+        public void record(long startNanos, long rows) {
+            long nanos = System.nanoTime() - startNanos;
+            mHistogram.record(nanos);
+            if (rows >= 0) {
+                mRows.addAndGet(rows);
+                mCountedCalls.incrementAndGet();
+            }
+            if (nanos >= mSlowQueryNanos) {
+                logSlowQuery(mName, nanos, rows);
+            }
+        }
+
+        void reset() {
+            mHistogram.reset();
+            mRows.set(0);
+            mCountedCalls.set(0);
+        }
+    }
+
+    public static final class SlowQuery {
+
+        private final String mName;
+        private final long mTimestamp;
+        private final long mNanos;
+        private final long mRows;
+
+        SlowQuery(String name, long timestamp, long nanos, long rows) {
+            mName = name;
+            mTimestamp = timestamp;
+            mNanos = nanos;
+            mRows = rows;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        public long getNanos() {
+            return mNanos;
+        }
+
+        public long getRows() {
+            return mRows;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%tT.%<tL %s %.1f ms, %s rows",
+                    mTimestamp, mName, mNanos / 1e6, mRows < 0 ? "?" : String.valueOf(mRows));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package elegion.com.roomdatabase.database;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.util.List;
+
+/**
+ * Read-through кэш строк album / song / albumsong по id. Записи через
+ * {@link MusicDatabase#getMusicDao()} сбрасывают затронутые id сами, после транзакции - ещё раз.
+ * Кто пишет мимо DAO (сырым SQL), должен вызвать invalidate* сам, как {@code MusicProvider}.
+ */
+public class RowCache {
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final MusicDao mMusicDao;
+    private final IntLruCache<Album> mAlbums;
+    private final IntLruCache<Song> mSongs;
+    private final IntLruCache<AlbumSong> mAlbumSongs;
+
+    public RowCache(@NonNull MusicDao musicDao) {
+        this(musicDao, DEFAULT_MAX_SIZE);
+    }
+
+    public RowCache(@NonNull MusicDao musicDao, int maxSizePerTable) {
+        mMusicDao = musicDao;
+        mAlbums = new IntLruCache<>(maxSizePerTable);
+        mSongs = new IntLruCache<>(maxSizePerTable);
+        mAlbumSongs = new IntLruCache<>(maxSizePerTable);
+    }
+
+    @Nullable
+    @WorkerThread
+    public Album getAlbum(int id) {
+        Album album = mAlbums.get(id);
+        if (album == null) {
+            long generation = mAlbums.generation();
+            album = mMusicDao.getAlbumById(id);
+            if (album != null) {
+                mAlbums.putIfGeneration(id, album, generation);
+            }
+        }
+        return album;
+    }
+
+    @Nullable
+    @WorkerThread
+    public Song getSong(int id) {
+        Song song = mSongs.get(id);
+        if (song == null) {
+            long generation = mSongs.generation();
+            song = mMusicDao.getSongById(id);
+            if (song != null) {
+                mSongs.putIfGeneration(id, song, generation);
+            }
+        }
+        return song;
+    }
+
+    @Nullable
+    @WorkerThread
+    public AlbumSong getAlbumSong(int id) {
+        AlbumSong albumSong = mAlbumSongs.get(id);
+        if (albumSong == null) {
+            long generation = mAlbumSongs.generation();
+            albumSong = mMusicDao.getAlbumSongById(id);
+            if (albumSong != null) {
+                mAlbumSongs.putIfGeneration(id, albumSong, generation);
+            }
+        }
+        return albumSong;
+    }
+
+    public void invalidateAlbum(int id) {
+        mAlbums.remove(id);
+    }
+
+    public void invalidateSong(int id) {
+        mSongs.remove(id);
+    }
+
+    public void invalidateAlbumSong(int id) {
+        mAlbumSongs.remove(id);
+    }
+
+    public void invalidateAlbums(@NonNull List<Album> albums) {
+        for (int i = 0, size = albums.size(); i < size; i++) {
+            mAlbums.remove(albums.get(i).getId());
+        }
+    }
+
+    public void invalidateSongs(@NonNull List<Song> songs) {
+        for (int i = 0, size = songs.size(); i < size; i++) {
+            mSongs.remove(songs.get(i).getId());
+        }
+    }
+
+    public void invalidateAlbumSongs(@NonNull List<AlbumSong> albumSongs) {
+        for (int i = 0, size = albumSongs.size(); i < size; i++) {
+            mAlbumSongs.remove(albumSongs.get(i).getId());
+        }
+    }
+
+    //после удаления по selection или каскадного удаления связей, когда затронутые id неизвестны
+    public void invalidateAllAlbums() {
+        mAlbums.clear();
+    }
+
+    public void invalidateAllSongs() {
+        mSongs.clear();
+    }
+
+    public void invalidateAllAlbumSongs() {
+        mAlbumSongs.clear();
+    }
+
+    public void invalidateAll() {
+        mAlbums.clear();
+        mSongs.clear();
+        mAlbumSongs.clear();
+    }
+
+    public long getHitCount() {
+        return mAlbums.hitCount() + mSongs.hitCount() + mAlbumSongs.hitCount();
+    }
+
+    public long getMissCount() {
+        return mAlbums.missCount() + mSongs.missCount() + mAlbumSongs.missCount();
+    }
+
+    public long getEvictionCount() {
+        return mAlbums.evictionCount() + mSongs.evictionCount() + mAlbumSongs.evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "RowCache{" + "hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() + '}';
+    }
+}
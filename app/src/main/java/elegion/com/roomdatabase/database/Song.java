@@ -2,13 +2,14 @@ package elegion.com.roomdatabase.database;
 
 import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.Index;
 import android.arch.persistence.room.PrimaryKey;
 
 /**
  * @author Azret Magometov
  */
 
-@Entity
+@Entity(indices = {@Index(value = "duration"), @Index(value = "version")})
 public class Song {
 
     @PrimaryKey
@@ -18,13 +19,21 @@ public class Song {
     @ColumnInfo(name = "name")
     private String mName;
 
+    //длительность в миллисекундах
     @ColumnInfo(name = "duration")
-    private String mDuration;
+    private long mDuration;
+
+    //служебные колонки синхронизации, как у Album
+    @ColumnInfo(name = "updated_at")
+    private long mUpdatedAt;
+
+    @ColumnInfo(name = "version")
+    private long mVersion;
 
     public Song() {
     }
 
-    public Song(int id, String name, String duration) {
+    public Song(int id, String name, long duration) {
         mId = id;
         mName = name;
         mDuration = duration;
@@ -46,18 +55,34 @@ public class Song {
         mName = name;
     }
 
-    public String getDuration() {
+    public long getDuration() {
         return mDuration;
     }
 
-    public void setDuration(String duration) {
+    public void setDuration(long duration) {
         mDuration = duration;
     }
 
+    public long getUpdatedAt() {
+        return mUpdatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        mUpdatedAt = updatedAt;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public void setVersion(long version) {
+        mVersion = version;
+    }
+
     @Override
     public String toString() {
         return "Song{" + "mId=" + mId +
                 ", mName='" + mName +
-                ", mDuration='" + mDuration + '}';
+                ", mDuration=" + mDuration + '}';
     }
 }
@@ -0,0 +1,68 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.ColumnInfo;
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.ForeignKey;
+import android.arch.persistence.room.Index;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * Статистика прослушиваний песни. Строку заводит триггер на вставку песни и удаляет триггер
+ * на её удаление, поэтому счётчики только обновляются, без REPLACE. Пишет её {@link PlayCounter}.
+ */
+
+@Entity(foreignKeys = @ForeignKey(entity = Song.class, parentColumns = "id", childColumns = "song_id"),
+        indices = {@Index(value = "plays"), @Index(value = "last_played_at")})
+public class SongStats {
+
+    @PrimaryKey
+    @ColumnInfo(name = "song_id")
+    private int mSongId;
+
+    @ColumnInfo(name = "plays")
+    private long mPlays;
+
+    //время последнего прослушивания в миллисекундах, 0 - не слушали
+    @ColumnInfo(name = "last_played_at")
+    private long mLastPlayedAt;
+
+    public SongStats() {
+    }
+
+    public SongStats(int songId, long plays, long lastPlayedAt) {
+        mSongId = songId;
+        mPlays = plays;
+        mLastPlayedAt = lastPlayedAt;
+    }
+
+    public int getSongId() {
+        return mSongId;
+    }
+
+    public void setSongId(int songId) {
+        mSongId = songId;
+    }
+
+    public long getPlays() {
+        return mPlays;
+    }
+
+    public void setPlays(long plays) {
+        mPlays = plays;
+    }
+
+    public long getLastPlayedAt() {
+        return mLastPlayedAt;
+    }
+
+    public void setLastPlayedAt(long lastPlayedAt) {
+        mLastPlayedAt = lastPlayedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "SongStats{" + "mSongId=" + mSongId +
+                ", mPlays=" + mPlays +
+                ", mLastPlayedAt=" + mLastPlayedAt + '}';
+    }
+}
@@ -0,0 +1,111 @@
+package elegion.com.roomdatabase.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Собирает результаты одного класса бенчмарков и пишет их в
+ * {@code build/benchmark-results/<Класс>.json} вместе с коммитом, на котором они сняты.
+ * Каталог и коммит передаёт Gradle через системные свойства benchmark.outputDir и benchmark.commit;
+ * бенчмарки на устройстве сами выставляют benchmark.outputDir в каталог приложения.
+ */
+final class BenchmarkReporter {
+
+    interface Body {
+        void run(int iteration) throws Exception;
+    }
+
+    private final String mSuite;
+    private final JSONArray mResults = new JSONArray();
+
+    BenchmarkReporter(Class<?> suite) {
+        mSuite = suite.getSimpleName();
+    }
+
+    /**
+     * Прогревает и замеряет {@code body}; каждое измерение - один вызов, в котором выполнено
+     * {@code opsPerIteration} операций.
+     */
+    long[] measure(String name, int warmup, int iterations, int opsPerIteration, Body body) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            body.run(i);
+        }
+
+        long[] samples = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            body.run(warmup + i);
+            samples[i] = System.nanoTime() - start;
+        }
+
+        report(name, samples, opsPerIteration);
+        return samples;
+    }
+
+    void report(String name, long[] samplesNanos, int opsPerSample) throws JSONException {
+        long[] sorted = Arrays.copyOf(samplesNanos, samplesNanos.length);
+        Arrays.sort(sorted);
+
+        long total = 0;
+        for (long sample : sorted) {
+            total += sample;
+        }
+        double nanosPerOp = (double) total / ((long) sorted.length * opsPerSample);
+
+        JSONObject result = new JSONObject()
+                .put("name", name)
+                .put("samples", sorted.length)
+                .put("opsPerSample", opsPerSample)
+                .put("nsPerOp", nanosPerOp)
+                .put("opsPerSecond", nanosPerOp > 0 ? 1e9 / nanosPerOp : 0)
+                .put("p50Nanos", percentile(sorted, 50))
+                .put("p95Nanos", percentile(sorted, 95))
+                .put("p99Nanos", percentile(sorted, 99))
+                .put("maxNanos", sorted[sorted.length - 1]);
+        mResults.put(result);
+
+        System.out.println(mSuite + "." + name + ": " + String.format("%.1f", nanosPerOp) + " ns/op, p95 "
+                + percentile(sorted, 95) / 1000 + " us/sample");
+    }
+
+    void metric(String name, String unit, double value) throws JSONException {
+        mResults.put(new JSONObject()
+                .put("name", name)
+                .put("unit", unit)
+                .put("value", value));
+
+        System.out.println(mSuite + "." + name + ": " + value + " " + unit);
+    }
+
+    void write() throws JSONException, IOException {
+        File directory = new File(System.getProperty("benchmark.outputDir", "build/benchmark-results"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+
+        JSONObject report = new JSONObject()
+                .put("suite", mSuite)
+                .put("commit", System.getProperty("benchmark.commit", "unknown"))
+                .put("timestamp", System.currentTimeMillis())
+                .put("results", mResults);
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, mSuite + ".json")), "UTF-8");
+        try {
+            writer.write(report.toString(2));
+        } finally {
+            writer.close();
+        }
+    }
+
+    static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
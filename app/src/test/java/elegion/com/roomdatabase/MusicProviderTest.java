@@ -0,0 +1,406 @@
+package elegion.com.roomdatabase;
+
+import android.arch.persistence.room.Room;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import elegion.com.roomdatabase.database.Album;
+import elegion.com.roomdatabase.database.AlbumSong;
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.Song;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class MusicProviderTest {
+
+    private static final Uri ALBUM_URI = Uri.parse("content://com.elegion.roomdatabase.musicprovider/album");
+    private static final Uri SONG_URI = Uri.parse("content://com.elegion.roomdatabase.musicprovider/song");
+    private static final Uri CHANGES_SONG_URI = Uri.parse("content://com.elegion.roomdatabase.musicprovider/changes/song");
+    private static final Uri STATS_URI = Uri.parse("content://com.elegion.roomdatabase.musicprovider/stats");
+
+    private MusicProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        //тест работает на главном потоке, поэтому подменяем базу на in-memory с разрешёнными запросами
+        MusicDatabase.setInstance(MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build());
+        mProvider = Robolectric.setupContentProvider(MusicProvider.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MusicDatabase.setInstance(null);
+    }
+
+    @Test
+    public void providerAndApplicationShareDatabase() throws Exception {
+        AppDelegate appDelegate = (AppDelegate) RuntimeEnvironment.application;
+
+        assertSame(appDelegate.getMusicDatabase(), MusicDatabase.getInstance(appDelegate));
+    }
+
+    @Test
+    public void providerWriteIsVisibleThroughDao() throws Exception {
+        ContentValues values = new ContentValues();
+        values.put("id", 7);
+        values.put("name", "album 7");
+        values.put("release", 17532);
+
+        mProvider.insert(ALBUM_URI, values);
+
+        List<Album> albums = MusicDatabase.getInstance(RuntimeEnvironment.application).getMusicDao().getAlbums();
+        assertEquals(1, albums.size());
+        assertEquals("album 7", albums.get(0).getName());
+    }
+
+    @Test
+    public void deleteBySelectionRemovesAlbumsWithTheirLinks() throws Exception {
+        MusicDao musicDao = MusicDatabase.getInstance(RuntimeEnvironment.application).getMusicDao();
+        musicDao.insertAlbums(Arrays.asList(new Album(1, "a", null), new Album(2, "b", null), new Album(3, "c", null)));
+        musicDao.insertSong(new Song(10, "song", 1));
+        musicDao.setLinksAlbumSongs(Arrays.asList(new AlbumSong(1, 1, 10), new AlbumSong(2, 3, 10)));
+
+        assertEquals(2, mProvider.delete(ALBUM_URI, "id <= ?", new String[]{"2"}));
+
+        assertEquals(1, musicDao.getAlbums().size());
+        assertEquals(1, musicDao.getAlbumSongs().size());
+        assertEquals(3, musicDao.getAlbumSongs().get(0).getAlbumId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deleteRejectsUnknownColumns() throws Exception {
+        mProvider.delete(ALBUM_URI, "1 = 1; DROP TABLE album", null);
+    }
+
+    @Test
+    public void changesUriReturnsRowsAfterToken() throws Exception {
+        MusicDao musicDao = MusicDatabase.getInstance(RuntimeEnvironment.application).getMusicDao();
+        musicDao.insertSongs(Arrays.asList(new Song(1, "a", 1), new Song(2, "b", 2)));
+        long token = musicDao.getSongById(1).getVersion();
+        musicDao.deleteSongById(1);
+
+        Cursor cursor = mProvider.query(CHANGES_SONG_URI.buildUpon()
+                .appendQueryParameter("since", String.valueOf(token)).build(), null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(2, cursor.getInt(cursor.getColumnIndexOrThrow("id")));
+            assertEquals(0, cursor.getInt(cursor.getColumnIndexOrThrow("deleted")));
+            cursor.moveToNext();
+            assertEquals(1, cursor.getInt(cursor.getColumnIndexOrThrow("id")));
+            assertEquals(1, cursor.getInt(cursor.getColumnIndexOrThrow("deleted")));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void pagedQueryWalksTableByKeyset() throws Exception {
+        MusicDao musicDao = MusicDatabase.getInstance(RuntimeEnvironment.application).getMusicDao();
+        for (int i = 1; i <= 5; i++) {
+            musicDao.insertSong(new Song(i, i % 2 == 0 ? "even" : "odd", i));
+        }
+
+        Uri firstPage = SONG_URI.buildUpon().appendQueryParameter("limit", "2").build();
+        Cursor cursor = mProvider.query(firstPage, new String[]{"name"}, "name = ?", new String[]{"odd"}, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            assertEquals(3, cursor.getExtras().getLong(MusicProvider.EXTRA_TOTAL_COUNT));
+            assertEquals(3, cursor.getExtras().getLong(MusicProvider.EXTRA_NEXT_AFTER));
+        } finally {
+            cursor.close();
+        }
+
+        Uri secondPage = firstPage.buildUpon().appendQueryParameter("after", "3").build();
+        cursor = mProvider.query(secondPage, new String[]{"name"}, "name = ?", new String[]{"odd"}, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(5, cursor.getInt(cursor.getColumnIndexOrThrow("id")));
+            assertFalse(cursor.getExtras().containsKey(MusicProvider.EXTRA_NEXT_AFTER));
+            assertFalse(cursor.getExtras().containsKey(MusicProvider.EXTRA_TOTAL_COUNT));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void writeBehindQueriesSeeOwnWrites() throws Exception {
+        //срок группы больше времени теста: записи уходят в базу только по flush
+        mProvider.setWriteBehind(true, 10, 100, 60_000);
+        try {
+            for (int i = 1; i <= 3; i++) {
+                ContentValues values = new ContentValues();
+                values.put("id", i);
+                values.put("name", "song " + i);
+                values.put("duration", i * 1000L);
+                assertEquals(Uri.withAppendedPath(SONG_URI, String.valueOf(i)), mProvider.insert(SONG_URI, values));
+            }
+            ContentValues renamed = new ContentValues();
+            renamed.put("id", 2);
+            renamed.put("name", "renamed");
+            renamed.put("duration", 2000L);
+            assertEquals(1, mProvider.update(Uri.withAppendedPath(SONG_URI, "2"), renamed, null, null));
+
+            Cursor cursor = mProvider.query(SONG_URI, new String[]{"name"}, null, null, "id");
+            try {
+                assertEquals(3, cursor.getCount());
+                cursor.moveToPosition(1);
+                assertEquals("renamed", cursor.getString(0));
+            } finally {
+                cursor.close();
+            }
+            assertEquals(0, mProvider.getWriteBehindDepth());
+        } finally {
+            mProvider.shutdown();
+        }
+        assertFalse(mProvider.isWriteBehindEnabled());
+    }
+
+    @Test(timeout = 10_000)
+    public void deleteInsideApplyBatchDoesNotWaitForWriteBehind() throws Exception {
+        //пока applyBatch держит транзакцию, другой клиент ставит запись в очередь, а delete
+        //внутри батча не должен ждать писателя, стоящего за этой транзакцией
+        MusicProvider provider = new MusicProvider() {
+            @Override
+            public int delete(Uri uri, String selection, String[] selectionArgs) {
+                final MusicProvider self = this;
+                Thread client = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ContentValues values = new ContentValues();
+                        values.put("id", 5);
+                        values.put("name", "queued");
+                        values.put("duration", 5000L);
+                        self.insert(SONG_URI, values);
+                    }
+                });
+                client.start();
+                try {
+                    client.join();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                return super.delete(uri, selection, selectionArgs);
+            }
+        };
+        provider.attachInfo(RuntimeEnvironment.application, null);
+        provider.setWriteBehind(true, 10, 100, 60_000);
+        try {
+            ContentValues album = new ContentValues();
+            album.put("id", 1);
+            album.put("name", "album");
+            album.put("release", 17532);
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            operations.add(ContentProviderOperation.newInsert(ALBUM_URI).withValues(album).build());
+            operations.add(ContentProviderOperation.newDelete(Uri.withAppendedPath(ALBUM_URI, "1")).build());
+
+            provider.applyBatch(operations);
+            provider.flushWrites();
+
+            MusicDao musicDao = MusicDatabase.getInstance(RuntimeEnvironment.application).getMusicDao();
+            assertEquals(0, musicDao.getAlbums().size());
+            assertEquals("queued", musicDao.getSongById(5).getName());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void statsUriSeesUnflushedPlays() throws Exception {
+        MusicDatabase database = MusicDatabase.getInstance(RuntimeEnvironment.application);
+        database.getMusicDao().insertSongs(Arrays.asList(new Song(1, "a", 1), new Song(2, "b", 2)));
+        database.getPlayCounter().recordPlays(2, 4, 200);
+        database.getPlayCounter().recordPlays(1, 1, 300);
+
+        Cursor cursor = mProvider.query(STATS_URI.buildUpon().appendQueryParameter("limit", "1").build(),
+                null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(2, cursor.getInt(cursor.getColumnIndexOrThrow("id")));
+            assertEquals(4, cursor.getLong(cursor.getColumnIndexOrThrow("plays")));
+        } finally {
+            cursor.close();
+        }
+
+        cursor = mProvider.query(Uri.withAppendedPath(STATS_URI, "recent"), null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("a", cursor.getString(cursor.getColumnIndexOrThrow("name")));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void applyBatchNotifiesEachTableOnceAfterCommit() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            operations.add(ContentProviderOperation.newInsert(SONG_URI).withValues(songValues(i, "song " + i)).build());
+        }
+        ContentValues album = new ContentValues();
+        album.put("id", 1);
+        album.put("name", "album");
+        album.put("release", 17532);
+        operations.add(ContentProviderOperation.newInsert(ALBUM_URI).withValues(album).build());
+        operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(SONG_URI, 2))
+                .withValues(songValues(2, "renamed")).build());
+
+        mProvider.applyBatch(operations);
+
+        List<Uri> notified = new ArrayList<>();
+        for (ShadowContentResolver.NotifiedUri notifiedUri
+                : Shadows.shadowOf(RuntimeEnvironment.application.getContentResolver()).getNotifiedUris()) {
+            notified.add(notifiedUri.uri);
+        }
+        assertEquals(Arrays.asList(SONG_URI, STATS_URI, ALBUM_URI), notified);
+    }
+
+    @Test
+    public void playCounterFlushAndSongDeleteNotifyStats() throws Exception {
+        MusicDatabase database = MusicDatabase.getInstance(RuntimeEnvironment.application);
+        database.getMusicDao().insertSongs(Arrays.asList(new Song(1, "a", 1), new Song(2, "b", 2)));
+        ShadowContentResolver resolver = Shadows.shadowOf(RuntimeEnvironment.application.getContentResolver());
+
+        //пустой сброс ничего не меняет и не уведомляет
+        database.getPlayCounter().flush();
+        assertEquals(0, resolver.getNotifiedUris().size());
+
+        database.getPlayCounter().recordPlays(1, 2, 100);
+        database.getPlayCounter().flush();
+        assertEquals(1, resolver.getNotifiedUris().size());
+        assertEquals(STATS_URI, resolver.getNotifiedUris().get(0).uri);
+
+        mProvider.delete(ContentUris.withAppendedId(SONG_URI, 1), null, null);
+        List<Uri> notified = new ArrayList<>();
+        for (ShadowContentResolver.NotifiedUri notifiedUri : resolver.getNotifiedUris()) {
+            notified.add(notifiedUri.uri);
+        }
+        assertTrue(notified.toString(), notified.subList(1, notified.size()).contains(STATS_URI));
+    }
+
+    @Test
+    public void limitMustBePositiveInteger() throws Exception {
+        Uri search = Uri.parse("content://com.elegion.roomdatabase.musicprovider/search/song?q=a");
+        for (Uri uri : Arrays.asList(search, CHANGES_SONG_URI, STATS_URI, SONG_URI)) {
+            for (String limit : Arrays.asList("abc", "0", "-1", "")) {
+                try {
+                    mProvider.query(uri.buildUpon().appendQueryParameter("limit", limit).build(),
+                            null, null, null, null);
+                    fail(uri + " limit=" + limit);
+                } catch (IllegalArgumentException expected) {
+                    assertTrue(expected.getMessage(), expected.getMessage().startsWith("limit must be a positive integer"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cachedRowIsRefreshedAfterBulkInsert() throws Exception {
+        MusicDatabase.getInstance(RuntimeEnvironment.application).getMusicDao().insertSong(new Song(1, "before", 1));
+        assertEquals("before", querySongName(1));
+
+        mProvider.bulkInsert(SONG_URI, new ContentValues[]{songValues(1, "after")});
+
+        assertEquals("after", querySongName(1));
+    }
+
+    @Test
+    public void rolledBackBatchDoesNotLeaveRowInCache() throws Exception {
+        MusicDatabase.getInstance(RuntimeEnvironment.application).getMusicDao().insertSong(new Song(1, "before", 1));
+        assertEquals("before", querySongName(1));
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(SONG_URI, 1))
+                .withValues(songValues(1, "after")).build());
+        //чтение внутри транзакции кладёт в кэш ещё не сохранённую строку
+        operations.add(ContentProviderOperation.newAssertQuery(ContentUris.withAppendedId(SONG_URI, 1))
+                .withExpectedCount(1).build());
+        operations.add(ContentProviderOperation.newAssertQuery(SONG_URI).withExpectedCount(2).build());
+        try {
+            mProvider.applyBatch(operations);
+            fail();
+        } catch (OperationApplicationException expected) {
+        }
+
+        assertEquals("before", querySongName(1));
+    }
+
+    @Test
+    public void daoWritesRefreshCachedRow() throws Exception {
+        MusicDatabase database = MusicDatabase.getInstance(RuntimeEnvironment.application);
+        MusicDao musicDao = database.getMusicDao();
+        musicDao.insertSong(new Song(1, "before", 1));
+        assertEquals("before", querySongName(1));
+
+        musicDao.insertSong(new Song(1, "replaced", 1));
+        assertEquals("replaced", querySongName(1));
+        musicDao.updateSongInfo(new Song(1, "updated", 1));
+        assertEquals("updated", querySongName(1));
+
+        //чтение внутри транзакции кладёт в кэш несохранённую строку, откат её сбрасывает
+        database.beginTransaction();
+        try {
+            musicDao.updateSongInfo(new Song(1, "rolled back", 1));
+            assertEquals("rolled back", querySongName(1));
+        } finally {
+            database.endTransaction();
+        }
+        assertEquals("updated", querySongName(1));
+
+        musicDao.deleteSongById(1);
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(SONG_URI, 1), null, null, null, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String querySongName(int id) {
+        Cursor cursor = mProvider.query(ContentUris.withAppendedId(SONG_URI, id), null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(cursor.getColumnIndexOrThrow("name"));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues songValues(int id, String name) {
+        ContentValues values = new ContentValues();
+        values.put("id", id);
+        values.put("name", name);
+        values.put("duration", 1);
+        return values;
+    }
+}
@@ -0,0 +1,123 @@
+package elegion.com.roomdatabase;
+
+import android.arch.persistence.db.SupportSQLiteProgram;
+import android.arch.persistence.db.SupportSQLiteQuery;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProviderQueryCompilerTest {
+
+    private final ProviderQueryCompiler mCompiler = new ProviderQueryCompiler("song",
+            "id", "name", "duration", "updated_at", "version");
+
+    @Test
+    public void validSelectionIsPassedToSqlite() throws Exception {
+        SupportSQLiteQuery query = mCompiler.compile(new String[]{"id", " name "},
+                "name LIKE ? AND (duration > 100 OR `id` IN (1, 2)) AND name != 'it''s; -- ok'",
+                new String[]{"a%"}, "name desc, id", 7);
+
+        assertEquals("SELECT `id`, `name` FROM song WHERE (name LIKE ? AND (duration > 100 OR `id` IN (1, 2)) "
+                + "AND name != 'it''s; -- ok') AND id = ? ORDER BY `name` DESC, `id`", query.getSql());
+        assertEquals(Arrays.<Object>asList("a%", 7L), bind(query));
+    }
+
+    @Test
+    public void emptyArgumentsSelectWholeTable() throws Exception {
+        assertEquals("SELECT * FROM song", mCompiler.compile(null, " ", null, null, null).getSql());
+        assertEquals("DELETE FROM song", mCompiler.compileDelete(null, null, null).getSql());
+    }
+
+    @Test
+    public void pageAddsIdAndKeyset() throws Exception {
+        SupportSQLiteQuery query = mCompiler.compilePage(new String[]{"name"}, "duration > ?", new String[]{"5"}, 10L, 20);
+
+        assertEquals("SELECT `name`, `id` FROM song WHERE (duration > ?) AND id > ? ORDER BY id LIMIT ?", query.getSql());
+        assertEquals(Arrays.<Object>asList("5", 10L, 20L), bind(query));
+    }
+
+    @Test
+    public void unknownColumnsAreRejected() throws Exception {
+        assertRejected("unknown column", new String[]{"password"}, null, null, null);
+        assertRejected("unknown column", null, "secret = 1", null, null);
+        assertRejected("unknown column", null, "`album_id` = 1", null, null);
+        assertRejected("unknown column", null, null, null, "random()");
+        assertRejected("invalid sort order", null, null, null, "name desc limit");
+    }
+
+    @Test
+    public void injectionIsRejected() throws Exception {
+        assertRejected("unexpected ';'", null, "id = 1; DROP TABLE song", null, null);
+        assertRejected("comments are not allowed", null, "id = 1 --", null, null);
+        assertRejected("comments are not allowed", null, "id = 1 /* x */", null, null);
+        //подзапрос: SELECT не колонка и не разрешённое ключевое слово
+        assertRejected("unknown column", null, "id IN (SELECT id FROM album)", null, null);
+        assertRejected("unbalanced parentheses", null, "id = 1) OR (1 = 1", null, null);
+        assertRejected("unterminated literal", null, "name = 'abc", null, null);
+    }
+
+    @Test
+    public void placeholderCountMustMatchArguments() throws Exception {
+        assertRejected("selection expects 2 args, got 1", null, "id = ? OR name = ?", new String[]{"1"}, null);
+        assertRejected("selection expects 0 args, got 1", null, "id = 1", new String[]{"1"}, null);
+        assertRejected("selection expects 1 args, got 0", null, "id = ?", null, null);
+        //? внутри литерала - не плейсхолдер
+        assertEquals(0, bind(mCompiler.compileDelete("name = '?'", null, null)).size());
+    }
+
+    private void assertRejected(String message, String[] projection, String selection, String[] selectionArgs,
+                                String sortOrder) {
+        try {
+            mCompiler.compile(projection, selection, selectionArgs, sortOrder, null);
+            fail("expected rejection: " + message);
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains(message));
+        }
+    }
+
+    private static List<Object> bind(SupportSQLiteQuery query) {
+        final List<Object> args = new ArrayList<>();
+        query.bindTo(new SupportSQLiteProgram() {
+            @Override
+            public void bindNull(int index) {
+                args.add(null);
+            }
+
+            @Override
+            public void bindLong(int index, long value) {
+                args.add(value);
+            }
+
+            @Override
+            public void bindDouble(int index, double value) {
+                args.add(value);
+            }
+
+            @Override
+            public void bindString(int index, String value) {
+                args.add(value);
+            }
+
+            @Override
+            public void bindBlob(int index, byte[] value) {
+                args.add(value);
+            }
+
+            @Override
+            public void clearBindings() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return args;
+    }
+}
@@ -0,0 +1,106 @@
+package elegion.com.roomdatabase;
+
+import android.arch.persistence.room.Room;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.QueryStats;
+import elegion.com.roomdatabase.database.Song;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class ProviderWriteQueueTest {
+
+    private static final Uri SONG_URI = Uri.parse("content://com.elegion.roomdatabase.musicprovider/song");
+    private static final int INSERT_SONG = 1;
+    private static final int BROKEN_INSERT_SONG = 2;
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+    private final Set<Uri> mCommitted = new LinkedHashSet<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void failedWriteDoesNotRollBackItsGroup() throws Exception {
+        ProviderWriteQueue queue = new ProviderWriteQueue(mDatabase, new ProviderWriteQueue.Applier() {
+            @Override
+            public void apply(int code, @NonNull Uri uri, @NonNull ContentValues values) {
+                Song song = new Song(values.getAsInteger("id"), "song", 1);
+                if (code == INSERT_SONG) {
+                    mMusicDao.insertSong(song);
+                    return;
+                }
+                //как insert провайдера: своя вложенная транзакция, которая падает после записи
+                mDatabase.beginTransaction();
+                try {
+                    mMusicDao.insertSong(song);
+                    throw new IllegalStateException("broken write");
+                } finally {
+                    mDatabase.endTransaction();
+                }
+            }
+
+            @Override
+            public void onCommitted(@NonNull Set<Uri> tableUris) {
+                mCommitted.addAll(tableUris);
+            }
+        }, new QueryStats().timer("commit"), 10, 10, 60_000);
+
+        try {
+            queue.enqueue(INSERT_SONG, SONG_URI, values(1), SONG_URI);
+            queue.enqueue(BROKEN_INSERT_SONG, SONG_URI, values(2), SONG_URI);
+            queue.enqueue(INSERT_SONG, SONG_URI, values(3), SONG_URI);
+            queue.flush();
+
+            assertNotNull(mMusicDao.getSongById(1));
+            assertNull(mMusicDao.getSongById(2));
+            assertNotNull(mMusicDao.getSongById(3));
+            assertTrue(mCommitted.contains(SONG_URI));
+
+            StringWriter dump = new StringWriter();
+            queue.dump(new PrintWriter(dump));
+            assertTrue(dump.toString(), dump.toString().contains("committed=2 failed=1"));
+            assertEquals(0, queue.getDepth());
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    private static ContentValues values(int id) {
+        ContentValues values = new ContentValues();
+        values.put("id", id);
+        return values;
+    }
+}
@@ -0,0 +1,100 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import elegion.com.roomdatabase.database.Album;
+import elegion.com.roomdatabase.database.AlbumSong;
+import elegion.com.roomdatabase.database.AlbumWithSongs;
+import elegion.com.roomdatabase.database.AlbumWithSongsLoader;
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.Song;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Каталог 1k альбомов по 20 песен: цикл getSongsFromAlbum против AlbumWithSongsLoader.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AlbumWithSongsBenchmark {
+
+    private static final int ALBUMS = 1000;
+    private static final int SONGS_PER_ALBUM = 20;
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(AlbumWithSongsBenchmark.class);
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+
+        List<Album> albums = new ArrayList<>(ALBUMS);
+        List<Song> songs = new ArrayList<>(ALBUMS * SONGS_PER_ALBUM);
+        List<AlbumSong> links = new ArrayList<>(ALBUMS * SONGS_PER_ALBUM);
+        for (int a = 0; a < ALBUMS; a++) {
+            albums.add(new Album(a, "album " + a, new Date()));
+            for (int s = 0; s < SONGS_PER_ALBUM; s++) {
+                int id = a * SONGS_PER_ALBUM + s;
+                songs.add(new Song(id, "song " + id, id * 1000L));
+                links.add(new AlbumSong(id, a, id));
+            }
+        }
+
+        mDatabase.beginTransaction();
+        try {
+            mMusicDao.insertAlbums(albums);
+            mMusicDao.insertSongs(songs);
+            mMusicDao.setLinksAlbumSongs(links);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        mDatabase.close();
+    }
+
+    @Test
+    public void perAlbumLoopVersusBatchedLoader() throws Exception {
+        long start = System.nanoTime();
+        List<Album> albums = mMusicDao.getAlbums();
+        int loopSongs = 0;
+        for (int i = 0, size = albums.size(); i < size; i++) {
+            loopSongs += mMusicDao.getSongsFromAlbum(albums.get(i).getId()).size();
+        }
+        long loopNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<AlbumWithSongs> catalog = new AlbumWithSongsLoader(mDatabase).loadAll();
+        long batchedNanos = System.nanoTime() - start;
+
+        int batchedSongs = 0;
+        for (int i = 0, size = catalog.size(); i < size; i++) {
+            batchedSongs += catalog.get(i).getSongs().size();
+        }
+        assertEquals(loopSongs, batchedSongs);
+
+        mReporter.metric("perAlbumLoop(" + (ALBUMS + 1) + " queries)", "ms", loopNanos / 1_000_000);
+        mReporter.metric("AlbumWithSongsLoader", "ms", batchedNanos / 1_000_000);
+    }
+}
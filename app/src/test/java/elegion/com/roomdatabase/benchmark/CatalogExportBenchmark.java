@@ -0,0 +1,132 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import elegion.com.roomdatabase.database.Album;
+import elegion.com.roomdatabase.database.AlbumSong;
+import elegion.com.roomdatabase.database.CatalogExporter;
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.Song;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Экспорт каталога на 1M записей в NDJSON и NDJSON.gz: время, размер файла и прирост кучи.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CatalogExportBenchmark {
+
+    private static final int ALBUMS = 25_000;
+    private static final int SONGS_PER_ALBUM = 20;
+    private static final long RECORDS = ALBUMS * (1L + 2 * SONGS_PER_ALBUM);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(CatalogExportBenchmark.class);
+
+    private MusicDatabase mDatabase;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        MusicDao musicDao = mDatabase.getMusicDao();
+
+        List<Album> albums = new ArrayList<>();
+        List<Song> songs = new ArrayList<>();
+        List<AlbumSong> links = new ArrayList<>();
+        mDatabase.beginTransaction();
+        try {
+            for (int a = 0; a < ALBUMS; a++) {
+                albums.add(new Album(a, "album " + a, new Date()));
+                for (int s = 0; s < SONGS_PER_ALBUM; s++) {
+                    int id = a * SONGS_PER_ALBUM + s;
+                    songs.add(new Song(id, "song " + id, id * 1000L));
+                    links.add(new AlbumSong(id, a, id));
+                }
+                if (songs.size() >= 5000) {
+                    musicDao.insertAlbums(albums);
+                    musicDao.insertSongs(songs);
+                    musicDao.setLinksAlbumSongs(links);
+                    albums.clear();
+                    songs.clear();
+                    links.clear();
+                }
+            }
+            musicDao.insertAlbums(albums);
+            musicDao.insertSongs(songs);
+            musicDao.setLinksAlbumSongs(links);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        mDatabase.close();
+    }
+
+    @Test
+    public void millionRecordExport() throws Exception {
+        export("ndjson", new File(mFolder.getRoot(), "catalog.ndjson"), false);
+        export("ndjson.gz", new File(mFolder.getRoot(), "catalog.ndjson.gz"), true);
+    }
+
+    private void export(String name, File file, boolean gzip) throws Exception {
+        final long baseline = usedHeap();
+        final long[] peak = new long[1];
+        Thread sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Runtime runtime = Runtime.getRuntime();
+                    peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory() - baseline);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        sampler.start();
+
+        long start = System.nanoTime();
+        long records = new CatalogExporter(mDatabase).exportFile(file, gzip);
+        long nanos = System.nanoTime() - start;
+
+        sampler.interrupt();
+        sampler.join();
+
+        assertEquals(RECORDS, records);
+        mReporter.metric(name + ".time", "ms", nanos / 1_000_000);
+        mReporter.metric(name + ".fileSize", "KB", file.length() / 1024);
+        mReporter.metric(name + ".heapGrowth", "KB", peak[0] / 1024);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,107 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import elegion.com.roomdatabase.database.CatalogImporter;
+import elegion.com.roomdatabase.database.MusicDatabase;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Импорт CSV на 1M записей: скорость и пиковая куча в первой и второй половине файла.
+ * Если импорт потоковый, пики примерно равны.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CatalogImportBenchmark {
+
+    private static final int ALBUMS = 25_000;
+    private static final int SONGS_PER_ALBUM = 20;
+    private static final long RECORDS = ALBUMS * (1L + 2 * SONGS_PER_ALBUM);
+    private static final int HEAP_SAMPLE_EVERY = 20;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(CatalogImportBenchmark.class);
+
+    private MusicDatabase mDatabase;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+
+        mFile = mFolder.newFile("catalog.csv");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile), "UTF-8"));
+        try {
+            for (int a = 0; a < ALBUMS; a++) {
+                writer.write("album," + a + ",\"album " + a + ", deluxe\"," + (17000 + a % 1000) + "\n");
+                for (int s = 0; s < SONGS_PER_ALBUM; s++) {
+                    int id = a * SONGS_PER_ALBUM + s;
+                    writer.write("song," + id + ",song " + id + "," + id * 1000L + "\n");
+                }
+                for (int s = 0; s < SONGS_PER_ALBUM; s++) {
+                    int id = a * SONGS_PER_ALBUM + s;
+                    writer.write("albumsong," + id + "," + a + "," + id + "\n");
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        mDatabase.close();
+    }
+
+    @Test
+    public void millionRowCsvImport() throws Exception {
+        final long baseline = usedHeap();
+        final long[] peaks = new long[2];
+        final int[] chunks = new int[1];
+
+        long start = System.nanoTime();
+        long records = new CatalogImporter(mDatabase).importFile(mFile, new CatalogImporter.ProgressListener() {
+            @Override
+            public void onChunkCommitted(long records, long bytesRead) {
+                if (++chunks[0] % HEAP_SAMPLE_EVERY == 0) {
+                    int half = records * 2 <= RECORDS ? 0 : 1;
+                    peaks[half] = Math.max(peaks[half], usedHeap() - baseline);
+                }
+            }
+        });
+        long nanos = System.nanoTime() - start;
+
+        assertEquals(RECORDS, records);
+        mReporter.metric("import.time", "ms", nanos / 1_000_000);
+        mReporter.metric("import.recordsPerSecond", "records/sec", records * 1_000_000_000L / Math.max(nanos, 1));
+        mReporter.metric("import.peakHeap.firstHalf", "KB", peaks[0] / 1024);
+        mReporter.metric("import.peakHeap.secondHalf", "KB", peaks[1] / 1024);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,152 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import elegion.com.roomdatabase.database.Album;
+import elegion.com.roomdatabase.database.AlbumSong;
+import elegion.com.roomdatabase.database.CatalogIndex;
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.Song;
+
+/**
+ * Списки каталога из {@link CatalogIndex} против DAO на каталоге 1000 альбомов по 20 песен:
+ * память на строку и задержка списка альбомов и песен альбома.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CatalogIndexBenchmark {
+
+    private static final int ALBUMS = 1000;
+    private static final int SONGS_PER_ALBUM = 20;
+    private static final int SONGS = ALBUMS * SONGS_PER_ALBUM;
+    private static final int ROWS = ALBUMS + 2 * SONGS;
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 500;
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(CatalogIndexBenchmark.class);
+    private final Random mRandom = new Random(42);
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+
+        List<Album> albums = new ArrayList<>(ALBUMS);
+        List<Song> songs = new ArrayList<>(SONGS);
+        List<AlbumSong> links = new ArrayList<>(SONGS);
+        for (int a = 0; a < ALBUMS; a++) {
+            albums.add(new Album(a, "album " + a, new Date()));
+            for (int s = 0; s < SONGS_PER_ALBUM; s++) {
+                int id = a * SONGS_PER_ALBUM + s;
+                //названия треков повторяются между альбомами, как в реальных библиотеках
+                songs.add(new Song(id, "track " + s, id * 1000L));
+                links.add(new AlbumSong(id, a, id));
+            }
+        }
+
+        mDatabase.beginTransaction();
+        try {
+            mMusicDao.insertAlbums(albums);
+            mMusicDao.insertSongs(songs);
+            mMusicDao.setLinksAlbumSongs(links);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        mDatabase.close();
+    }
+
+    @Test
+    public void memoryAndLookupLatency() throws Exception {
+        CatalogIndex index = new CatalogIndex(mDatabase, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+
+        long bytes = allocatedBytes();
+        List<Album> albums = mMusicDao.getAlbums();
+        List<Song> songs = mMusicDao.getSongs();
+        List<AlbumSong> links = mMusicDao.getAlbumSongs();
+        long daoBytes = allocatedBytes() - bytes;
+
+        bytes = allocatedBytes();
+        final CatalogIndex.Snapshot snapshot = index.rebuild();
+        long indexBytes = allocatedBytes() - bytes;
+
+        mReporter.metric("dao.loadAll.allocatedPerRow", "bytes", (double) daoBytes / ROWS);
+        mReporter.metric("index.build.allocatedPerRow", "bytes", (double) indexBytes / ROWS);
+        mReporter.metric("index.retainedPerRow", "bytes", (double) snapshot.getSizeInBytes() / ROWS);
+        mReporter.metric("dao.rows", "rows", albums.size() + songs.size() + links.size());
+
+        mReporter.measure("dao.getAlbums", 5, 50, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                for (Album album : mMusicDao.getAlbums()) {
+                    album.getName();
+                }
+            }
+        });
+
+        mReporter.measure("index.albums", 5, 50, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                for (int i = 0, count = snapshot.getAlbumCount(); i < count; i++) {
+                    snapshot.getAlbumName(i);
+                }
+            }
+        });
+
+        mReporter.measure("dao.getSongsFromAlbum", WARMUP, ITERATIONS, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                for (Song song : mMusicDao.getSongsFromAlbum(mRandom.nextInt(ALBUMS))) {
+                    song.getName();
+                }
+            }
+        });
+
+        mReporter.measure("index.albumSongs", WARMUP, ITERATIONS, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                int album = snapshot.indexOfAlbum(mRandom.nextInt(ALBUMS));
+                for (int i = 0, count = snapshot.getAlbumSongCount(album); i < count; i++) {
+                    int song = snapshot.getAlbumSong(album, i);
+                    snapshot.getSongName(song);
+                    snapshot.getSongDuration(song);
+                }
+            }
+        });
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,130 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import elegion.com.roomdatabase.database.Album;
+import elegion.com.roomdatabase.database.AlbumSong;
+import elegion.com.roomdatabase.database.CatalogIndex;
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.Song;
+
+/**
+ * Время до первого списка при старте процесса: первые {@link #FIRST_SCREEN} альбомов
+ * через DAO, через сборку {@link CatalogIndex} из таблиц и через загрузку снимка с диска.
+ * Каждый замер - новый экземпляр индекса, как после перезапуска процесса.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CatalogStartupBenchmark {
+
+    private static final int ALBUMS = 2000;
+    private static final int SONGS_PER_ALBUM = 15;
+    private static final int SONGS = ALBUMS * SONGS_PER_ALBUM;
+    private static final int FIRST_SCREEN = 30;
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 20;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(CatalogStartupBenchmark.class);
+    private final Executor mDirectExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+
+        List<Album> albums = new ArrayList<>(ALBUMS);
+        List<Song> songs = new ArrayList<>(SONGS);
+        List<AlbumSong> links = new ArrayList<>(SONGS);
+        for (int a = 0; a < ALBUMS; a++) {
+            albums.add(new Album(a, "album " + a, new Date()));
+            for (int s = 0; s < SONGS_PER_ALBUM; s++) {
+                int id = a * SONGS_PER_ALBUM + s;
+                songs.add(new Song(id, "song " + id, id * 1000L));
+                links.add(new AlbumSong(id, a, id));
+            }
+        }
+
+        mDatabase.beginTransaction();
+        try {
+            mMusicDao.insertAlbums(albums);
+            mMusicDao.insertSongs(songs);
+            mMusicDao.setLinksAlbumSongs(links);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        mDatabase.close();
+    }
+
+    @Test
+    public void timeToFirstList() throws Exception {
+        mReporter.measure("firstList(dao.getAlbums)", WARMUP, ITERATIONS, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                List<Album> albums = mMusicDao.getAlbums();
+                for (int i = 0; i < FIRST_SCREEN; i++) {
+                    albums.get(i).getName();
+                }
+            }
+        });
+
+        mReporter.measure("firstList(index rebuild)", WARMUP, ITERATIONS, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                renderFirstScreen(new CatalogIndex(mDatabase, mDirectExecutor).loadOrRebuild());
+            }
+        });
+
+        final File file = new File(mFolder.getRoot(), "catalog_index.bin");
+        new CatalogIndex(mDatabase, mDirectExecutor, file).rebuild();
+        mReporter.metric("snapshotFile.size", "bytes", file.length());
+
+        mReporter.measure("firstList(index snapshot file)", WARMUP, ITERATIONS, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                renderFirstScreen(new CatalogIndex(mDatabase, mDirectExecutor, file).loadOrRebuild());
+            }
+        });
+    }
+
+    private static void renderFirstScreen(CatalogIndex.Snapshot snapshot) {
+        for (int i = 0; i < FIRST_SCREEN; i++) {
+            snapshot.getAlbumName(i);
+            snapshot.getAlbumSongCount(i);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.room.Room;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import elegion.com.roomdatabase.MusicProvider;
+import elegion.com.roomdatabase.database.Album;
+import elegion.com.roomdatabase.database.AlbumSong;
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.Song;
+
+/**
+ * Горячие пути DAO и провайдера на каталоге 500 альбомов по 20 песен.
+ * Результаты пишутся в build/benchmark-results/HotPathBenchmark.json.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class HotPathBenchmark {
+
+    private static final Uri SONG_URI = Uri.parse("content://com.elegion.roomdatabase.musicprovider/song");
+    private static final int ALBUMS = 500;
+    private static final int SONGS_PER_ALBUM = 20;
+    private static final int SONGS = ALBUMS * SONGS_PER_ALBUM;
+    private static final int BATCH = 1000;
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 500;
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(HotPathBenchmark.class);
+    private final Random mRandom = new Random(42);
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+    private MusicProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        MusicDatabase.setInstance(mDatabase);
+        mMusicDao = mDatabase.getMusicDao();
+        mProvider = Robolectric.setupContentProvider(MusicProvider.class);
+
+        List<Album> albums = new ArrayList<>(ALBUMS);
+        List<Song> songs = new ArrayList<>(SONGS);
+        List<AlbumSong> links = new ArrayList<>(SONGS);
+        for (int a = 0; a < ALBUMS; a++) {
+            albums.add(new Album(a, "album " + a, new Date()));
+            for (int s = 0; s < SONGS_PER_ALBUM; s++) {
+                int id = a * SONGS_PER_ALBUM + s;
+                songs.add(new Song(id, "song " + id, id * 1000L));
+                links.add(new AlbumSong(id, a, id));
+            }
+        }
+
+        mDatabase.beginTransaction();
+        try {
+            mMusicDao.insertAlbums(albums);
+            mMusicDao.insertSongs(songs);
+            mMusicDao.setLinksAlbumSongs(links);
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        MusicDatabase.setInstance(null);
+    }
+
+    @Test
+    public void daoAndProviderHotPaths() throws Exception {
+        final List<Song> batch = new ArrayList<>(BATCH);
+        mReporter.measure("dao.insertSongs(1000)", 5, 50, BATCH, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                batch.clear();
+                int firstId = SONGS + iteration * BATCH;
+                for (int i = 0; i < BATCH; i++) {
+                    batch.add(new Song(firstId + i, "bench " + i, i * 1000L));
+                }
+                mDatabase.beginTransaction();
+                try {
+                    mMusicDao.insertSongs(batch);
+                    mDatabase.setTransactionSuccessful();
+                } finally {
+                    mDatabase.endTransaction();
+                }
+            }
+        });
+
+        mReporter.measure("dao.getSongsFromAlbum", WARMUP, ITERATIONS, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                mMusicDao.getSongsFromAlbum(mRandom.nextInt(ALBUMS));
+            }
+        });
+
+        mReporter.measure("provider.query(selection, sortOrder)", WARMUP, ITERATIONS, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                long from = mRandom.nextInt(SONGS) * 1000L;
+                drain(mProvider.query(SONG_URI, new String[]{"id", "name"}, "duration between ? and ?",
+                        new String[]{String.valueOf(from), String.valueOf(from + 50_000L)}, "duration"));
+            }
+        });
+
+        mReporter.measure("provider.query(row)", WARMUP, ITERATIONS, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                drain(mProvider.query(Uri.withAppendedPath(SONG_URI, String.valueOf(mRandom.nextInt(SONGS))),
+                        null, null, null, null));
+            }
+        });
+
+        final int firstId = SONGS + 100 * BATCH;
+        mReporter.measure("provider.insert(single row)", WARMUP, ITERATIONS, 1, new BenchmarkReporter.Body() {
+            @Override
+            public void run(int iteration) throws Exception {
+                ContentValues values = new ContentValues();
+                values.put("id", firstId + iteration);
+                values.put("name", "single " + iteration);
+                values.put("duration", iteration * 1000L);
+                mProvider.insert(SONG_URI, values);
+            }
+        });
+    }
+
+    private static void drain(Cursor cursor) {
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getInt(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
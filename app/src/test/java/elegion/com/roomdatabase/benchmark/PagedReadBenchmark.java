@@ -0,0 +1,106 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.PageSource;
+import elegion.com.roomdatabase.database.Song;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Пиковая куча при проходе по 100k песен: постранично через PageSource и одним getSongs().
+ */
+@RunWith(RobolectricTestRunner.class)
+public class PagedReadBenchmark {
+
+    private static final int ROWS = 100_000;
+    private static final int PAGE_SIZE = 500;
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(PagedReadBenchmark.class);
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+    private ExecutorService mPrefetchExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+        mPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+        List<Song> songs = new ArrayList<>(PAGE_SIZE);
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                songs.add(new Song(i, "song " + i, i * 1000L));
+                if (songs.size() == PAGE_SIZE) {
+                    mMusicDao.insertSongs(songs);
+                    songs.clear();
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        mPrefetchExecutor.shutdownNow();
+        mDatabase.close();
+    }
+
+    @Test
+    public void peakHeapWhileIterating() throws Exception {
+        long baseline = usedHeap();
+        long pagedPeak = 0;
+        int seen = 0;
+
+        long start = System.nanoTime();
+        PageSource<Song> source = PageSource.songs(mMusicDao, PAGE_SIZE, mPrefetchExecutor);
+        while (source.hasNext()) {
+            List<Song> page = source.nextPage();
+            seen += page.size();
+            if (seen % (PAGE_SIZE * 20) == 0) {
+                pagedPeak = Math.max(pagedPeak, usedHeap() - baseline);
+            }
+        }
+        long pagedNanos = System.nanoTime() - start;
+
+        baseline = usedHeap();
+        start = System.nanoTime();
+        List<Song> all = mMusicDao.getSongs();
+        long fullPeak = usedHeap() - baseline;
+        long fullNanos = System.nanoTime() - start;
+
+        assertEquals(all.size(), seen);
+        mReporter.metric("paged.peakHeap", "KB", pagedPeak / 1024);
+        mReporter.metric("paged.time", "ms", pagedNanos / 1_000_000);
+        mReporter.metric("getSongs.peakHeap", "KB", fullPeak / 1024);
+        mReporter.metric("getSongs.time", "ms", fullNanos / 1_000_000);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
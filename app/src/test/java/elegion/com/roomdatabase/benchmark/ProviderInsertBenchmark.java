@@ -0,0 +1,144 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.room.Room;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+
+import elegion.com.roomdatabase.MusicProvider;
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.Song;
+
+/**
+ * Сравнивает вставку песен по одной строке через insert и пачкой через bulkInsert, а также
+ * одиночную вставку через скомпилированный statement со старым путём через сущность и DAO.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ProviderInsertBenchmark {
+
+    private static final Uri SONG_URI = Uri.parse("content://com.elegion.roomdatabase.musicprovider/song");
+    private static final int ROWS = 5000;
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(ProviderInsertBenchmark.class);
+
+    private MusicProvider mProvider;
+    private MusicDatabase mDatabase;
+
+    @Before
+    public void setUp() throws Exception {
+        //тест работает на главном потоке, поэтому подменяем базу на in-memory с разрешёнными запросами
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        MusicDatabase.setInstance(mDatabase);
+        mProvider = Robolectric.setupContentProvider(MusicProvider.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        MusicDatabase.setInstance(null);
+    }
+
+    @Test
+    public void singleRowVersusBulkInsert() throws Exception {
+        ContentValues[] values = createSongValues(0);
+
+        long start = System.nanoTime();
+        for (ContentValues value : values) {
+            mProvider.insert(SONG_URI, value);
+        }
+        long singleNanos = System.nanoTime() - start;
+
+        values = createSongValues(ROWS);
+        start = System.nanoTime();
+        mProvider.bulkInsert(SONG_URI, values);
+        long bulkNanos = System.nanoTime() - start;
+
+        mReporter.metric("insert.rowsPerSecond", "rows/sec", rowsPerSecond(singleNanos));
+        mReporter.metric("bulkInsert(chunk " + mProvider.getBatchChunkSize() + ").rowsPerSecond", "rows/sec",
+                rowsPerSecond(bulkNanos));
+    }
+
+    //SQLite в Robolectric работает в своём потоке, поэтому счётчик потока теста видит только
+    //выделения провайдера, Room и привязки аргументов - то, что и меняется
+    @Test
+    public void singleRowInsertAllocations() throws Exception {
+        MusicDao musicDao = mDatabase.getMusicDao();
+        //прогрев обоих путей, чтобы компиляция statement и JIT не попали в замер
+        insertThroughEntity(musicDao, createSongValues(10 * ROWS));
+        insertThroughStatement(createSongValues(11 * ROWS));
+
+        ContentValues[] values = createSongValues(ROWS);
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        insertThroughEntity(musicDao, values);
+        long entityNanos = System.nanoTime() - start;
+        long entityBytes = allocatedBytes() - bytes;
+
+        values = createSongValues(2 * ROWS);
+        bytes = allocatedBytes();
+        start = System.nanoTime();
+        insertThroughStatement(values);
+        long statementNanos = System.nanoTime() - start;
+        long statementBytes = allocatedBytes() - bytes;
+
+        mReporter.metric("insert(entity + dao).rowsPerSecond", "rows/sec", rowsPerSecond(entityNanos));
+        mReporter.metric("insert(entity + dao).allocatedPerRow", "bytes", (double) entityBytes / ROWS);
+        mReporter.metric("insert(statement).rowsPerSecond", "rows/sec", rowsPerSecond(statementNanos));
+        mReporter.metric("insert(statement).allocatedPerRow", "bytes", (double) statementBytes / ROWS);
+    }
+
+    //путь провайдера до скомпилированных statement: prepareSong, insertSong, uri из getAsInteger.
+    //Новый путь меряется через весь insert с notifyChange и таймером, так что разница занижена
+    private void insertThroughEntity(MusicDao musicDao, ContentValues[] values) {
+        for (ContentValues value : values) {
+            Song song = new Song();
+            song.setId(value.getAsInteger("id"));
+            song.setName(value.getAsString("name"));
+            song.setDuration(value.getAsLong("duration"));
+            musicDao.insertSong(song);
+            mDatabase.getRowCache().invalidateSong(song.getId());
+            ContentUris.withAppendedId(SONG_URI, value.getAsInteger("id"));
+        }
+    }
+
+    private void insertThroughStatement(ContentValues[] values) {
+        for (ContentValues value : values) {
+            mProvider.insert(SONG_URI, value);
+        }
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private ContentValues[] createSongValues(int firstId) {
+        ContentValues[] values = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            ContentValues value = new ContentValues();
+            value.put("id", firstId + i);
+            value.put("name", "song " + i);
+            value.put("duration", i * 1000L);
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private static long rowsPerSecond(long nanos) {
+        return ROWS * 1_000_000_000L / Math.max(nanos, 1);
+    }
+}
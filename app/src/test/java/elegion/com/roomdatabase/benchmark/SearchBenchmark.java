@@ -0,0 +1,114 @@
+package elegion.com.roomdatabase.benchmark;
+
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.arch.persistence.room.Room;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import elegion.com.roomdatabase.database.MusicDao;
+import elegion.com.roomdatabase.database.MusicDatabase;
+import elegion.com.roomdatabase.database.MusicSearch;
+import elegion.com.roomdatabase.database.Song;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Задержка поиска по 200k песен: FTS4 через MusicSearch против like '%x%'.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SearchBenchmark {
+
+    private static final int ROWS = 200_000;
+    private static final int BATCH = 1000;
+    private static final int LIMIT = 50;
+    private static final String[] WORDS = {"love", "night", "summer", "river", "blue", "fire", "dream", "road"};
+    private static final String[] QUERIES = {"lov", "summer riv", "dream", "bl", "night fire"};
+    private static final int ITERATIONS = 20;
+
+    private final BenchmarkReporter mReporter = new BenchmarkReporter(SearchBenchmark.class);
+
+    private MusicDatabase mDatabase;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        MusicDao musicDao = mDatabase.getMusicDao();
+
+        List<Song> songs = new ArrayList<>(BATCH);
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                String name = WORDS[i % WORDS.length] + " " + WORDS[(i / WORDS.length) % WORDS.length] + " " + i;
+                songs.add(new Song(i, name, i * 1000L));
+                if (songs.size() == BATCH) {
+                    musicDao.insertSongs(songs);
+                    songs.clear();
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mReporter.write();
+        mDatabase.close();
+    }
+
+    @Test
+    public void ftsVersusLike() throws Exception {
+        MusicSearch search = new MusicSearch(mDatabase);
+        long[] fts = new long[QUERIES.length * ITERATIONS];
+        long[] like = new long[QUERIES.length * ITERATIONS];
+
+        for (int i = 0; i < fts.length; i++) {
+            String query = QUERIES[i % QUERIES.length];
+
+            long start = System.nanoTime();
+            int ftsRows = search.searchSongs(query, LIMIT).size();
+            fts[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int likeRows = countLike(query);
+            like[i] = System.nanoTime() - start;
+
+            assertEquals(query, likeRows > 0, ftsRows > 0);
+        }
+
+        mReporter.report("fts4", fts, 1);
+        mReporter.report("like", like, 1);
+    }
+
+    private int countLike(String query) {
+        StringBuilder where = new StringBuilder();
+        String[] words = query.split(" ");
+        Object[] args = new Object[words.length + 1];
+        for (int i = 0; i < words.length; i++) {
+            where.append(i == 0 ? "" : " and ").append("name like ?");
+            args[i] = "%" + words[i] + "%";
+        }
+        args[words.length] = LIMIT;
+
+        Cursor cursor = mDatabase.query(new SimpleSQLiteQuery(
+                "select * from song where " + where + " order by length(name), id limit ?", args));
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
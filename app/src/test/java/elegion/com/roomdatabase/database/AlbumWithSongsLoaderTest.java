@@ -0,0 +1,140 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+import android.util.SparseArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumWithSongsLoaderTest {
+
+    private static final int ALBUM_COUNT = 2 * AlbumWithSongsLoader.MAX_VARIABLES_PER_QUERY;
+    //последний альбом первого куска - без песен
+    private static final int EMPTY_ALBUM_ID = AlbumWithSongsLoader.MAX_VARIABLES_PER_QUERY;
+    private static final int SHARED_SONG_ID = 5000;
+    private static final int EXTRA_SONG_ID = 5001;
+
+    private MusicDatabase mDatabase;
+    private AlbumWithSongsLoader mLoader;
+    //album id -> id песен в порядке связей
+    private final SparseArray<List<Integer>> mExpected = new SparseArray<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mLoader = new AlbumWithSongsLoader(mDatabase);
+
+        List<Album> albums = new ArrayList<>();
+        List<Song> songs = new ArrayList<>();
+        List<AlbumSong> links = new ArrayList<>();
+        for (int albumId = 1; albumId <= ALBUM_COUNT; albumId++) {
+            albums.add(new Album(albumId, "album " + albumId, null));
+            mExpected.put(albumId, new ArrayList<Integer>());
+            if (albumId != EMPTY_ALBUM_ID) {
+                songs.add(new Song(albumId, "song " + albumId, albumId));
+                link(links, albumId, albumId);
+            }
+        }
+        songs.add(new Song(SHARED_SONG_ID, "shared", 1));
+        songs.add(new Song(EXTRA_SONG_ID, "extra", 1));
+        //общая песня у альбомов по разные стороны границы куска
+        link(links, EMPTY_ALBUM_ID - 1, SHARED_SONG_ID);
+        link(links, EMPTY_ALBUM_ID + 1, SHARED_SONG_ID);
+        link(links, ALBUM_COUNT, EXTRA_SONG_ID);
+
+        MusicDao musicDao = mDatabase.getMusicDao();
+        musicDao.insertAlbums(albums);
+        musicDao.insertSongs(songs);
+        musicDao.setLinksAlbumSongs(links);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void loadAllAttachesSongsAcrossChunks() throws Exception {
+        List<AlbumWithSongs> result = mLoader.loadAll();
+
+        assertEquals(ALBUM_COUNT, result.size());
+        assertSongs(result);
+        assertEquals(0, songsOf(result, EMPTY_ALBUM_ID).size());
+        assertEquals(Arrays.asList(EMPTY_ALBUM_ID - 1, SHARED_SONG_ID), songsOf(result, EMPTY_ALBUM_ID - 1));
+        assertEquals(Arrays.asList(EMPTY_ALBUM_ID + 1, SHARED_SONG_ID), songsOf(result, EMPTY_ALBUM_ID + 1));
+    }
+
+    @Test
+    public void loadByIdsAttachesSongsAcrossChunks() throws Exception {
+        //901 id: второй кусок из одного альбома
+        int[] ids = new int[AlbumWithSongsLoader.MAX_VARIABLES_PER_QUERY + 1];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ALBUM_COUNT - i;
+        }
+        List<AlbumWithSongs> result = mLoader.load(ids);
+
+        assertEquals(ids.length, result.size());
+        assertSongs(result);
+        assertEquals(Arrays.asList(ALBUM_COUNT, EXTRA_SONG_ID), songsOf(result, ALBUM_COUNT));
+
+        int[] allIds = new int[ALBUM_COUNT];
+        for (int i = 0; i < ALBUM_COUNT; i++) {
+            allIds[i] = i + 1;
+        }
+        result = mLoader.load(allIds);
+        assertEquals(ALBUM_COUNT, result.size());
+        assertSongs(result);
+    }
+
+    private void link(List<AlbumSong> links, int albumId, int songId) {
+        links.add(new AlbumSong(links.size() + 1, albumId, songId));
+        mExpected.get(albumId).add(songId);
+    }
+
+    private void assertSongs(List<AlbumWithSongs> result) {
+        Set<Integer> albumIds = new HashSet<>();
+        for (AlbumWithSongs albumWithSongs : result) {
+            int albumId = albumWithSongs.getAlbum().getId();
+            //каждый альбом ровно один раз
+            assertTrue("duplicate album " + albumId, albumIds.add(albumId));
+            List<Integer> expected = mExpected.get(albumId);
+            assertNotNull("unexpected album " + albumId, expected);
+            assertEquals("album " + albumId, expected, songIds(albumWithSongs));
+        }
+    }
+
+    private static List<Integer> songsOf(List<AlbumWithSongs> result, int albumId) {
+        for (AlbumWithSongs albumWithSongs : result) {
+            if (albumWithSongs.getAlbum().getId() == albumId) {
+                return songIds(albumWithSongs);
+            }
+        }
+        throw new AssertionError("no album " + albumId);
+    }
+
+    private static List<Integer> songIds(AlbumWithSongs albumWithSongs) {
+        List<Integer> ids = new ArrayList<>();
+        for (Song song : albumWithSongs.getSongs()) {
+            ids.add(song.getId());
+        }
+        return ids;
+    }
+}
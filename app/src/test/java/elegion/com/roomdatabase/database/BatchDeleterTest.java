@@ -0,0 +1,87 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class BatchDeleterTest {
+
+    private static final int SONGS = 1000;
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+
+        List<Song> songs = new ArrayList<>(SONGS);
+        List<AlbumSong> albumSongs = new ArrayList<>();
+        for (int i = 1; i <= SONGS; i++) {
+            songs.add(new Song(i, "song " + i, i));
+            //первая половина песен в альбоме 1, первые десять ещё и в альбоме 2
+            if (i <= SONGS / 2) {
+                albumSongs.add(new AlbumSong(i, 1, i));
+            }
+            if (i <= 10) {
+                albumSongs.add(new AlbumSong(SONGS + i, 2, i));
+            }
+        }
+        mMusicDao.insertAlbums(Arrays.asList(new Album(1, "album 1", null), new Album(2, "album 2", null)));
+        mMusicDao.insertSongs(songs);
+        mMusicDao.setLinksAlbumSongs(albumSongs);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void deletingAlbumRemovesOnlyItsLinks() throws Exception {
+        assertEquals(1, mMusicDao.deleteAlbumById(1));
+
+        assertEquals(10, mMusicDao.getAlbumSongs().size());
+        assertEquals(SONGS, mMusicDao.getSongs().size());
+    }
+
+    @Test
+    public void replacingSongKeepsItsLinks() throws Exception {
+        mMusicDao.insertSong(new Song(5, "renamed", 5));
+
+        assertEquals(SONGS / 2, mMusicDao.getSongsFromAlbum(1).size());
+        assertEquals(10, mMusicDao.getSongsFromAlbum(2).size());
+    }
+
+    @Test
+    public void deletesSongsAcrossChunksInOneCall() throws Exception {
+        int[] ids = new int[SONGS];
+        for (int i = 0; i < SONGS; i++) {
+            ids[i] = i + 1;
+        }
+        mDatabase.getRowCache().getAlbumSong(1);
+
+        assertEquals(SONGS, new BatchDeleter(mDatabase).deleteSongs(ids));
+
+        assertEquals(0, mMusicDao.getSongs().size());
+        assertEquals(0, mMusicDao.getAlbumSongs().size());
+        assertNull(mDatabase.getRowCache().getAlbumSong(1));
+    }
+}
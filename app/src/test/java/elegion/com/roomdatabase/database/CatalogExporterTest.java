@@ -0,0 +1,121 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class CatalogExporterTest {
+
+    private static final String TRICKY_NAME = "Say \"hi\"\\\n\tтест\u2028";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MusicDatabase mDatabase;
+    private MusicDatabase mRestored;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = createDatabase();
+        mRestored = createDatabase();
+
+        MusicDao musicDao = mDatabase.getMusicDao();
+        musicDao.insertAlbums(Arrays.asList(
+                new Album(1, "A", MusicTypeConverters.fromEpochDay(17532L)),
+                new Album(2, null, null)));
+        musicDao.insertSongs(Arrays.asList(new Song(10, TRICKY_NAME, 215000), new Song(11, "B", 1)));
+        musicDao.setLinksAlbumSongs(Collections.singletonList(new AlbumSong(100, 1, 10)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+        mRestored.close();
+    }
+
+    @Test
+    public void writesOneJsonObjectPerLine() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(5, new CatalogExporter(mDatabase).export(output));
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(output.toByteArray()), "UTF-8"));
+        JSONObject album = new JSONObject(reader.readLine());
+        assertEquals("album", album.getString("table"));
+        assertEquals(17532, album.getLong("release"));
+        assertTrue(new JSONObject(reader.readLine()).isNull("release"));
+        assertEquals(TRICKY_NAME, new JSONObject(reader.readLine()).getString("name"));
+    }
+
+    @Test
+    public void gzipSnapshotRoundTripsThroughImporter() throws Exception {
+        File file = new File(mFolder.getRoot(), "catalog.ndjson.gz");
+        assertEquals(5, new CatalogExporter(mDatabase).exportFile(file, true));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        assertEquals(5, new CatalogImporter(mRestored, 2).importFile(file, null));
+
+        MusicDao restored = mRestored.getMusicDao();
+        assertEquals(TRICKY_NAME, restored.getSongById(10).getName());
+        assertEquals(17532L, (long) MusicTypeConverters.toEpochDay(restored.getAlbumById(1).getReleaseDate()));
+        assertNull(restored.getAlbumById(2).getName());
+        assertNull(restored.getAlbumById(2).getReleaseDate());
+        assertEquals(1, restored.getSongsFromAlbum(1).size());
+    }
+
+    @Test
+    public void smallPagesExportEveryRowOnce() throws Exception {
+        File file = new File(mFolder.getRoot(), "catalog.ndjson");
+        assertEquals(5, new CatalogExporter(mDatabase, 1).exportFile(file, false));
+
+        assertEquals(5, new CatalogImporter(mRestored).importFile(file, null));
+        assertEquals(2, mRestored.getMusicDao().getAlbums().size());
+        assertEquals(2, mRestored.getMusicDao().getSongs().size());
+        assertEquals(1, mRestored.getMusicDao().getAlbumSongs().size());
+    }
+
+    @Test
+    public void failedExportRemovesTempFile() throws Exception {
+        //на место файла нельзя переименовать: там непустой каталог
+        File file = mFolder.newFolder("catalog.ndjson");
+        new File(file, "occupied").createNewFile();
+
+        try {
+            new CatalogExporter(mDatabase).exportFile(file, false);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    private static MusicDatabase createDatabase() {
+        return MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+    }
+}
@@ -0,0 +1,157 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class CatalogImporterTest {
+
+    private static final String CSV = "album,1,\"Hits, vol. 1\",17532\n"
+            + "album,2,Empty release,\n"
+            + "song,10,\"Say \"\"hi\"\"\",215000\n"
+            + "song,11,Second,180000\r\n"
+            + "\n"
+            + "albumsong,100,1,10\n"
+            + "albumsong,101,1,11\n"
+            + "albumsong,102,2,11";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void importsCsvInChunks() throws Exception {
+        final List<Long> progress = new ArrayList<>();
+        long records = new CatalogImporter(mDatabase, 3).importFile(write("catalog.csv", CSV),
+                new CatalogImporter.ProgressListener() {
+                    @Override
+                    public void onChunkCommitted(long records, long bytesRead) {
+                        progress.add(records);
+                    }
+                });
+
+        assertEquals(7, records);
+        assertEquals("[3, 6, 7]", progress.toString());
+        assertEquals("Hits, vol. 1", mMusicDao.getAlbumById(1).getName());
+        assertEquals(null, mMusicDao.getAlbumById(2).getReleaseDate());
+        assertEquals("Say \"hi\"", mMusicDao.getSongById(10).getName());
+        assertEquals(215000, mMusicDao.getSongById(10).getDuration());
+        assertEquals(2, mMusicDao.getSongsFromAlbum(1).size());
+    }
+
+    @Test
+    public void importsJson() throws Exception {
+        String json = "{\"version\": 1,"
+                + "\"albums\": [{\"id\": 1, \"name\": \"A\", \"release\": 17532}, {\"id\": 2, \"name\": \"B\", \"release\": null}],"
+                + "\"songs\": [{\"id\": 10, \"name\": \"S\", \"duration\": 1000, \"extra\": [1, 2]}],"
+                + "\"albumSongs\": [{\"id\": 100, \"album_id\": 1, \"song_id\": 10}]}";
+
+        long records = new CatalogImporter(mDatabase, 2).importFile(write("catalog.json", json), null);
+
+        assertEquals(4, records);
+        assertEquals(17532L, (long) MusicTypeConverters.toEpochDay(mMusicDao.getAlbumById(1).getReleaseDate()));
+        assertEquals(1, mMusicDao.getSongsFromAlbum(1).size());
+    }
+
+    @Test
+    public void resumesFromLastCommittedChunk() throws Exception {
+        File file = write("catalog.csv", CSV);
+        try {
+            new CatalogImporter(mDatabase, 2).importFile(file, new CatalogImporter.ProgressListener() {
+                @Override
+                public void onChunkCommitted(long records, long bytesRead) {
+                    if (records >= 4) {
+                        throw new IllegalStateException("crash");
+                    }
+                }
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(CatalogImporter.getCheckpointFile(file).exists());
+        assertEquals(0, mMusicDao.getAlbumSongs().size());
+
+        //второй проход пропускает 4 записи и не вставляет их повторно
+        mMusicDao.insertSongs(Collections.singletonList(new Song(11, "renamed", 1)));
+        long records = new CatalogImporter(mDatabase, 2).importFile(file, null);
+
+        assertEquals(7, records);
+        assertEquals("renamed", mMusicDao.getSongById(11).getName());
+        assertEquals(3, mMusicDao.getAlbumSongs().size());
+        assertFalse(CatalogImporter.getCheckpointFile(file).exists());
+    }
+
+    @Test
+    public void rejectsMalformedRecord() throws Exception {
+        try {
+            new CatalogImporter(mDatabase).importFile(write("bad.csv", "song,1,name\n"), null);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("line 1"));
+        }
+    }
+
+    @Test
+    public void readsQuotedCsvFields() throws Exception {
+        String[] fields = new String[4];
+        StringBuilder field = new StringBuilder();
+        StringReader reader = new StringReader("a,\"b\nc\",\"\"\"\",d,e\nlast");
+
+        assertEquals(5, CatalogImporter.readCsvRecord(reader, fields, field));
+        assertEquals("b\nc", fields[1]);
+        assertEquals("\"", fields[2]);
+        assertEquals(1, CatalogImporter.readCsvRecord(reader, fields, field));
+        assertEquals("last", fields[0]);
+        assertEquals(-1, CatalogImporter.readCsvRecord(reader, fields, field));
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = mFolder.newFile(name);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
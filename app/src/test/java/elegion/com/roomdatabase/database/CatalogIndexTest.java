@@ -0,0 +1,272 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.InvalidationTracker;
+import android.arch.persistence.room.Room;
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class CatalogIndexTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final Executor mDirectExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+
+        mMusicDao.insertAlbums(Arrays.asList(new Album(10, "first", new Date(0)),
+                new Album(20, "second", null), new Album(30, "empty", null)));
+        mMusicDao.insertSongs(Arrays.asList(new Song(1, "intro", 1000), new Song(2, "intro", 2000),
+                new Song(3, null, 3000)));
+        mMusicDao.setLinksAlbumSongs(Arrays.asList(new AlbumSong(1, 20, 3), new AlbumSong(2, 10, 1),
+                new AlbumSong(3, 20, 2), new AlbumSong(4, 10, 2)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void albumSongsAreGroupedByAlbum() throws Exception {
+        CatalogIndex.Snapshot snapshot = CatalogIndex.build(mDatabase);
+
+        assertEquals(3, snapshot.getAlbumCount());
+        int first = snapshot.indexOfAlbum(10);
+        assertEquals("first", snapshot.getAlbumName(first));
+        assertEquals(0, snapshot.getAlbumRelease(first));
+        assertEquals(CatalogIndex.Snapshot.NO_RELEASE, snapshot.getAlbumRelease(snapshot.indexOfAlbum(20)));
+
+        assertEquals(2, snapshot.getAlbumSongCount(first));
+        assertEquals(1, snapshot.getSongId(snapshot.getAlbumSong(first, 0)));
+        assertEquals(2, snapshot.getSongId(snapshot.getAlbumSong(first, 1)));
+
+        int second = snapshot.indexOfAlbum(20);
+        assertEquals(2, snapshot.getAlbumSongCount(second));
+        assertEquals(3, snapshot.getSongId(snapshot.getAlbumSong(second, 0)));
+        assertEquals(0, snapshot.getAlbumSongCount(snapshot.indexOfAlbum(30)));
+        assertEquals(-1, snapshot.indexOfAlbum(40));
+    }
+
+    @Test
+    public void namesShareOneBuffer() throws Exception {
+        CatalogIndex.Snapshot snapshot = CatalogIndex.build(mDatabase);
+
+        assertEquals("intro", snapshot.getSongName(snapshot.indexOfSong(1)));
+        assertEquals("intro", snapshot.getSongName(snapshot.indexOfSong(2)));
+        assertNull(snapshot.getSongName(snapshot.indexOfSong(3)));
+        assertEquals(2000, snapshot.getSongDuration(snapshot.indexOfSong(2)));
+        //first + second + empty + intro, повторное intro не копируется
+        long names = 2L * ("first" + "second" + "empty" + "intro").length();
+        assertEquals(names, snapshot.getSizeInBytes() - 4L * (3 * 4 + 3 * 3 + 4 + 4) - 8L * 3);
+    }
+
+    @Test
+    public void rebuildPublishesNewSnapshot() throws Exception {
+        CatalogIndex index = newIndex(null);
+        assertNull(index.getSnapshot());
+
+        index.rebuild();
+        mMusicDao.deleteSongById(1);
+        assertEquals(3, index.getSnapshot().getSongCount());
+
+        CatalogIndex.Snapshot snapshot = index.rebuild();
+        assertSame(snapshot, index.getSnapshot());
+        assertEquals(2, snapshot.getSongCount());
+        assertEquals(1, snapshot.getAlbumSongCount(snapshot.indexOfAlbum(10)));
+    }
+
+    @Test
+    public void snapshotFileIsUsedUntilCatalogChanges() throws Exception {
+        File file = new File(mFolder.getRoot(), "catalog_index.bin");
+        CatalogIndex.Snapshot built = newIndex(file).loadOrRebuild();
+
+        CatalogIndex.Snapshot loaded = newIndex(file).loadOrRebuild();
+        assertEquals(built.getChangeCounter(), loaded.getChangeCounter());
+        assertEquals(built.getSizeInBytes(), loaded.getSizeInBytes());
+        int first = loaded.indexOfAlbum(10);
+        assertEquals("first", loaded.getAlbumName(first));
+        assertEquals(2, loaded.getAlbumSongCount(first));
+        assertEquals("intro", loaded.getSongName(loaded.getAlbumSong(first, 1)));
+        assertNull(loaded.getSongName(loaded.indexOfSong(3)));
+        assertEquals(3000, loaded.getSongDuration(loaded.indexOfSong(3)));
+
+        mMusicDao.insertSong(new Song(4, "outro", 4000));
+        CatalogIndex.Snapshot rebuilt = newIndex(file).loadOrRebuild();
+        assertTrue(rebuilt.getChangeCounter() > built.getChangeCounter());
+        assertEquals(4, rebuilt.getSongCount());
+        assertEquals(4, newIndex(file).loadOrRebuild().getSongCount());
+    }
+
+    @Test
+    public void failedSnapshotWriteRemovesTempFile() throws Exception {
+        //на место файла нельзя переименовать: там непустой каталог
+        File file = mFolder.newFolder("catalog_index.bin");
+        new File(file, "occupied").createNewFile();
+
+        try {
+            CatalogSnapshotFile.write(CatalogIndex.build(mDatabase), file);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void buildReadsAllPages() throws Exception {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 100; i < 2600; i++) {
+            songs.add(new Song(i, "song " + i, i));
+        }
+        mMusicDao.insertSongs(songs);
+
+        CatalogIndex.Snapshot snapshot = CatalogIndex.build(mDatabase);
+        assertEquals(2503, snapshot.getSongCount());
+        assertEquals(2599, snapshot.getSongId(snapshot.getSongCount() - 1));
+        assertEquals("song 1500", snapshot.getSongName(snapshot.indexOfSong(1500)));
+    }
+
+    @Test(timeout = 10_000)
+    public void writeAfterStartRebuildsThroughInvalidationTracker() throws Exception {
+        CatalogIndex index = new CatalogIndex(mDatabase, mDirectExecutor, null, 0);
+        index.start();
+        try {
+            assertEquals(3, index.getSnapshot().getSongCount());
+
+            mMusicDao.insertSong(new Song(4, "outro", 4000));
+            //трекер обновляется на своём фоновом потоке
+            while (index.getSnapshot().getSongCount() != 4) {
+                Thread.sleep(10);
+            }
+            assertEquals("outro", index.getSnapshot().getSongName(index.getSnapshot().indexOfSong(4)));
+        } finally {
+            index.stop();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void writesWithinIntervalShareOneRebuild() throws Exception {
+        final AtomicInteger builds = new AtomicInteger();
+        final AtomicInteger invalidations = new AtomicInteger();
+        CatalogIndex index = new CatalogIndex(mDatabase, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                builds.incrementAndGet();
+                command.run();
+            }
+        }, null, 10_000);
+        index.start();
+        //наблюдатель добавлен после индекса и вызывается после него
+        InvalidationTracker.Observer observer = new InvalidationTracker.Observer("song") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidations.incrementAndGet();
+            }
+        };
+        mDatabase.getInvalidationTracker().addObserver(observer);
+        try {
+            assertEquals(1, builds.get());
+
+            mMusicDao.insertSong(new Song(4, "four", 4000));
+            while (invalidations.get() < 1) {
+                Thread.sleep(10);
+            }
+            mMusicDao.insertSong(new Song(5, "five", 5000));
+            while (invalidations.get() < 2) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, builds.get());
+            assertEquals(3, index.getSnapshot().getSongCount());
+
+            ShadowLooper.idleMainLooper(10_000);
+            assertEquals(2, builds.get());
+            assertEquals(5, index.getSnapshot().getSongCount());
+        } finally {
+            mDatabase.getInvalidationTracker().removeObserver(observer);
+            index.stop();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void startAndStopRegisterObserverOnExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        final AtomicInteger invalidations = new AtomicInteger();
+        CatalogIndex index = new CatalogIndex(mDatabase, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, null, 0);
+
+        //вызывающий поток только ставит задачи; остановка до их выполнения не оставляет наблюдателя
+        index.start();
+        index.stop();
+        assertEquals(2, tasks.size());
+        for (int i = tasks.size() - 1; i >= 0; i--) {
+            tasks.remove(i).run();
+        }
+        assertNull(index.getSnapshot());
+
+        InvalidationTracker.Observer observer = new InvalidationTracker.Observer("song") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidations.incrementAndGet();
+            }
+        };
+        mDatabase.getInvalidationTracker().addObserver(observer);
+        try {
+            mMusicDao.insertSong(new Song(4, "four", 4000));
+            while (invalidations.get() < 1) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, tasks.size());
+        } finally {
+            mDatabase.getInvalidationTracker().removeObserver(observer);
+        }
+    }
+
+    private CatalogIndex newIndex(File snapshotFile) {
+        return new CatalogIndex(mDatabase, mDirectExecutor, snapshotFile);
+    }
+}
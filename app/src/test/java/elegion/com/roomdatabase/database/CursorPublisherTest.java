@@ -0,0 +1,163 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CursorPublisherTest {
+
+    private static final int SONGS = 10;
+
+    private final Executor mDirectExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+    private Cursor mCursor;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+
+        List<Song> songs = new ArrayList<>(SONGS);
+        for (int i = 1; i <= SONGS; i++) {
+            songs.add(new Song(i, "song " + i, i * 1000L));
+        }
+        mMusicDao.insertSongs(songs);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void emitsOnlyRequestedRows() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        songs().subscribe(subscriber);
+        assertEquals(0, subscriber.mSongs.size());
+
+        subscriber.mSubscription.request(3);
+        assertEquals(3, subscriber.mSongs.size());
+        assertFalse(subscriber.mCompleted);
+        assertEquals("song 3", subscriber.mSongs.get(2).getName());
+        assertEquals(3000, subscriber.mSongs.get(2).getDuration());
+
+        subscriber.mSubscription.request(SONGS - 3);
+        assertEquals(SONGS, subscriber.mSongs.size());
+        assertTrue(subscriber.mCompleted);
+        assertTrue(mCursor.isClosed());
+    }
+
+    @Test
+    public void cancelClosesCursor() throws Exception {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        songs().subscribe(subscriber);
+        subscriber.mSubscription.request(2);
+
+        subscriber.mSubscription.cancel();
+        subscriber.mSubscription.request(5);
+
+        assertEquals(2, subscriber.mSongs.size());
+        assertFalse(subscriber.mCompleted);
+        assertTrue(mCursor.isClosed());
+    }
+
+    @Test
+    public void requestFromOnNextKeepsOrder() throws Exception {
+        final List<Song> songs = new ArrayList<>();
+        final boolean[] completed = new boolean[1];
+        songs().subscribe(new CursorPublisher.Subscriber<Song>() {
+            private CursorPublisher.Subscription mSubscription;
+
+            @Override
+            public void onSubscribe(CursorPublisher.Subscription subscription) {
+                mSubscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Song item) {
+                songs.add(item);
+                mSubscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                throw new AssertionError(error);
+            }
+
+            @Override
+            public void onComplete() {
+                completed[0] = true;
+            }
+        });
+
+        assertEquals(SONGS, songs.size());
+        for (int i = 0; i < SONGS; i++) {
+            assertEquals(i + 1, songs.get(i).getId());
+        }
+        assertTrue(completed[0]);
+    }
+
+    private CursorPublisher<Song> songs() {
+        return new CursorPublisher<>(new Callable<Cursor>() {
+            @Override
+            public Cursor call() throws Exception {
+                mCursor = mMusicDao.getSongsCursor();
+                return mCursor;
+            }
+        }, MusicStreams.SONG, mDirectExecutor);
+    }
+
+    private static class RecordingSubscriber implements CursorPublisher.Subscriber<Song> {
+
+        private final List<Song> mSongs = new ArrayList<>();
+        private CursorPublisher.Subscription mSubscription;
+        private boolean mCompleted;
+
+        @Override
+        public void onSubscribe(CursorPublisher.Subscription subscription) {
+            mSubscription = subscription;
+        }
+
+        @Override
+        public void onNext(Song item) {
+            mSongs.add(item);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            throw new AssertionError(error);
+        }
+
+        @Override
+        public void onComplete() {
+            mCompleted = true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package elegion.com.roomdatabase.database;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IntLruCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        IntLruCache<String> cache = new IntLruCache<>(2);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        assertEquals("one", cache.get(1));
+
+        cache.put(3, "three");
+
+        assertNull(cache.get(2));
+        assertEquals("one", cache.get(1));
+        assertEquals("three", cache.get(3));
+        assertEquals(1, cache.evictionCount());
+        assertEquals(3, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void removeFreesSlotForReuse() throws Exception {
+        IntLruCache<String> cache = new IntLruCache<>(3);
+        for (int i = 0; i < 3; i++) {
+            cache.put(i, "v" + i);
+        }
+
+        cache.remove(1);
+        cache.put(10, "v10");
+
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.evictionCount());
+        assertNull(cache.get(1));
+        assertEquals("v0", cache.get(0));
+        assertEquals("v10", cache.get(10));
+    }
+
+    @Test
+    public void staleLoadIsDroppedAfterInvalidation() throws Exception {
+        IntLruCache<String> cache = new IntLruCache<>(4);
+        long generation = cache.generation();
+
+        cache.remove(5);
+
+        assertFalse(cache.putIfGeneration(5, "stale", generation));
+        assertNull(cache.get(5));
+        assertTrue(cache.putIfGeneration(5, "fresh", cache.generation()));
+        assertEquals("fresh", cache.get(5));
+    }
+
+    @Test
+    public void collidingKeysStayReachable() throws Exception {
+        IntLruCache<Integer> cache = new IntLruCache<>(64);
+        for (int i = 0; i < 64; i++) {
+            cache.put(i * 1024, i);
+        }
+        for (int i = 0; i < 64; i += 2) {
+            cache.remove(i * 1024);
+        }
+        for (int i = 1; i < 64; i += 2) {
+            assertEquals(Integer.valueOf(i), cache.get(i * 1024));
+        }
+        assertEquals(32, cache.size());
+    }
+}
@@ -0,0 +1,48 @@
+package elegion.com.roomdatabase.database;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverValuesWithBoundedError() throws Exception {
+        int previous = -1;
+        for (long value = 0; value < 1L << 37; value = value < 64 ? value + 1 : value + value / 7) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket >= previous);
+            assertTrue(bucket < LatencyHistogram.BUCKETS);
+            previous = bucket;
+
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            if (value < 1L << 36) {
+                assertTrue(value + " -> " + highest, highest >= value);
+                assertTrue(value + " -> " + highest, highest - value <= value / 32);
+            }
+        }
+    }
+
+    @Test
+    public void percentilesFollowRecordedValues() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxNanos());
+        assertWithin(500_000, histogram.getPercentileNanos(50));
+        assertWithin(990_000, histogram.getPercentileNanos(99));
+        assertEquals(1_000_000, histogram.getPercentileNanos(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(99));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected && actual - expected <= expected / 32);
+    }
+}
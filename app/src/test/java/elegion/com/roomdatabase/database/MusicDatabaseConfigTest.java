@@ -0,0 +1,84 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.arch.persistence.room.Room;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class MusicDatabaseConfigTest {
+
+    private MusicDatabase mDatabase;
+
+    @After
+    public void tearDown() throws Exception {
+        if (mDatabase != null) {
+            mDatabase.close();
+        }
+    }
+
+    @Test
+    public void appliesPragmasOnOpen() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class),
+                new MusicDatabaseConfig.Builder()
+                        .setCacheSizeKb(4096)
+                        .setSynchronous(MusicDatabaseConfig.Synchronous.OFF)
+                        .setAutoCheckpointPages(250)
+                        .build())
+                .allowMainThreadQueries()
+                .build();
+
+        assertEquals(-4096, pragma("cache_size"));
+        assertEquals(0, pragma("synchronous"));
+        assertEquals(250, pragma("wal_autocheckpoint"));
+        //in-memory база без WAL: checkpoint ничего не делает и не падает
+        assertTrue(mDatabase.checkpoint(MusicDatabase.CheckpointMode.PASSIVE));
+    }
+
+    @Test
+    public void buildUponKeepsSettings() throws Exception {
+        MusicDatabaseConfig config = new MusicDatabaseConfig.Builder()
+                .setWriteAheadLogging(false)
+                .setPageSize(8192)
+                .setCheckpointIntervalMillis(30_000)
+                .build()
+                .buildUpon()
+                .setCacheSizeKb(1024)
+                .build();
+
+        assertEquals(false, config.isWriteAheadLogging());
+        assertEquals(8192, config.getPageSize());
+        assertEquals(1024, config.getCacheSizeKb());
+        assertEquals(30_000, config.getCheckpointIntervalMillis());
+        assertEquals(MusicDatabaseConfig.Synchronous.NORMAL, config.getSynchronous());
+    }
+
+    @Test
+    public void rejectsInvalidPageSize() throws Exception {
+        try {
+            new MusicDatabaseConfig.Builder().setPageSize(3000);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private long pragma(String name) {
+        Cursor cursor = mDatabase.query(new SimpleSQLiteQuery("PRAGMA " + name));
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
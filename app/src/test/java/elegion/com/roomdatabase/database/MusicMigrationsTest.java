@@ -0,0 +1,107 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class MusicMigrationsTest {
+
+    private static final String DATABASE_NAME = "migration-test.db";
+
+    private MusicDatabase mDatabase;
+
+    @After
+    public void tearDown() throws Exception {
+        if (mDatabase != null) {
+            mDatabase.close();
+        }
+        RuntimeEnvironment.application.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void parseNumberTakesLastNumber() throws Exception {
+        assertEquals(123, MusicMigrations.parseNumber("123", -1));
+        assertEquals(123, MusicMigrations.parseNumber("duration 123", -1));
+        assertEquals(1520934000000L, MusicMigrations.parseNumber("release 1520934000000", -1));
+        assertEquals(-1, MusicMigrations.parseNumber("garbage", -1));
+        assertEquals(-1, MusicMigrations.parseNumber("", -1));
+        assertEquals(-1, MusicMigrations.parseNumber(null, -1));
+        //не помещается в long
+        assertEquals(-1, MusicMigrations.parseNumber("99999999999999999999", -1));
+    }
+
+    @Test
+    public void parseReleaseEpochDayAcceptsMillisAndDays() throws Exception {
+        assertEquals(17603, MusicMigrations.parseReleaseEpochDay("release 1520934000000"));
+        assertEquals(17532, MusicMigrations.parseReleaseEpochDay("17532"));
+        assertEquals(Long.MIN_VALUE, MusicMigrations.parseReleaseEpochDay("garbage"));
+        assertEquals(Long.MIN_VALUE, MusicMigrations.parseReleaseEpochDay(null));
+    }
+
+    @Test
+    public void migratesVersion2Data() throws Exception {
+        //схема версии 2 в том виде, в каком её создавал Room: duration и release - строки
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(
+                RuntimeEnvironment.application.getDatabasePath(DATABASE_NAME), null);
+        try {
+            old.execSQL("CREATE TABLE IF NOT EXISTS `Album` (`id` INTEGER NOT NULL, `name` TEXT, `release` TEXT, "
+                    + "PRIMARY KEY(`id`))");
+            old.execSQL("CREATE TABLE IF NOT EXISTS `Song` (`id` INTEGER NOT NULL, `name` TEXT, `duration` TEXT, "
+                    + "PRIMARY KEY(`id`))");
+            old.execSQL("CREATE TABLE IF NOT EXISTS `AlbumSong` (`id` INTEGER NOT NULL, `album_id` INTEGER NOT NULL, "
+                    + "`song_id` INTEGER NOT NULL, PRIMARY KEY(`id`), "
+                    + "FOREIGN KEY(`album_id`) REFERENCES `Album`(`id`) ON UPDATE NO ACTION ON DELETE NO ACTION , "
+                    + "FOREIGN KEY(`song_id`) REFERENCES `Song`(`id`) ON UPDATE NO ACTION ON DELETE NO ACTION )");
+            old.execSQL("CREATE INDEX `index_AlbumSong_album_id_song_id` ON `AlbumSong` (`album_id`, `song_id`)");
+            old.execSQL("CREATE INDEX `index_AlbumSong_song_id_album_id` ON `AlbumSong` (`song_id`, `album_id`)");
+
+            old.execSQL("INSERT INTO `Album` VALUES (1, 'album 1', 'release 1520934000000'), (2, 'album 2', NULL), "
+                    + "(3, 'album 3', '17532')");
+            old.execSQL("INSERT INTO `Song` VALUES (1, 'song 1', 'duration 180000'), (2, 'song 2', '240000'), "
+                    + "(3, NULL, 'garbage')");
+            old.execSQL("INSERT INTO `AlbumSong` VALUES (1, 1, 1), (2, 1, 2), (3, 3, 3)");
+            old.setVersion(2);
+        } finally {
+            old.close();
+        }
+
+        //Room сверяет схему после миграций и падает, если она не совпала с сущностями
+        mDatabase = MusicDatabase.configure(
+                Room.databaseBuilder(RuntimeEnvironment.application, MusicDatabase.class, DATABASE_NAME))
+                .allowMainThreadQueries()
+                .build();
+        MusicDao musicDao = mDatabase.getMusicDao();
+
+        assertEquals(180000, musicDao.getSongById(1).getDuration());
+        assertEquals(240000, musicDao.getSongById(2).getDuration());
+        assertEquals(0, musicDao.getSongById(3).getDuration());
+        assertEquals(TimeUnit.DAYS.toMillis(17603), musicDao.getAlbumById(1).getReleaseDate().getTime());
+        assertNull(musicDao.getAlbumById(2).getReleaseDate());
+        assertEquals(TimeUnit.DAYS.toMillis(17532), musicDao.getAlbumById(3).getReleaseDate().getTime());
+        assertEquals(2, musicDao.getSongsFromAlbum(1).size());
+
+        //объекты следующих версий: поиск, версии синхронизации, статистика и каскад связей
+        assertEquals(2, new MusicSearch(mDatabase).searchSongs("song", 10).size());
+        long version = new MusicSync(mDatabase).getVersion();
+        assertTrue(version >= 9);
+        for (int songId = 1; songId <= 3; songId++) {
+            assertNotNull(musicDao.getSongStats(songId));
+        }
+        musicDao.deleteAlbumById(1);
+        assertEquals(1, musicDao.getAlbumSongs().size());
+        assertTrue(new MusicSync(mDatabase).getVersion() > version);
+    }
+}
@@ -0,0 +1,173 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class MusicRepositoryTest {
+
+    private MusicDatabase mDatabase;
+    private ExecutorService mReadExecutor;
+    private ExecutorService mWriteExecutor;
+    private final AtomicInteger mDaoCalls = new AtomicInteger();
+    private final AtomicInteger mMainThreadDaoCalls = new AtomicInteger();
+
+    private MusicRepository mRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        //без allowMainThreadQueries: Room сам упадёт, если запрос попадёт на главный поток
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class)).build();
+        mReadExecutor = Executors.newFixedThreadPool(2);
+        mWriteExecutor = Executors.newSingleThreadExecutor();
+
+        mRepository = new MusicRepository(mDatabase, recordingDao(mDatabase.getMusicDao()),
+                mReadExecutor, mWriteExecutor, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Handler(Looper.getMainLooper()).post(command);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void daoIsNeverCalledOnMainLooper() throws Exception {
+        final AtomicInteger delivered = new AtomicInteger();
+
+        mRepository.insertCatalog(Collections.singletonList(new Album(1, "album 1", new Date())),
+                Collections.singletonList(new Song(1, "song 1", 180_000L)),
+                Collections.singletonList(new AlbumSong(1, 1, 1)), null);
+        mWriteExecutor.shutdown();
+        assertTrue(mWriteExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        mRepository.getAlbums(new MusicRepository.Callback<List<Album>>() {
+            @Override
+            public void onResult(List<Album> result) {
+                assertEquals(Looper.getMainLooper(), Looper.myLooper());
+                assertEquals(1, result.size());
+                delivered.incrementAndGet();
+            }
+        });
+        mRepository.getSongsFromAlbum(1, new MusicRepository.Callback<List<Song>>() {
+            @Override
+            public void onResult(List<Song> result) {
+                assertEquals(1, result.size());
+                delivered.incrementAndGet();
+            }
+        });
+        mReadExecutor.shutdown();
+        assertTrue(mReadExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(2, delivered.get());
+        assertTrue(mDaoCalls.get() > 0);
+        assertEquals(0, mMainThreadDaoCalls.get());
+    }
+
+    @Test
+    public void daoErrorIsDeliveredAndWorkerSurvives() throws Exception {
+        final MusicDao musicDao = mDatabase.getMusicDao();
+        MusicDao failingDao = (MusicDao) Proxy.newProxyInstance(MusicDao.class.getClassLoader(),
+                new Class[]{MusicDao.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getAlbums")) {
+                            throw new IllegalStateException("broken dao");
+                        }
+                        return method.invoke(musicDao, args);
+                    }
+                });
+        //один поток: если он погибнет, следующая задача не выполнится
+        ExecutorService readExecutor = Executors.newSingleThreadExecutor();
+        MusicRepository repository = new MusicRepository(mDatabase, failingDao, readExecutor, mWriteExecutor,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        new Handler(Looper.getMainLooper()).post(command);
+                    }
+                });
+
+        final List<Exception> errors = new ArrayList<>();
+        final AtomicInteger delivered = new AtomicInteger();
+        repository.getAlbums(new MusicRepository.ErrorCallback<List<Album>>() {
+            @Override
+            public void onResult(List<Album> result) {
+                delivered.incrementAndGet();
+            }
+
+            @Override
+            public void onError(Exception error) {
+                assertEquals(Looper.getMainLooper(), Looper.myLooper());
+                errors.add(error);
+            }
+        });
+        //без обработчика ошибок колбек не вызывается, ошибка только в логе
+        repository.getAlbums(new MusicRepository.Callback<List<Album>>() {
+            @Override
+            public void onResult(List<Album> result) {
+                delivered.incrementAndGet();
+            }
+        });
+        repository.getSongs(new MusicRepository.Callback<List<Song>>() {
+            @Override
+            public void onResult(List<Song> result) {
+                assertEquals(0, result.size());
+                delivered.incrementAndGet();
+            }
+        });
+        readExecutor.shutdown();
+        assertTrue(readExecutor.awaitTermination(5, TimeUnit.SECONDS));
+
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+
+        assertEquals(1, errors.size());
+        assertEquals("broken dao", errors.get(0).getMessage());
+        assertEquals(1, delivered.get());
+    }
+
+    private MusicDao recordingDao(final MusicDao musicDao) {
+        return (MusicDao) Proxy.newProxyInstance(MusicDao.class.getClassLoader(), new Class[]{MusicDao.class},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        mDaoCalls.incrementAndGet();
+                        if (Looper.myLooper() == Looper.getMainLooper()) {
+                            mMainThreadDaoCalls.incrementAndGet();
+                        }
+                        return method.invoke(musicDao, args);
+                    }
+                });
+    }
+}
@@ -0,0 +1,90 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class MusicSearchTest {
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+    private MusicSearch mMusicSearch;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+        mMusicSearch = new MusicSearch(mDatabase);
+
+        mMusicDao.insertSongs(Arrays.asList(new Song(1, "yellow submarine", 1), new Song(2, "yesterday", 2)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void insertIsIndexed() throws Exception {
+        mMusicDao.insertSong(new Song(3, "help", 3));
+
+        //короткое название выше
+        assertEquals(Arrays.asList(2, 1), songIds("ye"));
+        assertEquals(Arrays.asList(3), songIds("hel"));
+    }
+
+    @Test
+    public void updateReindexesName() throws Exception {
+        mMusicDao.updateSongInfo(new Song(2, "let it be", 2));
+
+        assertEquals(Arrays.asList(1), songIds("ye"));
+        assertEquals(Arrays.asList(2), songIds("let be"));
+    }
+
+    @Test
+    public void deleteRemovesFromIndex() throws Exception {
+        mMusicDao.deleteSongById(1);
+
+        assertEquals(Arrays.asList(2), songIds("ye"));
+        assertEquals(0, songIds("submarine").size());
+    }
+
+    @Test
+    public void replaceKeepsOneIndexEntry() throws Exception {
+        //REPLACE удаляет старую строку без триггеров на удаление; индекс не должен сохранить старое имя
+        mMusicDao.insertSong(new Song(1, "blackbird", 1));
+        mMusicDao.insertSong(new Song(1, "blackbird", 1));
+
+        assertEquals(Arrays.asList(2), songIds("ye"));
+        assertEquals(0, songIds("submarine").size());
+        assertEquals(Arrays.asList(1), songIds("black"));
+
+        mMusicDao.insertAlbum(new Album(1, "abbey road", null));
+        mMusicDao.insertAlbum(new Album(1, "revolver", null));
+        assertEquals(0, mMusicSearch.searchAlbums("abbey", 10).size());
+        assertEquals(1, mMusicSearch.searchAlbums("revol", 10).size());
+    }
+
+    private List<Integer> songIds(String query) {
+        List<Integer> ids = new ArrayList<>();
+        for (Song song : mMusicSearch.searchSongs(query, 10)) {
+            ids.add(song.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,144 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class MusicSyncTest {
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+    private MusicSync mMusicSync;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+        mMusicSync = new MusicSync(mDatabase);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void upsertSkipsUnchangedRows() throws Exception {
+        assertEquals(3, upsertCatalog("song 1"));
+        long token = mMusicSync.getVersion();
+
+        assertEquals(0, upsertCatalog("song 1"));
+        assertEquals(0, mMusicSync.getChanges(token, 100).getSongs().size());
+
+        assertEquals(1, upsertCatalog("renamed"));
+        MusicSync.Changes changes = mMusicSync.getChanges(token, 100);
+        assertEquals(1, changes.getSongs().size());
+        assertEquals("renamed", changes.getSongs().get(0).getName());
+        assertTrue(changes.getToken() > token);
+        assertEquals(1, mMusicDao.getSongsFromAlbum(1).size());
+    }
+
+    @Test
+    public void replaceAndUpdateThroughDaoAreVersioned() throws Exception {
+        mMusicDao.insertSong(new Song(1, "song", 1));
+        Song inserted = mMusicDao.getSongById(1);
+        assertTrue(inserted.getVersion() > 0);
+        assertTrue(inserted.getUpdatedAt() > 0);
+
+        mMusicDao.updateSongInfo(new Song(1, "song", 2));
+        assertTrue(mMusicDao.getSongById(1).getVersion() > inserted.getVersion());
+    }
+
+    @Test
+    public void replaceOfLoadedEntityIsVersioned() throws Exception {
+        upsertCatalog("song 1");
+        long token = mMusicSync.getVersion();
+
+        //сущность со старой version, перезаписанная через REPLACE
+        Song loaded = mMusicDao.getSongById(1);
+        loaded.setName("renamed");
+        mMusicDao.insertSong(loaded);
+
+        Song replaced = mMusicDao.getSongById(1);
+        assertTrue(replaced.getVersion() > loaded.getVersion());
+        assertTrue(mMusicSync.getVersion() > token);
+        MusicSync.Changes changes = mMusicSync.getChanges(token, 100);
+        assertEquals(1, changes.getSongs().size());
+        assertEquals("renamed", changes.getSongs().get(0).getName());
+
+        token = mMusicSync.getVersion();
+        mMusicDao.insertSong(replaced);
+        assertTrue(mMusicSync.getVersion() > token);
+    }
+
+    @Test
+    public void deletesAreReportedWithCascadedLinks() throws Exception {
+        upsertCatalog("song 1");
+        long token = mMusicSync.getVersion();
+
+        mMusicDao.deleteAlbumById(1);
+
+        MusicSync.Changes changes = mMusicSync.getChanges(token, 100);
+        Set<String> tables = new HashSet<>();
+        for (MusicSync.DeletedRow row : changes.getDeleted()) {
+            tables.add(row.getTable() + "/" + row.getId());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("album/1", "albumsong/1")), tables);
+        assertEquals(0, changes.getAlbums().size());
+        assertFalse(changes.hasMore());
+    }
+
+    @Test
+    public void pagesCoverAllChangesOnce() throws Exception {
+        List<Song> songs = new ArrayList<>();
+        for (int i = 1; i <= 7; i++) {
+            songs.add(new Song(i, "song " + i, i));
+        }
+        mMusicSync.upsertCatalog(Collections.singletonList(new Album(1, "album", null)), songs,
+                Collections.<AlbumSong>emptyList());
+        mMusicDao.deleteSongById(3);
+
+        Set<Integer> songIds = new HashSet<>();
+        int deleted = 0;
+        long token = 0;
+        MusicSync.Changes changes;
+        do {
+            changes = mMusicSync.getChanges(token, 2);
+            for (Song song : changes.getSongs()) {
+                assertTrue(songIds.add(song.getId()));
+            }
+            deleted += changes.getDeleted().size();
+            token = changes.getToken();
+        } while (changes.hasMore());
+
+        assertEquals(6, songIds.size());
+        assertEquals(1, deleted);
+        assertEquals(mMusicSync.getVersion(), token);
+    }
+
+    private int upsertCatalog(String songName) {
+        return mMusicSync.upsertCatalog(Collections.singletonList(new Album(1, "album", null)),
+                Collections.singletonList(new Song(1, songName, 1000)),
+                Collections.singletonList(new AlbumSong(1, 1, 1)));
+    }
+}
@@ -0,0 +1,193 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.InvalidationTracker;
+import android.arch.persistence.room.Room;
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class ObservableQueryTest {
+
+    private final Executor mDirectExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final AtomicInteger mInvalidations = new AtomicInteger();
+    private final InvalidationTracker.Observer mInvalidationCounter = new InvalidationTracker.Observer("song") {
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            mInvalidations.incrementAndGet();
+        }
+    };
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.getInvalidationTracker().removeObserver(mInvalidationCounter);
+        mDatabase.close();
+    }
+
+    @Test(timeout = 10_000)
+    public void continuousChangesAreDeliveredWithinMaxLatency() throws Exception {
+        final List<Integer> values = new ArrayList<>();
+        ObservableQuery.Subscription subscription = new ObservableQuery<>(mDatabase, mDirectExecutor, 100, 300,
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return mMusicDao.getSongs().size();
+                    }
+                }, "song").observe(new ObservableQuery.Observer<Integer>() {
+            @Override
+            public void onChanged(Integer value) {
+                values.add(value);
+            }
+        });
+        //счётчик добавлен после подписки и узнаёт об изменении после неё
+        mDatabase.getInvalidationTracker().addObserver(mInvalidationCounter);
+        try {
+            ShadowLooper.runUiThreadTasks();
+            assertEquals(1, values.size());
+
+            //изменение каждые 50 мс: debounce 100 мс не наступает, срабатывает граница 300 мс
+            for (int i = 1; i <= 8; i++) {
+                mMusicDao.insertSong(new Song(i, "song " + i, i));
+                awaitInvalidations(i);
+                ShadowLooper.idleMainLooper(50);
+                if (i < 6) {
+                    assertEquals(1, values.size());
+                }
+                if (i == 6) {
+                    assertEquals(2, values.size());
+                    assertEquals(6, (int) values.get(1));
+                }
+            }
+            assertEquals(2, values.size());
+
+            ShadowLooper.idleMainLooper(100);
+            assertEquals(3, values.size());
+            assertEquals(8, (int) values.get(2));
+        } finally {
+            subscription.dispose();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void queryErrorIsDeliveredToErrorObserver() throws Exception {
+        final List<Exception> errors = new ArrayList<>();
+        final AtomicInteger calls = new AtomicInteger();
+        ObservableQuery.Subscription subscription = new ObservableQuery<>(mDatabase, mDirectExecutor, 100,
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        if (calls.incrementAndGet() == 1) {
+                            throw new IllegalStateException("broken query");
+                        }
+                        return mMusicDao.getSongs().size();
+                    }
+                }, "song").observe(new ObservableQuery.ErrorObserver<Integer>() {
+            @Override
+            public void onChanged(Integer value) {
+                assertEquals(1, (int) value);
+            }
+
+            @Override
+            public void onError(Exception error) {
+                errors.add(error);
+            }
+        });
+        mDatabase.getInvalidationTracker().addObserver(mInvalidationCounter);
+        try {
+            ShadowLooper.runUiThreadTasks();
+            assertEquals(1, errors.size());
+            assertEquals("broken query", errors.get(0).getMessage());
+
+            //подписка переживает ошибку
+            mMusicDao.insertSong(new Song(1, "song", 1));
+            awaitInvalidations(1);
+            ShadowLooper.idleMainLooper(100);
+            assertEquals(2, calls.get());
+            assertEquals(1, errors.size());
+        } finally {
+            subscription.dispose();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void registrationRunsOnQueryExecutorAndEarlyDisposeUnregisters() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        Executor queueExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        final AtomicInteger calls = new AtomicInteger();
+        ObservableQuery.Subscription subscription = new ObservableQuery<>(mDatabase, queueExecutor, 100,
+                new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        calls.incrementAndGet();
+                        return mMusicDao.getSongs().size();
+                    }
+                }, "song").observe(new ObservableQuery.Observer<Integer>() {
+            @Override
+            public void onChanged(Integer value) {
+            }
+        });
+        //вызывающий поток не трогает базу: регистрация и первый запрос ждут executor
+        assertEquals(1, tasks.size());
+        assertEquals(0, calls.get());
+
+        //отписка раньше регистрации: регистрация не должна оставить наблюдателя в трекере
+        subscription.dispose();
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).run();
+        }
+        tasks.clear();
+        assertEquals(0, calls.get());
+
+        mDatabase.getInvalidationTracker().addObserver(mInvalidationCounter);
+        mMusicDao.insertSong(new Song(1, "song", 1));
+        awaitInvalidations(1);
+        ShadowLooper.idleMainLooper(100);
+        assertEquals(0, tasks.size());
+        assertEquals(0, calls.get());
+    }
+
+    //трекер сообщает об изменениях со своего фонового потока
+    private void awaitInvalidations(int count) throws InterruptedException {
+        while (mInvalidations.get() < count) {
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package elegion.com.roomdatabase.database;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PageSourceTest {
+
+    //задачи подгрузки копятся и запускаются тестом вручную
+    private final Queue<Runnable> mPrefetches = new ArrayDeque<>();
+    private final Executor mQueueExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mPrefetches.add(command);
+        }
+    };
+    private final AtomicInteger mLoads = new AtomicInteger();
+    private volatile boolean mFailNextLoad;
+
+    @Test
+    public void readsAllPagesWithPrefetch() throws Exception {
+        PageSource<Integer> source = numbers(5, 2);
+
+        List<Integer> all = new ArrayList<>();
+        while (source.hasNext()) {
+            List<Integer> page = source.nextPage();
+            all.addAll(page);
+            runPrefetches();
+        }
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), all);
+        assertEquals(3, mLoads.get());
+    }
+
+    @Test
+    public void closeCancelsPrefetch() throws Exception {
+        PageSource<Integer> source = numbers(10, 2);
+        assertEquals(2, source.nextPage().size());
+        assertEquals(1, mPrefetches.size());
+
+        source.close();
+        runPrefetches();
+
+        //отменённая подгрузка не обращается к базе
+        assertEquals(1, mLoads.get());
+        assertFalse(source.hasNext());
+        assertTrue(source.nextPage().isEmpty());
+    }
+
+    @Test
+    public void failedPrefetchIsRetried() throws Exception {
+        PageSource<Integer> source = numbers(5, 2);
+        assertEquals(Arrays.asList(1, 2), source.nextPage());
+
+        mFailNextLoad = true;
+        runPrefetches();
+        mFailNextLoad = false;
+        try {
+            source.nextPage();
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("load failed", expected.getMessage());
+        }
+
+        //следующий вызов не повторяет старую ошибку, а загружает страницу заново
+        assertEquals(Arrays.asList(3, 4), source.nextPage());
+        runPrefetches();
+        assertEquals(Arrays.asList(5), source.nextPage());
+        assertFalse(source.hasNext());
+    }
+
+    private void runPrefetches() {
+        Runnable prefetch;
+        while ((prefetch = mPrefetches.poll()) != null) {
+            prefetch.run();
+        }
+    }
+
+    //числа 1..count, id равен значению
+    private PageSource<Integer> numbers(final int count, int pageSize) {
+        return new PageSource<Integer>(pageSize, mQueueExecutor) {
+            @Override
+            protected List<Integer> loadPage(long afterId, int limit) {
+                mLoads.incrementAndGet();
+                if (mFailNextLoad) {
+                    throw new IllegalStateException("load failed");
+                }
+                List<Integer> page = new ArrayList<>();
+                for (long id = Math.max(afterId + 1, 1); id <= count && page.size() < limit; id++) {
+                    page.add((int) id);
+                }
+                return page;
+            }
+
+            @Override
+            protected int getId(Integer item) {
+                return item;
+            }
+        };
+    }
+}
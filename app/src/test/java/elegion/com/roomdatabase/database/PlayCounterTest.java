@@ -0,0 +1,111 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class PlayCounterTest {
+
+    private static final int SONGS = 5;
+
+    private MusicDatabase mDatabase;
+    private MusicDao mMusicDao;
+    private PlayCounter mPlayCounter;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+        mMusicDao = mDatabase.getMusicDao();
+        mPlayCounter = mDatabase.getPlayCounter();
+
+        List<Song> songs = new ArrayList<>(SONGS);
+        for (int i = 1; i <= SONGS; i++) {
+            songs.add(new Song(i, "song " + i, i * 1000L));
+        }
+        mMusicDao.insertSongs(songs);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void statsRowFollowsSong() throws Exception {
+        assertEquals(0, mMusicDao.getSongStats(1).getPlays());
+
+        mPlayCounter.recordPlays(1, 3, 100);
+        mPlayCounter.flush();
+        //перезапись песни через REPLACE счётчики не сбрасывает
+        mMusicDao.insertSong(new Song(1, "renamed", 1000));
+        assertEquals(3, mMusicDao.getSongStats(1).getPlays());
+
+        mMusicDao.deleteSongById(1);
+        assertNull(mMusicDao.getSongStats(1));
+    }
+
+    @Test
+    public void concurrentPlaysAreFlushedOnce() throws Exception {
+        final int threads = 4;
+        final int playsPerThread = 1000;
+        Thread[] players = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            players[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < playsPerThread; i++) {
+                        mPlayCounter.recordPlays(1 + i % 2, 1, 1000 + i);
+                    }
+                }
+            });
+            players[t].start();
+        }
+        for (Thread player : players) {
+            player.join();
+        }
+
+        assertEquals(2, mPlayCounter.flush());
+        assertEquals(0, mPlayCounter.flush());
+        assertEquals(threads * playsPerThread / 2, mMusicDao.getSongStats(1).getPlays());
+        assertEquals(threads * playsPerThread / 2, mMusicDao.getSongStats(2).getPlays());
+        assertEquals(1000 + playsPerThread - 1, mMusicDao.getSongStats(2).getLastPlayedAt());
+    }
+
+    @Test
+    public void topListsAreOrderedByPlaysAndTime() throws Exception {
+        mPlayCounter.recordPlays(3, 5, 300);
+        mPlayCounter.recordPlays(1, 2, 500);
+        mPlayCounter.recordPlays(2, 9, 100);
+        //прослушивание удалённой песни не создаёт строку
+        mPlayCounter.recordPlays(42, 1, 900);
+        mPlayCounter.flush();
+
+        List<PlayedSong> mostPlayed = mMusicDao.getMostPlayedSongs(2);
+        assertEquals(2, mostPlayed.size());
+        assertEquals(2, mostPlayed.get(0).getSong().getId());
+        assertEquals(9, mostPlayed.get(0).getPlays());
+        assertEquals(3, mostPlayed.get(1).getSong().getId());
+
+        List<PlayedSong> recentlyPlayed = mMusicDao.getRecentlyPlayedSongs(10);
+        assertEquals(3, recentlyPlayed.size());
+        assertEquals(1, recentlyPlayed.get(0).getSong().getId());
+        assertEquals("song 1", recentlyPlayed.get(0).getSong().getName());
+        assertEquals(500, recentlyPlayed.get(0).getLastPlayedAt());
+        assertNull(mMusicDao.getSongStats(42));
+    }
+}
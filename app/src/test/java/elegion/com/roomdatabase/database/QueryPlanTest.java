@@ -0,0 +1,92 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.db.SimpleSQLiteQuery;
+import android.arch.persistence.room.Room;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Запросы по таблице связей должны идти через индексы, а не полным проходом.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest {
+
+    private MusicDatabase mDatabase;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void songsFromAlbumUsesIndex() throws Exception {
+        List<String> plan = explain(MusicDao.SONGS_FROM_ALBUM_QUERY, 1);
+
+        assertNoScan(plan);
+        assertTrue(plan.toString(), plan.toString().contains("index_AlbumSong_album_id_song_id"));
+    }
+
+    @Test
+    public void linksBySongUseIndex() throws Exception {
+        //так SQLite проверяет внешний ключ при удалении песни
+        assertNoScan(explain("select * from albumsong where song_id = ?", 1));
+    }
+
+    @Test
+    public void durationAndReleaseRangesUseIndex() throws Exception {
+        assertNoScan(explain(MusicDao.SONGS_SHORTER_THAN_QUERY, 180_000L));
+        assertNoScan(explain(MusicDao.ALBUMS_RELEASED_BETWEEN_QUERY, 17167, 17531));
+    }
+
+    @Test
+    public void topPlayedUsesIndex() throws Exception {
+        List<String> mostPlayed = explain(MusicDao.MOST_PLAYED_SONGS_QUERY, 20);
+        assertNoScan(mostPlayed);
+        assertFalse(mostPlayed.toString(), mostPlayed.toString().contains("TEMP B-TREE"));
+
+        List<String> recentlyPlayed = explain(MusicDao.RECENTLY_PLAYED_SONGS_QUERY, 20);
+        assertNoScan(recentlyPlayed);
+        assertFalse(recentlyPlayed.toString(), recentlyPlayed.toString().contains("TEMP B-TREE"));
+    }
+
+    //именованные параметры Room (:albumId) SQLite связывает по порядку так же, как ?
+    private List<String> explain(String sql, Object... args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = mDatabase.query(new SimpleSQLiteQuery("EXPLAIN QUERY PLAN " + sql, args));
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    private static void assertNoScan(List<String> plan) {
+        for (String step : plan) {
+            assertFalse(plan.toString(), step.startsWith("SCAN"));
+        }
+    }
+}
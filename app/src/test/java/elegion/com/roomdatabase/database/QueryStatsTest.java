@@ -0,0 +1,122 @@
+package elegion.com.roomdatabase.database;
+
+import android.arch.persistence.room.Room;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class QueryStatsTest {
+
+    private MusicDatabase mDatabase;
+
+    @Before
+    public void setUp() throws Exception {
+        mDatabase = MusicDatabase.configure(
+                Room.inMemoryDatabaseBuilder(RuntimeEnvironment.application, MusicDatabase.class))
+                .allowMainThreadQueries()
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void daoCallsAreTimedWithRowCounts() throws Exception {
+        MusicDao musicDao = mDatabase.getMusicDao();
+        musicDao.insertSongs(Arrays.asList(new Song(1, "a", 1), new Song(2, "b", 2), new Song(3, "c", 3)));
+        musicDao.getSongs();
+        musicDao.getSongs();
+        musicDao.getSongsCursor().close();
+
+        QueryStats stats = mDatabase.getQueryStats();
+        assertEquals(1, stats.timer("dao.insertSongs").getHistogram().getCount());
+        assertEquals(2, stats.timer("dao.getSongs").getHistogram().getCount());
+        assertEquals(6, stats.timer("dao.getSongs").getRows());
+        //курсор не читается ради статистики: размер неизвестен
+        assertEquals(1, stats.timer("dao.getSongsCursor").getHistogram().getCount());
+        assertEquals(0, stats.timer("dao.getSongsCursor").getCountedCalls());
+    }
+
+    @Test
+    public void knownRowCountDoesNotExecuteQuery() throws Exception {
+        MusicDao musicDao = mDatabase.getMusicDao();
+        musicDao.insertSongs(Arrays.asList(new Song(1, "a", 1), new Song(2, "b", 2)));
+
+        Cursor cursor = musicDao.getSongsCursor();
+        try {
+            assertEquals(QueryStats.UNKNOWN_ROWS, QueryStats.knownRowCount(cursor));
+            assertTrue(cursor.moveToFirst());
+            assertEquals(2, QueryStats.knownRowCount(cursor));
+        } finally {
+            cursor.close();
+        }
+
+        MatrixCursor matrixCursor = new MatrixCursor(new String[]{"id"});
+        matrixCursor.addRow(new Object[]{1});
+        assertEquals(1, QueryStats.knownRowCount(new CursorWrapper(matrixCursor)));
+        assertEquals(0, QueryStats.knownRowCount(null));
+    }
+
+    @Test
+    public void unknownRowsAreExcludedFromRowsPerCall() throws Exception {
+        QueryStats stats = new QueryStats();
+        QueryStats.Timer timer = stats.timer("query");
+        timer.record(System.nanoTime(), 4);
+        timer.record(System.nanoTime(), QueryStats.UNKNOWN_ROWS);
+
+        assertEquals(2, timer.getHistogram().getCount());
+        assertEquals(4, timer.getRows());
+        assertEquals(1, timer.getCountedCalls());
+
+        StringWriter dump = new StringWriter();
+        stats.dump(new PrintWriter(dump));
+        assertTrue(dump.toString(), dump.toString().contains("4.0"));
+    }
+
+    @Test
+    public void slowQueriesAreLoggedAndDumped() throws Exception {
+        QueryStats stats = mDatabase.getQueryStats();
+        stats.setSlowQueryThresholdMillis(0);
+        mDatabase.getMusicDao().getAlbums();
+
+        assertEquals(1, stats.getSlowQueries().size());
+        assertEquals("dao.getAlbums", stats.getSlowQueries().get(0).getName());
+
+        StringWriter dump = new StringWriter();
+        stats.dump(new PrintWriter(dump));
+        assertTrue(dump.toString(), dump.toString().contains("dao.getAlbums"));
+
+        stats.reset();
+        assertEquals(0, stats.getSlowQueries().size());
+        assertEquals(0, stats.timer("dao.getAlbums").getHistogram().getCount());
+    }
+
+    @Test
+    public void slowQueryLogKeepsLatestEntries() throws Exception {
+        QueryStats stats = new QueryStats();
+        stats.setSlowQueryThresholdMillis(0);
+        for (int i = 0; i < QueryStats.SLOW_QUERY_LOG_SIZE + 10; i++) {
+            stats.timer("query " + i).record(System.nanoTime(), i);
+        }
+
+        assertEquals(QueryStats.SLOW_QUERY_LOG_SIZE, stats.getSlowQueries().size());
+        assertEquals("query 10", stats.getSlowQueries().get(0).getName());
+    }
+}